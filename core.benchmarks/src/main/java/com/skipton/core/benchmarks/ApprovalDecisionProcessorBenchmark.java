@@ -0,0 +1,79 @@
+package com.skipton.core.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.metadata.MetaDataMap;
+import com.adobe.granite.workflow.metadata.SimpleMetaDataMap;
+import com.skipton.core.workflows.ApprovalDecisionProcessor;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Cost of {@link ApprovalDecisionProcessor#execute} with the decision in the workflow
+ * data or only on the payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApprovalDecisionProcessorBenchmark {
+
+    @Param({"workflowData", "payload"})
+    public String decisionSource;
+
+    private final ApprovalDecisionProcessor processor = new ApprovalDecisionProcessor();
+
+    private BenchmarkAemContext context;
+    private WorkItem workItem;
+    private WorkflowSession workflowSession;
+    private MetaDataMap args;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new BenchmarkAemContext().setUp();
+        String payload = SyntheticRepository.CONTENT_ROOT + "/approval";
+        context.create().page(payload, null, Collections.<String, Object>singletonMap("decision", "approve"));
+
+        // The processor only writes status, comment and priority, so the decision stays put
+        MetaDataMap metaData = new SimpleMetaDataMap();
+        if ("workflowData".equals(decisionSource)) {
+            metaData.put("decision", "approve");
+            metaData.put("comments", "Looks good");
+        }
+        workItem = SyntheticRepository.workItem(SyntheticRepository.INSTANCES_ROOT + "/approval_1/workItems/node1",
+            SyntheticRepository.INSTANCES_ROOT + "/approval_1", payload, metaData);
+        workflowSession = mock(WorkflowSession.class);
+        when(workflowSession.adaptTo(ResourceResolver.class)).thenReturn(context.resourceResolver());
+        args = new SimpleMetaDataMap();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.tearDown();
+    }
+
+    @Benchmark
+    public void execute() {
+        processor.execute(workItem, workflowSession, args);
+    }
+}
@@ -0,0 +1,24 @@
+package com.skipton.core.benchmarks;
+
+import io.wcm.testing.mock.aem.context.AemContextImpl;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+
+/**
+ * AEM Mocks context that is set up and torn down by a JMH state instead of a JUnit extension.
+ * The in-memory resource resolver keeps the repository cost out of the measurements.
+ */
+public final class BenchmarkAemContext extends AemContextImpl {
+
+    public BenchmarkAemContext() {
+        setResourceResolverType(ResourceResolverType.RESOURCERESOLVER_MOCK);
+    }
+
+    public BenchmarkAemContext setUp() {
+        setUpContext();
+        return this;
+    }
+
+    public void tearDown() {
+        tearDownContext();
+    }
+}
@@ -0,0 +1,62 @@
+package com.skipton.core.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.skipton.core.workflows.PayloadExpansion;
+import com.skipton.core.workflows.PayloadItemResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of resolving a deep folder payload, shallow and fully expanded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadExpansionBenchmark {
+
+    private static final int FAN_OUT = 4;
+
+    @Param({"2", "4", "6"})
+    public int depth;
+
+    private BenchmarkAemContext context;
+    private String root;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new BenchmarkAemContext().setUp();
+        root = SyntheticRepository.createFolderTree(context, depth, FAN_OUT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.tearDown();
+    }
+
+    @Benchmark
+    public void shallow(Blackhole blackhole) {
+        new PayloadItemResolver(context.resourceResolver(), blackhole::consume).resolve(root);
+    }
+
+    @Benchmark
+    public void deep(Blackhole blackhole) {
+        PayloadExpansion expansion = PayloadExpansion.deep(depth + 1, Integer.MAX_VALUE, TimeUnit.MINUTES.toMillis(1));
+        new PayloadItemResolver(context.resourceResolver(), blackhole::consume, expansion).resolve(root);
+    }
+}
@@ -0,0 +1,76 @@
+package com.skipton.core.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.skipton.core.models.PayloadListModel;
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import com.skipton.core.workflows.PackageFilterCompiler;
+import com.skipton.core.workflows.PayloadListCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@code PayloadListModel} initialisation and of resolving its first page for
+ * workflow packages of 10 to 10k filter roots, with and without the payload list cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadListModelBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int rootCount;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private BenchmarkAemContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new BenchmarkAemContext().setUp();
+        context.addModelsForClasses(PayloadListModel.class);
+        context.registerInjectActivateService(new PackageFilterCompiler());
+        if (cached) {
+            context.registerInjectActivateService(new PayloadListCache());
+        }
+
+        String packagePath = SyntheticRepository.createPackage(context, rootCount);
+        context.currentResource(context.create().resource(SyntheticRepository.CONTENT_ROOT + "/inbox/jcr:content/payloadlist",
+            "sling:resourceType", "skipton/components/workflow/payloadlist"));
+        context.request().setAttribute("workItem", SyntheticRepository.workItem(
+            SyntheticRepository.INSTANCES_ROOT + "/approval_1/workItems/node1",
+            SyntheticRepository.INSTANCES_ROOT + "/approval_1",
+            packagePath));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.tearDown();
+    }
+
+    @Benchmark
+    public PayloadListModel init() {
+        return context.request().adaptTo(PayloadListModel.class);
+    }
+
+    @Benchmark
+    public List<PayloadItem> initAndResolveFirstPage() {
+        return context.request().adaptTo(PayloadListModel.class).getPayloadItems();
+    }
+}
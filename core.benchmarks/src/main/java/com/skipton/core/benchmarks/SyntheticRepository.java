@@ -0,0 +1,137 @@
+package com.skipton.core.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.Workflow;
+import com.adobe.granite.workflow.exec.WorkflowData;
+import com.adobe.granite.workflow.metadata.MetaDataMap;
+import com.adobe.granite.workflow.metadata.SimpleMetaDataMap;
+import com.adobe.granite.workflow.model.WorkflowModel;
+import io.wcm.testing.mock.aem.context.AemContextImpl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Builds the synthetic content the benchmarks run against.
+ */
+public final class SyntheticRepository {
+
+    public static final String CONTENT_ROOT = "/content/skipton/benchmark";
+    public static final String PACKAGE_ROOT = "/var/workflow/packages/benchmark";
+    public static final String INSTANCES_ROOT = "/var/workflow/instances/server0/2024-01-01";
+
+    private SyntheticRepository() {
+        // static methods only
+    }
+
+    /**
+     * Creates a workflow package with the given number of filter roots, each pointing to its own page.
+     *
+     * @return the package path
+     */
+    public static String createPackage(AemContextImpl context, int rootCount) {
+        String packagePath = PACKAGE_ROOT + "-" + rootCount;
+        String filterPath = packagePath + "/jcr:content/vlt:definition/filter";
+        context.create().resource(packagePath + "/jcr:content", "jcr:title", "Benchmark package");
+        for (int i = 0; i < rootCount; i++) {
+            String pagePath = CONTENT_ROOT + "/section" + (i % 100) + "/page" + i;
+            context.create().page(pagePath, null, "Page " + i);
+            context.create().resource(filterPath + "/f" + i, "root", pagePath);
+        }
+        return packagePath;
+    }
+
+    /**
+     * Creates a tree of folders, breadth-first, with {@code fanOut} folders and one asset below every folder.
+     *
+     * @return the path of the tree root
+     */
+    public static String createFolderTree(AemContextImpl context, int depth, int fanOut) {
+        String root = "/content/dam/skipton/benchmark-" + depth + "-" + fanOut;
+        context.create().resource(root, "jcr:primaryType", "sling:Folder");
+
+        Deque<String> parents = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        parents.add(root);
+        depths.add(0);
+        while (!parents.isEmpty()) {
+            String parent = parents.poll();
+            int level = depths.poll();
+            createAsset(context, parent + "/asset.pdf");
+            if (level >= depth) {
+                continue;
+            }
+            for (int i = 0; i < fanOut; i++) {
+                String folder = parent + "/folder" + i;
+                context.create().resource(folder, "jcr:primaryType", "sling:Folder");
+                parents.add(folder);
+                depths.add(level + 1);
+            }
+        }
+        return root;
+    }
+
+    private static void createAsset(AemContextImpl context, String path) {
+        context.create().resource(path, "jcr:primaryType", "dam:Asset");
+        context.create().resource(path + "/jcr:content", "jcr:primaryType", "dam:AssetContent");
+        context.create().resource(path + "/jcr:content/metadata", "dc:title", "Asset", "dc:format", "application/pdf");
+    }
+
+    /**
+     * @return a stub work item of a workflow with the given ID and payload
+     */
+    public static WorkItem workItem(String itemId, String workflowId, String payload) {
+        return workItem(itemId, workflowId, payload, new SimpleMetaDataMap());
+    }
+
+    /**
+     * @return a stub workflow session in which the given work items are active, each in its own
+     *         running workflow, as seen by both the active item scan and the work item index. Every
+     *         scan of the active work items is counted in {@code scans}.
+     */
+    public static WorkflowSession workflowSession(WorkItem[] workItems, AtomicInteger scans) throws WorkflowException {
+        WorkflowSession workflowSession = mock(WorkflowSession.class, withSettings().stubOnly());
+        Workflow[] workflows = new Workflow[workItems.length];
+        for (int i = 0; i < workItems.length; i++) {
+            workflows[i] = workItems[i].getWorkflow();
+            when(workflows[i].getWorkItems()).thenReturn(Collections.singletonList(workItems[i]));
+            when(workflowSession.getWorkflow(workflows[i].getId())).thenReturn(workflows[i]);
+        }
+        when(workflowSession.getWorkflows(any(String[].class))).thenReturn(workflows);
+        when(workflowSession.getActiveWorkItems()).thenAnswer(invocation -> {
+            scans.incrementAndGet();
+            return workItems;
+        });
+        return workflowSession;
+    }
+
+    /**
+     * @return a stub work item whose workflow data carries the given metadata
+     */
+    public static WorkItem workItem(String itemId, String workflowId, String payload, MetaDataMap metaData) {
+        WorkItem item = mock(WorkItem.class, withSettings().stubOnly());
+        Workflow workflow = mock(Workflow.class, withSettings().stubOnly());
+        WorkflowModel workflowModel = mock(WorkflowModel.class, withSettings().stubOnly());
+        WorkflowData workflowData = mock(WorkflowData.class, withSettings().stubOnly());
+
+        when(item.getId()).thenReturn(itemId);
+        when(item.getWorkflow()).thenReturn(workflow);
+        when(item.getWorkflowData()).thenReturn(workflowData);
+        when(workflow.getId()).thenReturn(workflowId);
+        when(workflow.getWorkflowModel()).thenReturn(workflowModel);
+        when(workflow.getWorkflowData()).thenReturn(workflowData);
+        when(workflowModel.getTitle()).thenReturn("Approval");
+        when(workflowData.getPayload()).thenReturn(payload);
+        when(workflowData.getMetaDataMap()).thenReturn(metaData);
+        return item;
+    }
+}
@@ -0,0 +1,93 @@
+package com.skipton.core.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.skipton.core.models.PayloadListModel;
+import com.skipton.core.workflows.WorkItemIndex;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of finding the workflow of a work item passed as request parameter with many
+ * active work items, scanning the active items or using the {@link WorkItemIndex}. The
+ * indexed variant checks during setup that lookups are served by the index, seeded from the
+ * running workflows and confirmed per caller, and never fall back to the scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkItemLookupBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int activeItems;
+
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    private BenchmarkAemContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws WorkflowException {
+        context = new BenchmarkAemContext().setUp();
+        context.addModelsForClasses(PayloadListModel.class);
+        if (indexed) {
+            context.registerInjectActivateService(new WorkItemIndex());
+        }
+
+        String payload = SyntheticRepository.CONTENT_ROOT + "/page";
+        context.create().page(payload);
+
+        WorkItem[] workItems = new WorkItem[activeItems];
+        for (int i = 0; i < activeItems; i++) {
+            String workflowId = SyntheticRepository.INSTANCES_ROOT + "/approval_" + i;
+            workItems[i] = SyntheticRepository.workItem(workflowId + "/workItems/node1", workflowId, payload);
+        }
+        AtomicInteger scans = new AtomicInteger();
+        WorkflowSession workflowSession = SyntheticRepository.workflowSession(workItems, scans);
+        context.registerAdapter(ResourceResolver.class, WorkflowSession.class, workflowSession);
+
+        context.currentResource(context.create().resource(SyntheticRepository.CONTENT_ROOT + "/inbox/jcr:content/payloadlist",
+            "sling:resourceType", "skipton/components/workflow/payloadlist"));
+        // The last active item is the worst case for a scan
+        WorkItem target = workItems[activeItems - 1];
+        context.request().setParameterMap(Collections.singletonMap("item", target.getId()));
+
+        String workflowId = lookup();
+        if (!target.getWorkflow().getId().equals(workflowId)) {
+            throw new IllegalStateException("Lookup resolved " + workflowId + " instead of " + target.getWorkflow().getId());
+        }
+        if (indexed && scans.get() > 0) {
+            throw new IllegalStateException("Indexed lookup fell back to scanning the active work items");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.tearDown();
+    }
+
+    @Benchmark
+    public String lookup() {
+        return context.request().adaptTo(PayloadListModel.class).getWorkflowId();
+    }
+}
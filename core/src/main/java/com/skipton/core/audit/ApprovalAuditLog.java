@@ -0,0 +1,282 @@
+package com.skipton.core.audit;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind audit trail of approval decisions. Callers hand events to a bounded lock-free
+ * queue and return immediately; a background writer persists them in batches below
+ * {@value #AUDIT_ROOT}, partitioned by UTC date as {@code yyyy/MM/dd}. When the queue is full
+ * the configured overflow policy drops the newest or the oldest event. On deactivation the
+ * queue stops accepting events and everything queued is written before the service goes away.
+ */
+@Designate(ocd = ApprovalAuditLog.Config.class)
+@Component(service = ApprovalAuditLog.class)
+public class ApprovalAuditLog {
+
+    @ObjectClassDefinition(name = "Skipton - Approval Audit Log",
+                           description = "Persists approval decisions asynchronously below /var/skipton/audit")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Queue capacity",
+                             description = "Maximum number of events waiting to be written")
+        int queue_capacity() default 10000;
+
+        @AttributeDefinition(name = "Batch size",
+                             description = "Maximum number of events saved with one commit")
+        int batch_size() default 200;
+
+        @AttributeDefinition(name = "Flush interval (ms)",
+                             description = "Delay between two runs of the background writer")
+        long flush_interval_ms() default 1000;
+
+        @AttributeDefinition(name = "Overflow policy",
+                             description = "What to do with a new event when the queue is full",
+                             options = {
+                                 @Option(label = "Drop the new event", value = "DROP_NEWEST"),
+                                 @Option(label = "Drop the oldest queued event", value = "DROP_OLDEST")
+                             })
+        String overflow_policy() default "DROP_NEWEST";
+
+        @AttributeDefinition(name = "Drain timeout (seconds)",
+                             description = "Maximum time to wait for the writer when deactivating")
+        int drain_timeout_seconds() default 30;
+    }
+
+    static final String AUDIT_ROOT = "/var/skipton/audit";
+
+    private static final String SUBSERVICE = "audit-writer";
+
+    private static final Map<String, Object> FOLDER = Collections.singletonMap("jcr:primaryType", "sling:Folder");
+
+    private static final Logger log = LoggerFactory.getLogger(ApprovalAuditLog.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private final Queue<AuditEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    // Only touched by the writer, under writeLock
+    private final Object writeLock = new Object();
+    private final List<AuditEvent> pending = new ArrayList<>();
+
+    private volatile boolean accepting;
+    private volatile ScheduledExecutorService writer;
+    private int capacity;
+    private int batchSize;
+    private boolean dropOldest;
+    private int drainTimeoutSeconds;
+
+    @Activate
+    protected void activate(final Config config) {
+        capacity = Math.max(1, config.queue_capacity());
+        batchSize = Math.max(1, config.batch_size());
+        dropOldest = "DROP_OLDEST".equals(config.overflow_policy());
+        drainTimeoutSeconds = Math.max(1, config.drain_timeout_seconds());
+
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "skipton-audit-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(10L, config.flush_interval_ms());
+        writer.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        accepting = true;
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        accepting = false;
+        ScheduledExecutorService current = writer;
+        writer = null;
+        if (current != null) {
+            current.shutdown();
+            try {
+                if (!current.awaitTermination(drainTimeoutSeconds, TimeUnit.SECONDS)) {
+                    log.warn("Audit writer did not finish within {} seconds", drainTimeoutSeconds);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Drain whatever is still queued on the deactivating thread
+        flush();
+        if (queued.get() > 0 || !pending.isEmpty()) {
+            log.error("Could not write {} audit events before deactivation", queued.get() + pending.size());
+        }
+    }
+
+    /**
+     * Queues an event for writing without blocking.
+     *
+     * @return {@code false} if the event was dropped
+     */
+    public boolean record(AuditEvent event) {
+        if (!accepting) {
+            dropped.increment();
+            log.warn("Audit log is not active, dropping decision for {}", event.getWorkflowId());
+            return false;
+        }
+        if (queued.incrementAndGet() > capacity) {
+            if (dropOldest && queue.poll() != null) {
+                // The increment above counted the new event, the polled one is no longer queued
+                queued.decrementAndGet();
+                dropped.increment();
+                queue.offer(event);
+                return true;
+            }
+            queued.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+        queue.offer(event);
+        return true;
+    }
+
+    public int getQueueSize() {
+        return queued.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * Writes queued events in batches of at most the batch size, one commit per batch.
+     * A failed batch is kept and retried first on the next run.
+     */
+    void flush() {
+        synchronized (writeLock) {
+            if (pending.isEmpty() && queued.get() == 0) {
+                return;
+            }
+            try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(
+                    Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE))) {
+                while (true) {
+                    while (pending.size() < batchSize) {
+                        AuditEvent event = queue.poll();
+                        if (event == null) {
+                            break;
+                        }
+                        queued.decrementAndGet();
+                        pending.add(event);
+                    }
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    for (AuditEvent event : pending) {
+                        write(resolver, event);
+                    }
+                    resolver.commit();
+                    written.add(pending.size());
+                    pending.clear();
+                }
+            } catch (LoginException | PersistenceException | RuntimeException e) {
+                log.warn("Could not write {} audit events, retrying on the next run", pending.size(), e);
+            }
+        }
+    }
+
+    private static void write(ResourceResolver resolver, AuditEvent event) throws PersistenceException {
+        Resource day = ResourceUtil.getOrCreateResource(resolver, dayPath(event.getTimestamp()), FOLDER, null, false);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("jcr:primaryType", "nt:unstructured");
+        properties.put(AuditEvent.TIMESTAMP, calendar(event.getTimestamp()));
+        putIfNotNull(properties, AuditEvent.WORKFLOW_ID, event.getWorkflowId());
+        putIfNotNull(properties, AuditEvent.PAYLOAD_PATH, event.getPayloadPath());
+        putIfNotNull(properties, AuditEvent.USER_ID, event.getUserId());
+        putIfNotNull(properties, AuditEvent.DECISION, event.getDecision());
+        putIfNotNull(properties, AuditEvent.STATUS, event.getStatus());
+        putIfNotNull(properties, AuditEvent.COMMENTS, event.getComments());
+        putIfNotNull(properties, AuditEvent.PRIORITY, event.getPriority());
+        resolver.create(day, ResourceUtil.createUniqueChildName(day, Long.toString(event.getTimestamp())), properties);
+    }
+
+    /**
+     * Reads the events recorded in the given time range, oldest first.
+     *
+     * @param from inclusive start, in epoch milliseconds
+     * @param to exclusive end, in epoch milliseconds
+     */
+    public List<AuditEvent> query(ResourceResolver resolver, long from, long to, int limit) {
+        List<AuditEvent> events = new ArrayList<>();
+        LocalDate last = LocalDate.ofInstant(Instant.ofEpochMilli(to), ZoneOffset.UTC);
+        for (LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(from), ZoneOffset.UTC);
+             !date.isAfter(last) && events.size() < limit; date = date.plusDays(1)) {
+            Resource day = resolver.getResource(dayPath(date));
+            if (day == null) {
+                continue;
+            }
+            List<AuditEvent> dayEvents = new ArrayList<>();
+            for (Resource entry : day.getChildren()) {
+                AuditEvent event = AuditEvent.fromValueMap(entry.getValueMap());
+                if (event.getTimestamp() >= from && event.getTimestamp() < to) {
+                    dayEvents.add(event);
+                }
+            }
+            dayEvents.sort(Comparator.comparingLong(AuditEvent::getTimestamp));
+            events.addAll(dayEvents.subList(0, Math.min(dayEvents.size(), limit - events.size())));
+        }
+        return events;
+    }
+
+    static String dayPath(long timestamp) {
+        return dayPath(LocalDate.ofInstant(Instant.ofEpochMilli(timestamp), ZoneOffset.UTC));
+    }
+
+    private static String dayPath(LocalDate date) {
+        return String.format("%s/%04d/%02d/%02d", AUDIT_ROOT, date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+    }
+
+    private static Calendar calendar(long timestamp) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(timestamp);
+        return calendar;
+    }
+
+    private static void putIfNotNull(Map<String, Object> properties, String name, String value) {
+        if (value != null) {
+            properties.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.skipton.core.audit;
+
+import java.util.Calendar;
+
+import org.apache.sling.api.resource.ValueMap;
+
+/**
+ * One approval decision as recorded in the audit trail.
+ */
+public final class AuditEvent {
+
+    static final String TIMESTAMP = "timestamp";
+    static final String WORKFLOW_ID = "workflowId";
+    static final String PAYLOAD_PATH = "payloadPath";
+    static final String USER_ID = "userId";
+    static final String DECISION = "decision";
+    static final String STATUS = "status";
+    static final String COMMENTS = "comments";
+    static final String PRIORITY = "priority";
+
+    private final long timestamp;
+    private final String workflowId;
+    private final String payloadPath;
+    private final String userId;
+    private final String decision;
+    private final String status;
+    private final String comments;
+    private final String priority;
+
+    public AuditEvent(long timestamp, String workflowId, String payloadPath, String userId,
+                      String decision, String status, String comments, String priority) {
+        this.timestamp = timestamp;
+        this.workflowId = workflowId;
+        this.payloadPath = payloadPath;
+        this.userId = userId;
+        this.decision = decision;
+        this.status = status;
+        this.comments = comments;
+        this.priority = priority;
+    }
+
+    static AuditEvent fromValueMap(ValueMap properties) {
+        Calendar timestamp = properties.get(TIMESTAMP, Calendar.class);
+        return new AuditEvent(
+            timestamp != null ? timestamp.getTimeInMillis() : 0L,
+            properties.get(WORKFLOW_ID, String.class),
+            properties.get(PAYLOAD_PATH, String.class),
+            properties.get(USER_ID, String.class),
+            properties.get(DECISION, String.class),
+            properties.get(STATUS, String.class),
+            properties.get(COMMENTS, String.class),
+            properties.get(PRIORITY, String.class)
+        );
+    }
+
+    public long getTimestamp() { return timestamp; }
+    public String getWorkflowId() { return workflowId; }
+    public String getPayloadPath() { return payloadPath; }
+    public String getUserId() { return userId; }
+    public String getDecision() { return decision; }
+    public String getStatus() { return status; }
+    public String getComments() { return comments; }
+    public String getPriority() { return priority; }
+}
@@ -0,0 +1,67 @@
+package com.skipton.core.dispatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Sends invalidation requests to the dispatcher flush endpoint, in the form the replication
+ * flush agent uses.
+ */
+final class DispatcherFlushClient {
+
+    static final String ACTION = "CQ-Action";
+    static final String HANDLE = "CQ-Handle";
+    static final String SCOPE = "CQ-Action-Scope";
+    static final String RESOURCE_ONLY = "ResourceOnly";
+
+    private final URL url;
+    private final int timeout;
+
+    DispatcherFlushClient(URL url, int timeout) {
+        this.url = url;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param action {@code Activate} or {@code Delete}
+     * @param handle the path to invalidate
+     * @param resourceOnly {@code true} to remove only the cached files of the handle, without
+     *        touching stat files and so without auto-invalidating anything else
+     * @throws IOException if the endpoint cannot be reached or does not answer with 2xx
+     */
+    void invalidate(String action, String handle, boolean resourceOnly) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setRequestProperty(ACTION, action);
+            connection.setRequestProperty(HANDLE, handle);
+            if (resourceOnly) {
+                connection.setRequestProperty(SCOPE, RESOURCE_ONLY);
+            }
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(0);
+            connection.getOutputStream().close();
+
+            int status = connection.getResponseCode();
+            InputStream body = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                try (InputStream drained = body) {
+                    byte[] buffer = new byte[512];
+                    while (drained.read(buffer) >= 0) {
+                        // the response body carries nothing of interest
+                    }
+                }
+            }
+            if (status / 100 != 2) {
+                throw new IOException("Dispatcher flush of " + handle + " answered " + status);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
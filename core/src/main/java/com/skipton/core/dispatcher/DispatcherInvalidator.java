@@ -0,0 +1,337 @@
+package com.skipton.core.dispatcher;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.query.Query;
+
+import com.skipton.core.listeners.ChangeHandler;
+import com.skipton.core.listeners.ContentPaths;
+import com.skipton.core.references.ReferenceGraph;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns resource changes below the configured roots into exact dispatcher invalidations. A
+ * change inside a page or asset invalidates that page or asset; pages referencing it through
+ * one of the reference properties are invalidated with it, and adding or removing a page also
+ * invalidates its parent, whose navigation lists it. Referrers come from the
+ * {@link ReferenceGraph}, including pages embedding the item through an experience fragment,
+ * or, while the graph is unavailable, from one query per batch of changes served by the
+ * {@code skiptonReferences-custom-1} index. Invalidations are sent with the
+ * {@code ResourceOnly} scope, so the dispatcher removes exactly the cached files of each
+ * handle and leaves the stat files, and with them the rest of the cache, alone.
+ * <p>
+ * Handles are collected in a pending set and sent by a background thread, at most a configured
+ * number per interval. If more handles are pending than allowed, they are replaced by one
+ * regular invalidation per root, which lets the dispatcher auto-invalidate those subtrees.
+ */
+@Designate(ocd = DispatcherInvalidator.Config.class)
+@Component(service = ChangeHandler.class)
+public class DispatcherInvalidator implements ChangeHandler {
+
+    @ObjectClassDefinition(name = "Skipton - Dispatcher Invalidator",
+                           description = "Sends exact dispatcher invalidations for changed pages, assets and their referrers")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Flush URL",
+                             description = "Dispatcher invalidation endpoint, empty to disable")
+        String flush_url() default "";
+
+        @AttributeDefinition(name = "Roots",
+                             description = "Changes below these paths are invalidated")
+        String[] roots() default { "/content/skipton", "/content/dam/skipton", "/content/experience-fragments/skipton" };
+
+        @AttributeDefinition(name = "Reference properties",
+                             description = "Properties through which pages reference assets and fragments")
+        String[] reference_properties() default { "fileReference", "fragmentVariationPath", "fragmentPath" };
+
+        @AttributeDefinition(name = "Interval (ms)",
+                             description = "Time between two rounds of invalidation requests")
+        long interval() default 1000;
+
+        @AttributeDefinition(name = "Requests per interval",
+                             description = "Maximum number of invalidation requests sent per interval")
+        int max_requests() default 20;
+
+        @AttributeDefinition(name = "Maximum pending",
+                             description = "Above this many pending handles the roots are invalidated instead")
+        int max_pending() default 5000;
+
+        @AttributeDefinition(name = "Timeout (ms)",
+                             description = "Connect and read timeout of an invalidation request")
+        int timeout() default 5000;
+    }
+
+    static final String ACTIVATE = "Activate";
+    static final String DELETE = "Delete";
+
+    private static final String SUBSERVICE = "dispatcher-invalidator";
+    private static final String DAM = "/content/dam/";
+    private static final String QUERY_ROOT = "/content";
+    private static final int MAX_QUERY_HANDLES = 100;
+
+    private static final Logger log = LoggerFactory.getLogger(DispatcherInvalidator.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile ReferenceGraph referenceGraph;
+
+    private final Map<String, String> pending = new LinkedHashMap<>();
+    private boolean invalidateRoots;
+
+    private volatile DispatcherFlushClient client;
+    private volatile ScheduledExecutorService flusher;
+    private String[] roots = new String[0];
+    private String[] referenceProperties = new String[0];
+    private int maxRequests;
+    private int maxPending;
+
+    @Activate
+    protected void activate(final Config config) {
+        roots = config.roots() != null ? config.roots() : new String[0];
+        referenceProperties = config.reference_properties() != null ? config.reference_properties() : new String[0];
+        maxRequests = Math.max(1, config.max_requests());
+        maxPending = Math.max(1, config.max_pending());
+
+        String flushUrl = config.flush_url();
+        if (flushUrl == null || flushUrl.isEmpty()) {
+            log.info("No dispatcher flush URL configured, dispatcher invalidation is disabled");
+            return;
+        }
+        try {
+            client = new DispatcherFlushClient(new URL(flushUrl), Math.max(1, config.timeout()));
+        } catch (MalformedURLException e) {
+            log.error("Invalid dispatcher flush URL {}, dispatcher invalidation is disabled", flushUrl, e);
+            return;
+        }
+
+        long interval = Math.max(1L, config.interval());
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "skipton-dispatcher-invalidator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        ScheduledExecutorService current = flusher;
+        flusher = null;
+        client = null;
+        if (current != null) {
+            current.shutdownNow();
+        }
+        synchronized (pending) {
+            if (!pending.isEmpty()) {
+                log.warn("Discarding {} pending dispatcher invalidations on deactivation", pending.size());
+            }
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void handle(List<ResourceChange> changes) {
+        if (client == null) {
+            return;
+        }
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE))) {
+            enqueue(collect(resolver, changes));
+        } catch (LoginException e) {
+            log.error("Could not log in as {} to resolve dispatcher invalidations", SUBSERVICE, e);
+        }
+    }
+
+    /**
+     * @return the handles to invalidate for the changes, each with its action, in the order found
+     */
+    Map<String, String> collect(ResourceResolver resolver, List<ResourceChange> changes) {
+        Map<String, String> invalidations = new LinkedHashMap<>();
+        Set<String> queried = new LinkedHashSet<>();
+        ReferenceGraph graph = referenceGraph;
+        boolean useGraph = graph != null && graph.isReady();
+        for (ResourceChange change : changes) {
+            String path = change.getPath();
+            if (!ContentPaths.isBelow(path, roots)) {
+                continue;
+            }
+            String handle = ContentPaths.itemPath(path);
+            boolean item = handle.equals(path);
+            invalidations.put(handle, item && change.getType() == ChangeType.REMOVED ? DELETE : ACTIVATE);
+
+            if (item && change.getType() != ChangeType.CHANGED && !handle.startsWith(DAM)) {
+                String parent = handle.substring(0, handle.lastIndexOf('/'));
+                if (ContentPaths.isBelow(parent, roots)) {
+                    invalidations.putIfAbsent(parent, ACTIVATE);
+                }
+            }
+            if (useGraph && queried.add(handle)) {
+                for (String referrer : graph.getDependants(handle)) {
+                    if (!referrer.equals(handle) && ContentPaths.isBelow(referrer, roots)) {
+                        invalidations.putIfAbsent(referrer, ACTIVATE);
+                    }
+                }
+            } else if (!useGraph && referenceProperties.length > 0) {
+                queried.add(handle);
+            }
+        }
+        if (!useGraph && !queried.isEmpty()) {
+            addQueriedReferrers(resolver, new ArrayList<>(queried), invalidations);
+        }
+        return invalidations;
+    }
+
+    /**
+     * Finds the referrers of all handles with one query per {@value #MAX_QUERY_HANDLES} handles.
+     */
+    private void addQueriedReferrers(ResourceResolver resolver, List<String> handles, Map<String, String> invalidations) {
+        for (int start = 0; start < handles.size(); start += MAX_QUERY_HANDLES) {
+            List<String> chunk = handles.subList(start, Math.min(start + MAX_QUERY_HANDLES, handles.size()));
+            Iterator<Resource> referrers = resolver.findResources(query(chunk, referenceProperties), Query.JCR_SQL2);
+            while (referrers.hasNext()) {
+                String referrer = ContentPaths.itemPath(referrers.next().getPath());
+                if (ContentPaths.isBelow(referrer, roots)) {
+                    invalidations.putIfAbsent(referrer, ACTIVATE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds invalidations to the pending set, switching to invalidating the roots once it
+     * overflows.
+     */
+    void enqueue(Map<String, String> invalidations) {
+        if (invalidations.isEmpty()) {
+            return;
+        }
+        synchronized (pending) {
+            if (invalidateRoots) {
+                return;
+            }
+            pending.putAll(invalidations);
+            if (pending.size() > maxPending) {
+                log.warn("More than {} dispatcher invalidations pending, invalidating the roots instead", maxPending);
+                pending.clear();
+                invalidateRoots = true;
+            }
+        }
+    }
+
+    /**
+     * Sends up to the configured number of pending invalidations. Failed ones stay pending.
+     */
+    void flush() {
+        DispatcherFlushClient current = client;
+        if (current == null) {
+            return;
+        }
+
+        boolean overflowed;
+        List<Map.Entry<String, String>> batch = new ArrayList<>();
+        synchronized (pending) {
+            overflowed = invalidateRoots;
+            invalidateRoots = false;
+            Iterator<Map.Entry<String, String>> entries = pending.entrySet().iterator();
+            while (!overflowed && entries.hasNext() && batch.size() < maxRequests) {
+                Map.Entry<String, String> entry = entries.next();
+                batch.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+                entries.remove();
+            }
+        }
+
+        if (overflowed) {
+            flushRoots(current);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Map.Entry<String, String> entry = batch.get(i);
+            try {
+                current.invalidate(entry.getValue(), entry.getKey(), true);
+            } catch (IOException e) {
+                log.warn("Dispatcher invalidation of {} failed, retrying with the next round", entry.getKey(), e);
+                requeue(batch.subList(i, batch.size()));
+                return;
+            }
+        }
+        log.debug("Sent {} dispatcher invalidations", batch.size());
+    }
+
+    static String query(List<String> handles, String[] properties) {
+        StringBuilder values = new StringBuilder();
+        for (String handle : handles) {
+            if (values.length() > 0) {
+                values.append(", ");
+            }
+            values.append('\'').append(handle.replace("'", "''")).append('\'');
+        }
+        StringBuilder query = new StringBuilder("SELECT * FROM [nt:base] AS n WHERE ISDESCENDANTNODE(n, '")
+            .append(QUERY_ROOT).append("') AND (");
+        for (int i = 0; i < properties.length; i++) {
+            if (i > 0) {
+                query.append(" OR ");
+            }
+            query.append("n.[").append(properties[i]).append("] IN (").append(values).append(')');
+        }
+        return query.append(')').toString();
+    }
+
+    private void flushRoots(DispatcherFlushClient current) {
+        for (String root : roots) {
+            try {
+                current.invalidate(ACTIVATE, root, false);
+            } catch (IOException e) {
+                log.warn("Dispatcher invalidation of root {} failed, retrying with the next round", root, e);
+                synchronized (pending) {
+                    invalidateRoots = true;
+                }
+                return;
+            }
+        }
+        log.info("Invalidated dispatcher roots after pending invalidations overflowed");
+    }
+
+    private void requeue(List<Map.Entry<String, String>> failed) {
+        synchronized (pending) {
+            if (invalidateRoots) {
+                return;
+            }
+            Map<String, String> newer = new LinkedHashMap<>(pending);
+            pending.clear();
+            failed.forEach(entry -> pending.put(entry.getKey(), entry.getValue()));
+            pending.putAll(newer);
+        }
+    }
+}
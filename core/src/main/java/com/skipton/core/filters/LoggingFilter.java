@@ -22,10 +22,16 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.engine.EngineConstants;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.osgi.service.component.propertytypes.ServiceDescription;
 import org.osgi.service.component.propertytypes.ServiceRanking;
 import org.osgi.service.component.propertytypes.ServiceVendor;
@@ -33,7 +39,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Simple servlet filter component that logs incoming requests.
+ * Servlet filter component that logs incoming requests, records their duration
+ * per resource type, selectors and extension in the {@link RequestLatencyRecorder}
+ * and offers them to the {@link SampledAccessLog}. Requests over the slow threshold
+ * of the {@link SlowRequestStore} are captured with their progress timeline.
  */
 @Component(service = Filter.class,
            property = {
@@ -46,16 +55,44 @@ public class LoggingFilter implements Filter {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile RequestLatencyRecorder latencyRecorder;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile SampledAccessLog accessLog;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile SlowRequestStore slowRequestStore;
+
     @Override
     public void doFilter(final ServletRequest request, final ServletResponse response,
                          final FilterChain filterChain) throws IOException, ServletException {
 
         final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
-        logger.debug("request for {}, with selector {}", slingRequest
-                .getRequestPathInfo().getResourcePath(), slingRequest
-                .getRequestPathInfo().getSelectorString());
+        final RequestPathInfo pathInfo = slingRequest.getRequestPathInfo();
+        logger.debug("request for {}, with selector {}", pathInfo.getResourcePath(), pathInfo.getSelectorString());
 
-        filterChain.doFilter(request, response);
+        final long start = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            final long duration = System.nanoTime() - start;
+            final RequestLatencyRecorder recorder = latencyRecorder;
+            if (recorder != null) {
+                final Resource resource = slingRequest.getResource();
+                recorder.record(resource != null ? resource.getResourceType() : null,
+                        pathInfo.getSelectorString(), pathInfo.getExtension(), duration);
+            }
+            final SampledAccessLog log = accessLog;
+            if (log != null) {
+                final int status = response instanceof HttpServletResponse ? ((HttpServletResponse) response).getStatus() : 0;
+                log.offer(slingRequest.getMethod(), slingRequest.getRequestURI(), status, duration);
+            }
+            final SlowRequestStore slowRequests = slowRequestStore;
+            if (slowRequests != null && slowRequests.isSlow(duration)) {
+                slowRequests.capture(slingRequest, duration);
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,403 @@
+package com.skipton.core.filters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+import org.apache.sling.engine.EngineConstants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.component.propertytypes.ServiceRanking;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent identical GET requests for opted-in paths into a single render. The first
+ * request for a key renders as usual while its output is copied into a buffer; requests for the
+ * same key arriving meanwhile wait for it and are answered from that buffer. A key is the request
+ * URI, the query string and the values of the configured vary headers. Responses that are not a
+ * plain 200, set cookies or exceed the size cap are not shared, and waiting requests then render
+ * themselves, as they do when the wait times out. Runs after {@link LoggingFilter}, so coalesced
+ * requests are still timed and logged.
+ */
+@Designate(ocd = RequestCoalescingFilter.Config.class)
+@Component(service = Filter.class,
+           property = {
+                   EngineConstants.SLING_FILTER_SCOPE + "=" + EngineConstants.FILTER_SCOPE_REQUEST,
+           })
+@ServiceDescription("Coalesces concurrent identical GET requests")
+@ServiceRanking(-800)
+public class RequestCoalescingFilter implements Filter {
+
+    @ObjectClassDefinition(name = "Skipton - Request Coalescing Filter",
+                           description = "Renders concurrent identical GET requests once and shares the response")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Paths",
+                             description = "Regular expressions matched against the request URI, only matching requests are coalesced")
+        String[] paths() default {};
+
+        @AttributeDefinition(name = "Vary headers",
+                             description = "Request headers whose values are part of the coalescing key")
+        String[] vary_headers() default { "Accept-Language", "Authorization", "Cookie" };
+
+        @AttributeDefinition(name = "Maximum size",
+                             description = "Responses with more bytes or characters than this are not shared")
+        int max_size() default 1048576;
+
+        @AttributeDefinition(name = "Wait timeout (ms)",
+                             description = "Waiting requests render themselves if the shared response takes longer")
+        long wait_timeout() default 5000;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(RequestCoalescingFilter.class);
+
+    private final ConcurrentMap<String, CompletableFuture<SharedResponse>> flights = new ConcurrentHashMap<>();
+
+    private volatile Pattern[] paths = new Pattern[0];
+    private volatile String[] varyHeaders = new String[0];
+    private volatile int maxSize;
+    private volatile long waitTimeout;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        String[] expressions = config.paths() != null ? config.paths() : new String[0];
+        Pattern[] compiled = new Pattern[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            compiled[i] = Pattern.compile(expressions[i]);
+        }
+        paths = compiled;
+        varyHeaders = config.vary_headers() != null ? config.vary_headers() : new String[0];
+        maxSize = Math.max(0, config.max_size());
+        waitTimeout = Math.max(0L, config.wait_timeout());
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain filterChain) throws IOException, ServletException {
+        final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+        if (!(response instanceof SlingHttpServletResponse)
+                || !HttpConstants.METHOD_GET.equals(slingRequest.getMethod())
+                || !optedIn(slingRequest.getRequestURI())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        final String key = key(slingRequest);
+        final CompletableFuture<SharedResponse> flight = new CompletableFuture<>();
+        final CompletableFuture<SharedResponse> leader = flights.putIfAbsent(key, flight);
+        if (leader == null) {
+            lead(key, flight, request, (SlingHttpServletResponse) response, filterChain);
+        } else {
+            follow(key, leader, request, (SlingHttpServletResponse) response, filterChain);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    boolean optedIn(String uri) {
+        if (uri == null) {
+            return false;
+        }
+        for (Pattern path : paths) {
+            if (path.matcher(uri).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String key(SlingHttpServletRequest request) {
+        StringBuilder key = new StringBuilder(request.getRequestURI());
+        String query = request.getQueryString();
+        if (query != null) {
+            key.append('?').append(query);
+        }
+        for (String header : varyHeaders) {
+            String value = request.getHeader(header);
+            key.append('\n').append(header).append('=').append(value != null ? value : "");
+        }
+        return key.toString();
+    }
+
+    private void lead(String key, CompletableFuture<SharedResponse> flight, ServletRequest request,
+                      SlingHttpServletResponse response, FilterChain filterChain) throws IOException, ServletException {
+        final CapturingResponse capture = new CapturingResponse(response, maxSize);
+        SharedResponse shared = null;
+        try {
+            filterChain.doFilter(request, capture);
+            shared = capture.share();
+        } finally {
+            flights.remove(key, flight);
+            flight.complete(shared);
+        }
+    }
+
+    private void follow(String key, CompletableFuture<SharedResponse> flight, ServletRequest request,
+                        SlingHttpServletResponse response, FilterChain filterChain) throws IOException, ServletException {
+        SharedResponse shared = null;
+        try {
+            shared = flight.get(waitTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.debug("Shared response for {} took longer than {} ms, rendering", key, waitTimeout);
+        } catch (ExecutionException e) {
+            log.debug("Shared response for {} failed, rendering", key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (shared == null) {
+            filterChain.doFilter(request, response);
+        } else {
+            shared.writeTo(response);
+        }
+    }
+
+    /**
+     * A finished response as rendered by the leading request.
+     */
+    private static final class SharedResponse {
+        private final int status;
+        private final String contentType;
+        private final String characterEncoding;
+        private final Map<String, List<String>> headers;
+        private final byte[] bytes;
+        private final char[] chars;
+
+        SharedResponse(int status, String contentType, String characterEncoding, Map<String, List<String>> headers,
+                       byte[] bytes, char[] chars) {
+            this.status = status;
+            this.contentType = contentType;
+            this.characterEncoding = characterEncoding;
+            this.headers = headers;
+            this.bytes = bytes;
+            this.chars = chars;
+        }
+
+        void writeTo(HttpServletResponse response) throws IOException {
+            response.setStatus(status);
+            headers.forEach((name, values) -> {
+                response.setHeader(name, values.get(0));
+                for (int i = 1; i < values.size(); i++) {
+                    response.addHeader(name, values.get(i));
+                }
+            });
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            if (characterEncoding != null) {
+                response.setCharacterEncoding(characterEncoding);
+            }
+            if (chars.length > 0) {
+                response.getWriter().write(chars);
+            } else if (bytes.length > 0) {
+                response.getOutputStream().write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Passes the output of the leading request through to its client and keeps a copy of it,
+     * up to the size cap.
+     */
+    private static final class CapturingResponse extends SlingHttpServletResponseWrapper {
+
+        private final int maxSize;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final CharArrayWriter chars = new CharArrayWriter();
+        private int size;
+        private boolean shareable = true;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        CapturingResponse(SlingHttpServletResponse response, int maxSize) {
+            super(response);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new CapturingOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new CapturingWriter(super.getWriter()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            shareable = false;
+            super.addCookie(cookie);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            shareable = false;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            shareable = false;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            shareable = false;
+            super.sendRedirect(location);
+        }
+
+        /**
+         * @return the captured response, or {@code null} if it must not be shared
+         */
+        SharedResponse share() {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (!shareable || getStatus() != HttpServletResponse.SC_OK) {
+                return null;
+            }
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            for (String name : getHeaderNames()) {
+                if ("Set-Cookie".equalsIgnoreCase(name)) {
+                    return null;
+                }
+                if (!"Content-Type".equalsIgnoreCase(name) && !headers.containsKey(name)) {
+                    List<String> values = new ArrayList<>(getHeaders(name));
+                    if (!values.isEmpty()) {
+                        headers.put(name, values);
+                    }
+                }
+            }
+            return new SharedResponse(getStatus(), getContentType(), getCharacterEncoding(), headers,
+                bytes.toByteArray(), chars.toCharArray());
+        }
+
+        private boolean capture(int length) {
+            if (!shareable) {
+                return false;
+            }
+            size += length;
+            if (size > maxSize) {
+                shareable = false;
+                bytes.reset();
+                chars.reset();
+                return false;
+            }
+            return true;
+        }
+
+        private final class CapturingOutputStream extends ServletOutputStream {
+            private final ServletOutputStream delegate;
+
+            CapturingOutputStream(ServletOutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                delegate.write(b);
+                if (capture(1)) {
+                    bytes.write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                delegate.write(b, off, len);
+                if (capture(len)) {
+                    bytes.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                delegate.flush();
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                delegate.setWriteListener(writeListener);
+            }
+        }
+
+        private final class CapturingWriter extends Writer {
+            private final Writer delegate;
+
+            CapturingWriter(Writer delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                delegate.write(cbuf, off, len);
+                if (capture(len)) {
+                    chars.write(cbuf, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.skipton.core.filters;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * JMX view of the request latency histograms kept by {@link RequestLatencyRecorder}.
+ */
+public interface RequestLatencyMBean {
+
+    /**
+     * @return one row per resource type, selector string and extension with the request count
+     *         and the p50, p95, p99 and maximum latency in microseconds
+     */
+    TabularData getLatencies();
+
+    /**
+     * @return {@code true} once new keys are recorded into the overflow histogram
+     */
+    boolean isOverflowing();
+
+    /**
+     * Clears all histograms.
+     */
+    void reset();
+}
@@ -0,0 +1,204 @@
+package com.skipton.core.filters;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Request latency histograms keyed by resource type, selector string and extension. Lookups go
+ * through nested maps keyed by the strings the request already holds, so recording a request
+ * for a known key allocates nothing. At most a configured number of keys get their own
+ * histogram; requests for further keys are recorded into a single overflow histogram.
+ * The histograms are exposed over JMX as {@code com.skipton:type=RequestLatency}.
+ */
+@Designate(ocd = RequestLatencyRecorder.Config.class)
+@Component(
+    service = { RequestLatencyRecorder.class, DynamicMBean.class },
+    property = "jmx.objectname=com.skipton:type=RequestLatency"
+)
+public class RequestLatencyRecorder extends StandardMBean implements RequestLatencyMBean {
+
+    @ObjectClassDefinition(name = "Skipton - Request Latency Recorder",
+                           description = "Keeps request latency histograms per resource type, selectors and extension")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Maximum keys",
+                             description = "Number of resource type, selector and extension combinations tracked separately")
+        int max_keys() default 500;
+    }
+
+    static final String NONE = "";
+    static final String OVERFLOW = "(other)";
+
+    private static final String[] COLUMNS = { "resourceType", "selectors", "extension", "count", "p50", "p95", "p99", "max" };
+    private static final CompositeType ROW_TYPE;
+    private static final TabularType TABLE_TYPE;
+
+    static {
+        try {
+            ROW_TYPE = new CompositeType("RequestLatency", "Request latency in microseconds", COLUMNS, COLUMNS,
+                new OpenType<?>[] { SimpleType.STRING, SimpleType.STRING, SimpleType.STRING,
+                    SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG });
+            TABLE_TYPE = new TabularType("RequestLatencies", "Request latency per key", ROW_TYPE,
+                new String[] { "resourceType", "selectors", "extension" });
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(RequestLatencyRecorder.class);
+
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>> histograms =
+        new ConcurrentHashMap<>();
+    private final LatencyHistogram overflow = new LatencyHistogram();
+    private final AtomicInteger keys = new AtomicInteger();
+
+    private volatile int maxKeys = 500;
+
+    public RequestLatencyRecorder() throws NotCompliantMBeanException {
+        super(RequestLatencyMBean.class);
+    }
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        maxKeys = Math.max(1, config.max_keys());
+    }
+
+    public void record(String resourceType, String selectors, String extension, long nanos) {
+        histogram(resourceType != null ? resourceType : NONE, selectors != null ? selectors : NONE,
+            extension != null ? extension : NONE).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    private LatencyHistogram histogram(String resourceType, String selectors, String extension) {
+        ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> bySelectors = histograms.get(resourceType);
+        if (bySelectors != null) {
+            ConcurrentMap<String, LatencyHistogram> byExtension = bySelectors.get(selectors);
+            if (byExtension != null) {
+                LatencyHistogram histogram = byExtension.get(extension);
+                if (histogram != null) {
+                    return histogram;
+                }
+            }
+        }
+        return register(resourceType, selectors, extension);
+    }
+
+    private LatencyHistogram register(String resourceType, String selectors, String extension) {
+        if (keys.get() >= maxKeys) {
+            return overflow;
+        }
+        ConcurrentMap<String, LatencyHistogram> byExtension = histograms
+            .computeIfAbsent(resourceType, key -> new ConcurrentHashMap<>())
+            .computeIfAbsent(selectors, key -> new ConcurrentHashMap<>());
+        return byExtension.computeIfAbsent(extension, key -> {
+            if (keys.incrementAndGet() > maxKeys) {
+                keys.decrementAndGet();
+                log.warn("Request latency keys exceed {}, recording {} {} {} as {}", maxKeys, resourceType, selectors,
+                    extension, OVERFLOW);
+                return overflow;
+            }
+            return new LatencyHistogram();
+        });
+    }
+
+    /**
+     * @return a snapshot of every histogram, sorted by resource type, selectors and extension,
+     *         followed by the overflow histogram if it was used
+     */
+    public List<Latency> getSnapshots() {
+        List<Latency> latencies = new ArrayList<>();
+        histograms.forEach((resourceType, bySelectors) -> bySelectors.forEach((selectors, byExtension) ->
+            byExtension.forEach((extension, histogram) -> {
+                if (histogram != overflow) {
+                    latencies.add(new Latency(resourceType, selectors, extension, histogram.snapshot()));
+                }
+            })));
+        latencies.sort(Comparator.comparing(Latency::getResourceType)
+            .thenComparing(Latency::getSelectors).thenComparing(Latency::getExtension));
+        LatencyHistogram.Snapshot other = overflow.snapshot();
+        if (other.getCount() > 0) {
+            latencies.add(new Latency(OVERFLOW, NONE, NONE, other));
+        }
+        return latencies;
+    }
+
+    @Override
+    public TabularData getLatencies() {
+        TabularDataSupport table = new TabularDataSupport(TABLE_TYPE);
+        try {
+            for (Latency latency : getSnapshots()) {
+                LatencyHistogram.Snapshot snapshot = latency.getSnapshot();
+                table.put(new CompositeDataSupport(ROW_TYPE, COLUMNS, new Object[] { latency.getResourceType(),
+                    latency.getSelectors(), latency.getExtension(), snapshot.getCount(),
+                    snapshot.getValueAtPercentile(50), snapshot.getValueAtPercentile(95),
+                    snapshot.getValueAtPercentile(99), snapshot.getMax() }));
+            }
+        } catch (OpenDataException e) {
+            log.error("Could not convert request latencies to open data", e);
+        }
+        return table;
+    }
+
+    @Override
+    public boolean isOverflowing() {
+        return overflow.snapshot().getCount() > 0;
+    }
+
+    /**
+     * Drops all keys and recorded values, making room for new keys.
+     */
+    @Override
+    public void reset() {
+        histograms.clear();
+        keys.set(0);
+        overflow.reset();
+    }
+
+    /**
+     * Latency snapshot of one resource type, selector string and extension.
+     */
+    public static final class Latency {
+        private final String resourceType;
+        private final String selectors;
+        private final String extension;
+        private final LatencyHistogram.Snapshot snapshot;
+
+        Latency(String resourceType, String selectors, String extension, LatencyHistogram.Snapshot snapshot) {
+            this.resourceType = resourceType;
+            this.selectors = selectors;
+            this.extension = extension;
+            this.snapshot = snapshot;
+        }
+
+        public String getResourceType() { return resourceType; }
+        public String getSelectors() { return selectors; }
+        public String getExtension() { return extension; }
+        public LatencyHistogram.Snapshot getSnapshot() { return snapshot; }
+    }
+}
@@ -0,0 +1,216 @@
+package com.skipton.core.filters;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Structured access log for a sample of requests: every request slower than a threshold and a
+ * configured fraction of the others. Request threads copy a few fields into a pre-allocated
+ * record of a fixed size ring buffer and return; they never block and never allocate. When the
+ * buffer is full the record is dropped and counted. A single background thread writes the
+ * records to the {@value #ACCESS_LOGGER} logger, which the Sling log configuration sends to a
+ * rolling file, and logs how many records were dropped since its last report.
+ */
+@Designate(ocd = SampledAccessLog.Config.class)
+@Component(service = SampledAccessLog.class)
+public class SampledAccessLog {
+
+    @ObjectClassDefinition(name = "Skipton - Sampled Access Log",
+                           description = "Writes a sample of requests to the skipton access log without blocking requests")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Sample rate",
+                             description = "Fraction of requests below the slow threshold that are logged, between 0 and 1")
+        double sample_rate() default 0.01;
+
+        @AttributeDefinition(name = "Slow threshold (ms)",
+                             description = "Requests taking at least this long are always logged, 0 to disable")
+        long slow_threshold() default 1000;
+
+        @AttributeDefinition(name = "Buffer size",
+                             description = "Number of records buffered for the writer, rounded up to a power of two")
+        int buffer_size() default 8192;
+    }
+
+    static final String ACCESS_LOGGER = "skipton.access";
+
+    static final int MAX_PATH_LENGTH = 256;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static final Logger log = LoggerFactory.getLogger(SampledAccessLog.class);
+    private static final Logger accessLog = LoggerFactory.getLogger(ACCESS_LOGGER);
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    private Record[] records;
+    private AtomicLongArray published;
+    private int mask;
+    private double sampleRate;
+    private long slowThresholdNanos;
+
+    private volatile boolean running;
+    private volatile Thread writer;
+
+    @Activate
+    protected void activate(final Config config) {
+        int capacity = Integer.highestOneBit(Math.max(2, config.buffer_size() - 1)) << 1;
+        records = new Record[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            records[i] = new Record();
+            published.set(i, i - (long) capacity);
+        }
+        mask = capacity - 1;
+        sampleRate = Math.min(1.0, Math.max(0.0, config.sample_rate()));
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, config.slow_threshold()));
+
+        running = true;
+        Thread thread = new Thread(this::drainLoop, "skipton-access-log-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        running = false;
+        Thread thread = writer;
+        writer = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Offers a finished request to the log. Returns immediately; the request is only kept if it
+     * is slow or sampled and the buffer has room.
+     */
+    public void offer(String method, String path, int status, long durationNanos) {
+        boolean slow = slowThresholdNanos > 0 && durationNanos >= slowThresholdNanos;
+        if (!running || !slow && (sampleRate <= 0.0 || ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head.get() > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        int index = (int) sequence & mask;
+        records[index].set(System.currentTimeMillis(), method, path, status, durationNanos, slow);
+        published.lazySet(index, sequence);
+    }
+
+    /**
+     * @return the number of records dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes all published records and reports drops.
+     *
+     * @return the number of records written
+     */
+    synchronized int drain() {
+        int written = 0;
+        long next = head.get();
+        StringBuilder line = new StringBuilder(MAX_PATH_LENGTH + 64);
+        while (published.get((int) next & mask) == next) {
+            Record record = records[(int) next & mask];
+            line.setLength(0);
+            record.appendTo(line);
+            head.lazySet(++next);
+            accessLog.info(line.toString());
+            written++;
+        }
+        long drops = dropped.sumThenReset();
+        if (drops > 0) {
+            accessLog.warn("dropped={} records, access log buffer was full", drops);
+        }
+        return written;
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            } catch (RuntimeException e) {
+                log.error("Could not write access log records", e);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * One pre-allocated slot of the ring buffer. Only the claiming request thread writes it,
+     * only the writer thread reads it after it was published.
+     */
+    private static final class Record {
+
+        private final char[] path = new char[MAX_PATH_LENGTH];
+        private int pathLength;
+        private boolean truncated;
+        private long timestamp;
+        private String method;
+        private int status;
+        private long durationMicros;
+        private boolean slow;
+
+        void set(long timestamp, String method, String path, int status, long durationNanos, boolean slow) {
+            this.timestamp = timestamp;
+            this.method = method;
+            this.status = status;
+            this.durationMicros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+            this.slow = slow;
+            if (path == null) {
+                pathLength = 0;
+                truncated = false;
+            } else {
+                pathLength = Math.min(path.length(), MAX_PATH_LENGTH);
+                truncated = pathLength < path.length();
+                path.getChars(0, pathLength, this.path, 0);
+            }
+        }
+
+        void appendTo(StringBuilder line) {
+            line.append("ts=").append(timestamp)
+                .append(" method=").append(method)
+                .append(" status=").append(status)
+                .append(" durationUs=").append(durationMicros)
+                .append(" sampled=").append(slow ? "slow" : "rate")
+                .append(" path=").append(path, 0, pathLength);
+            if (truncated) {
+                line.append("...");
+            }
+        }
+    }
+}
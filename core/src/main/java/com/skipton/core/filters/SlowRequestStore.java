@@ -0,0 +1,191 @@
+package com.skipton.core.filters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestProgressTracker;
+import org.apache.sling.api.resource.Resource;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Keeps the slowest recent requests per resource type together with their
+ * {@link RequestProgressTracker} timeline, which lists script and model timings and the include
+ * tree of the request. {@link LoggingFilter} compares every request against
+ * {@link #isSlow(long)} and only captures the ones at or above the threshold, so requests under
+ * it cost a single comparison. Each resource type keeps at most a configured number of traces,
+ * the fastest being evicted first, and traces older than the maximum age are discarded.
+ */
+@Designate(ocd = SlowRequestStore.Config.class)
+@Component(service = SlowRequestStore.class)
+public class SlowRequestStore {
+
+    @ObjectClassDefinition(name = "Skipton - Slow Request Store",
+                           description = "Keeps request progress timelines of the slowest recent requests")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Threshold (ms)",
+                             description = "Requests taking at least this long are captured")
+        long threshold() default 2000;
+
+        @AttributeDefinition(name = "Requests per resource type",
+                             description = "Number of slowest requests kept per resource type")
+        int max_per_type() default 10;
+
+        @AttributeDefinition(name = "Maximum resource types",
+                             description = "Requests of further resource types are kept under one shared key")
+        int max_types() default 200;
+
+        @AttributeDefinition(name = "Maximum age (minutes)",
+                             description = "Captured requests older than this are discarded")
+        long max_age() default 60;
+
+        @AttributeDefinition(name = "Maximum timeline lines",
+                             description = "Further lines of a request progress timeline are cut off")
+        int max_lines() default 500;
+    }
+
+    static final String OTHER = "(other)";
+
+    private static final Comparator<Trace> FASTEST_FIRST = Comparator.comparingLong(Trace::getDurationMicros);
+
+    private final Map<String, PriorityQueue<Trace>> traces = new ConcurrentHashMap<>();
+
+    private volatile long thresholdNanos = TimeUnit.SECONDS.toNanos(2);
+    private volatile int maxPerType = 10;
+    private volatile int maxTypes = 200;
+    private volatile long maxAgeMillis = TimeUnit.HOURS.toMillis(1);
+    private volatile int maxLines = 500;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, config.threshold()));
+        maxPerType = Math.max(1, config.max_per_type());
+        maxTypes = Math.max(1, config.max_types());
+        maxAgeMillis = TimeUnit.MINUTES.toMillis(Math.max(1L, config.max_age()));
+        maxLines = Math.max(1, config.max_lines());
+        traces.clear();
+    }
+
+    /**
+     * @return {@code true} if a request of the given duration should be captured
+     */
+    public boolean isSlow(long durationNanos) {
+        return durationNanos >= thresholdNanos;
+    }
+
+    /**
+     * Snapshots the request's progress timeline and keeps it if it is among the slowest recent
+     * requests of its resource type.
+     */
+    public void capture(SlingHttpServletRequest request, long durationNanos) {
+        Resource resource = request.getResource();
+        String resourceType = resource != null ? resource.getResourceType() : null;
+        String key = resourceType != null ? resourceType : OTHER;
+        if (!traces.containsKey(key) && traces.size() >= maxTypes) {
+            key = OTHER;
+        }
+
+        long now = System.currentTimeMillis();
+        long durationMicros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+        PriorityQueue<Trace> queue = traces.computeIfAbsent(key, type -> new PriorityQueue<>(FASTEST_FIRST));
+        synchronized (queue) {
+            expire(queue, now);
+            Trace fastest = queue.peek();
+            if (queue.size() >= maxPerType && fastest != null && fastest.getDurationMicros() >= durationMicros) {
+                return;
+            }
+            queue.add(new Trace(now, request.getMethod(), request.getRequestURI(), key, durationMicros,
+                timeline(request.getRequestProgressTracker())));
+            while (queue.size() > maxPerType) {
+                queue.poll();
+            }
+        }
+    }
+
+    /**
+     * @return the captured traces per resource type, slowest first, without expired ones
+     */
+    public Map<String, List<Trace>> getTraces() {
+        long now = System.currentTimeMillis();
+        Map<String, List<Trace>> result = new TreeMap<>();
+        traces.forEach((type, queue) -> {
+            List<Trace> copy;
+            synchronized (queue) {
+                expire(queue, now);
+                copy = new ArrayList<>(queue);
+            }
+            if (!copy.isEmpty()) {
+                copy.sort(FASTEST_FIRST.reversed());
+                result.put(type, copy);
+            }
+        });
+        return result;
+    }
+
+    public void clear() {
+        traces.clear();
+    }
+
+    private void expire(PriorityQueue<Trace> queue, long now) {
+        queue.removeIf(trace -> now - trace.getTimestamp() > maxAgeMillis);
+    }
+
+    private List<String> timeline(RequestProgressTracker tracker) {
+        if (tracker == null) {
+            return Collections.emptyList();
+        }
+        List<String> lines = new ArrayList<>();
+        Iterator<String> messages = tracker.getMessages();
+        while (messages.hasNext()) {
+            if (lines.size() >= maxLines) {
+                lines.add("...");
+                break;
+            }
+            lines.add(messages.next().trim());
+        }
+        return lines;
+    }
+
+    /**
+     * One captured slow request.
+     */
+    public static final class Trace {
+        private final long timestamp;
+        private final String method;
+        private final String uri;
+        private final String resourceType;
+        private final long durationMicros;
+        private final List<String> timeline;
+
+        Trace(long timestamp, String method, String uri, String resourceType, long durationMicros, List<String> timeline) {
+            this.timestamp = timestamp;
+            this.method = method;
+            this.uri = uri;
+            this.resourceType = resourceType;
+            this.durationMicros = durationMicros;
+            this.timeline = Collections.unmodifiableList(timeline);
+        }
+
+        public long getTimestamp() { return timestamp; }
+        public String getMethod() { return method; }
+        public String getUri() { return uri; }
+        public String getResourceType() { return resourceType; }
+        public long getDurationMicros() { return durationMicros; }
+        public List<String> getTimeline() { return timeline; }
+    }
+}
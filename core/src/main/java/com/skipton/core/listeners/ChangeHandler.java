@@ -0,0 +1,19 @@
+package com.skipton.core.listeners;
+
+import java.util.List;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+
+/**
+ * Receives resource changes from the {@link ChangePipeline} on its worker thread, never on the
+ * observation thread. Register implementations as OSGi services.
+ */
+public interface ChangeHandler {
+
+    /**
+     * Handles a batch of changes. Each path occurs at most once per user, with the property
+     * names of all that user's changes to it, and a change is left out when an ancestor in the
+     * same batch was added or removed, so the ancestor's change stands for its whole subtree.
+     */
+    void handle(List<ResourceChange> changes);
+}
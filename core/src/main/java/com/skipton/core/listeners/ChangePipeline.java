@@ -0,0 +1,317 @@
+package com.skipton.core.listeners;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves resource change processing off the observation thread. {@link SimpleResourceListener}
+ * only offers each batch of changes to a bounded queue; when the queue is full the batch is
+ * dropped and counted rather than blocking observation. A single worker thread takes the
+ * queued batches, merges them, keeps one change per path and user, leaves out changes below an
+ * added or removed ancestor and dispatches the result to every registered {@link ChangeHandler}.
+ * Queue depth, lag and dropped changes are exposed over JMX as
+ * {@code com.skipton:type=ChangePipeline}. The worker is stopped by clearing its running flag
+ * rather than by interruption, which would close the repository channels a handler is using.
+ */
+@Designate(ocd = ChangePipeline.Config.class)
+@Component(
+    service = { ChangePipeline.class, DynamicMBean.class },
+    property = "jmx.objectname=com.skipton:type=ChangePipeline"
+)
+public class ChangePipeline extends StandardMBean implements ChangePipelineMBean {
+
+    @ObjectClassDefinition(name = "Skipton - Change Pipeline",
+                           description = "Processes resource changes off the observation thread")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Queue capacity",
+                             description = "Number of change batches queued for the worker, further batches are dropped")
+        int queue_capacity() default 1000;
+
+        @AttributeDefinition(name = "Batches per dispatch",
+                             description = "Number of queued batches merged into one dispatch to the handlers")
+        int merge_batches() default 50;
+    }
+
+    private static final long POLL_MILLIS = 500;
+    private static final long STOP_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final Logger log = LoggerFactory.getLogger(ChangePipeline.class);
+
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC,
+               policyOption = ReferencePolicyOption.GREEDY)
+    private volatile List<ChangeHandler> handlers = Collections.emptyList();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder dispatched = new LongAdder();
+    private final AtomicBoolean overflowing = new AtomicBoolean();
+
+    private BlockingQueue<Batch> queue;
+    private int mergeBatches;
+    private volatile long lagMillis;
+
+    private volatile boolean running;
+    private volatile Thread worker;
+
+    public ChangePipeline() throws NotCompliantMBeanException {
+        super(ChangePipelineMBean.class);
+    }
+
+    @Activate
+    protected void activate(final Config config) {
+        queue = new ArrayBlockingQueue<>(Math.max(1, config.queue_capacity()));
+        mergeBatches = Math.max(1, config.merge_batches());
+
+        running = true;
+        Thread thread = new Thread(this::work, "skipton-change-pipeline");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        running = false;
+        Thread thread = worker;
+        worker = null;
+        if (thread != null) {
+            // The worker notices the flag within one poll, or once the current dispatch returns
+            try {
+                thread.join(STOP_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                log.warn("Change pipeline worker still dispatching after {} ms, leaving it to finish", STOP_MILLIS);
+            }
+        }
+        int pending = 0;
+        for (Batch batch : queue) {
+            pending += batch.changes.size();
+        }
+        queue.clear();
+        if (pending > 0) {
+            log.warn("Discarding {} queued resource changes on deactivation", pending);
+        }
+    }
+
+    /**
+     * Queues a batch of changes for the worker. Never blocks; the batch is dropped if the queue
+     * is full.
+     */
+    public void enqueue(List<ResourceChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        received.add(changes.size());
+        if (running && queue.offer(new Batch(System.nanoTime(), new ArrayList<>(changes)))) {
+            overflowing.set(false);
+            return;
+        }
+        dropped.add(changes.size());
+        if (overflowing.compareAndSet(false, true)) {
+            log.warn("Change pipeline queue is full, dropping resource changes");
+        }
+    }
+
+    /**
+     * Keeps one change per path and user, and leaves out changes whose ancestor was added or
+     * removed in the same batch. An addition or removal replaces the earlier changes of its path,
+     * as does a change following a removal.
+     * A later change by the same user is folded into the earlier one: into an addition it
+     * disappears, into another change it adds its property names. Changes by different users
+     * are all kept, so a handler still sees who made each of them. Paths keep the order of their
+     * first change.
+     */
+    static List<ResourceChange> coalesce(List<ResourceChange> changes) {
+        Map<String, List<ResourceChange>> byPath = new LinkedHashMap<>();
+        for (ResourceChange change : changes) {
+            List<ResourceChange> previous = byPath.computeIfAbsent(change.getPath(), path -> new ArrayList<>(1));
+            if (change.getType() != ChangeType.CHANGED || previous.isEmpty()
+                    || previous.get(previous.size() - 1).getType() == ChangeType.REMOVED) {
+                previous.clear();
+                previous.add(change);
+                continue;
+            }
+            ResourceChange sameUser = null;
+            for (ResourceChange candidate : previous) {
+                if (Objects.equals(candidate.getUserId(), change.getUserId()) && candidate.isExternal() == change.isExternal()) {
+                    sameUser = candidate;
+                }
+            }
+            if (sameUser == null) {
+                previous.add(change);
+            } else if (sameUser.getType() == ChangeType.CHANGED) {
+                previous.set(previous.indexOf(sameUser), merge(sameUser, change));
+            }
+        }
+
+        Set<String> subtrees = new HashSet<>();
+        byPath.forEach((path, pathChanges) -> {
+            for (ResourceChange change : pathChanges) {
+                if (change.getType() == ChangeType.ADDED || change.getType() == ChangeType.REMOVED) {
+                    subtrees.add(path);
+                }
+            }
+        });
+
+        List<ResourceChange> coalesced = new ArrayList<>(byPath.size());
+        byPath.forEach((path, pathChanges) -> {
+            if (!belowAny(path, subtrees)) {
+                coalesced.addAll(pathChanges);
+            }
+        });
+        return coalesced;
+    }
+
+    /**
+     * @return the later change carrying the property names of both, or {@code null} names
+     *         where either change did not know them
+     */
+    @SuppressWarnings("deprecation")
+    private static ResourceChange merge(ResourceChange earlier, ResourceChange later) {
+        return new MergedChange(later,
+            union(earlier.getAddedPropertyNames(), later.getAddedPropertyNames()),
+            union(earlier.getChangedPropertyNames(), later.getChangedPropertyNames()),
+            union(earlier.getRemovedPropertyNames(), later.getRemovedPropertyNames()));
+    }
+
+    private static Set<String> union(Set<String> first, Set<String> second) {
+        if (first == null || second == null) {
+            return null;
+        }
+        Set<String> union = new HashSet<>(first);
+        union.addAll(second);
+        return union;
+    }
+
+    private static boolean belowAny(String path, Set<String> subtrees) {
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            if (subtrees.contains(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void work() {
+        List<Batch> batches = new ArrayList<>();
+        while (running) {
+            try {
+                Batch first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batches.add(first);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batches, mergeBatches - 1);
+
+            List<ResourceChange> changes = new ArrayList<>();
+            for (Batch batch : batches) {
+                changes.addAll(batch.changes);
+            }
+            lagMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batches.get(0).enqueued);
+            batches.clear();
+
+            dispatch(coalesce(changes));
+        }
+    }
+
+    private void dispatch(List<ResourceChange> changes) {
+        dispatched.add(changes.size());
+        for (ChangeHandler handler : handlers) {
+            try {
+                handler.handle(changes);
+            } catch (RuntimeException e) {
+                log.error("Change handler {} failed on {} changes", handler.getClass().getName(), changes.size(), e);
+            }
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public long getLag() {
+        return lagMillis;
+    }
+
+    @Override
+    public long getDroppedChanges() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getReceivedChanges() {
+        return received.sum();
+    }
+
+    @Override
+    public long getDispatchedChanges() {
+        return dispatched.sum();
+    }
+
+    /**
+     * A change of one path merged from several changes by the same user.
+     */
+    private static final class MergedChange extends ResourceChange {
+        private final String userId;
+
+        @SuppressWarnings("deprecation")
+        MergedChange(ResourceChange change, Set<String> added, Set<String> changed, Set<String> removed) {
+            super(change.getType(), change.getPath(), change.isExternal(), added, changed, removed);
+            userId = change.getUserId();
+        }
+
+        @Override
+        public String getUserId() {
+            return userId;
+        }
+    }
+
+    private static final class Batch {
+        private final long enqueued;
+        private final List<ResourceChange> changes;
+
+        Batch(long enqueued, List<ResourceChange> changes) {
+            this.enqueued = enqueued;
+            this.changes = changes;
+        }
+    }
+}
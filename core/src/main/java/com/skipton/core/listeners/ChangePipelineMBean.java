@@ -0,0 +1,32 @@
+package com.skipton.core.listeners;
+
+/**
+ * JMX view of the {@link ChangePipeline}.
+ */
+public interface ChangePipelineMBean {
+
+    /**
+     * @return the number of change batches waiting for the worker
+     */
+    int getQueueDepth();
+
+    /**
+     * @return milliseconds between enqueuing and dispatching of the most recent batch
+     */
+    long getLag();
+
+    /**
+     * @return the number of changes dropped because the queue was full
+     */
+    long getDroppedChanges();
+
+    /**
+     * @return the number of changes received from observation
+     */
+    long getReceivedChanges();
+
+    /**
+     * @return the number of changes dispatched to the handlers after deduplication
+     */
+    long getDispatchedChanges();
+}
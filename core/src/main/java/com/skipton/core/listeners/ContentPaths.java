@@ -0,0 +1,37 @@
+package com.skipton.core.listeners;
+
+/**
+ * Path helpers shared by the {@link ChangeHandler}s that map resource changes to the pages,
+ * assets and fragments they belong to.
+ */
+public final class ContentPaths {
+
+    private static final String CONTENT = "/jcr:content";
+
+    private ContentPaths() {
+    }
+
+    /**
+     * Maps a path inside a page, asset or fragment content node to the item itself. Other
+     * paths are returned unchanged.
+     */
+    public static String itemPath(String path) {
+        int content = path.indexOf(CONTENT + "/");
+        if (content < 0 && path.endsWith(CONTENT)) {
+            content = path.length() - CONTENT.length();
+        }
+        return content > 0 ? path.substring(0, content) : path;
+    }
+
+    /**
+     * @return {@code true} if the path is one of the roots or below one of them
+     */
+    public static boolean isBelow(String path, String[] roots) {
+        for (String root : roots) {
+            if (path.equals(root) || path.startsWith(root + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
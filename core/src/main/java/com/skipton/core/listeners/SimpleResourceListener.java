@@ -20,30 +20,44 @@ import java.util.List;
 import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.osgi.service.component.propertytypes.ServiceDescription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A service to demonstrate how changes in the resource tree
- * can be listened for. 
+ * Listens for changes in the resource tree and queues them in the
+ * {@link ChangePipeline}, which hands them to the registered
+ * {@link ChangeHandler}s off the observation thread.
  * Please note, that apart from EventHandler services,
  * the immediate flag should not be set on a service.
  */
 @Component(service = ResourceChangeListener.class,
-           immediate = true
+           immediate = true,
+           property = {
+                   ResourceChangeListener.PATHS + "=/content",
+                   ResourceChangeListener.PATHS + "=/var/workflow/packages"
+           }
 )
 @ServiceDescription("Demo to listen on changes in the resource tree")
 public class SimpleResourceListener implements ResourceChangeListener {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile ChangePipeline changePipeline;
+
     @Override
     public void onChange(List<ResourceChange> changes) {
         changes.forEach(change -> {
             logger.debug("Resource event: {} at: {} isExternal", change.getType(), change.getPath(), change.isExternal());
         });
-        
+        final ChangePipeline pipeline = changePipeline;
+        if (pipeline != null) {
+            pipeline.enqueue(changes);
+        }
     }
 }
 
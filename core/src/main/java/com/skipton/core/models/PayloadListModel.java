@@ -17,9 +17,11 @@ package com.skipton.core.models;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.models.annotations.Default;
 import org.apache.sling.models.annotations.Model;
+import org.apache.sling.models.annotations.injectorspecific.OSGiService;
 import org.apache.sling.models.annotations.injectorspecific.SlingObject;
 import org.apache.sling.models.annotations.injectorspecific.ValueMapValue;
 import org.apache.sling.models.annotations.injectorspecific.InjectionStrategy;
@@ -28,16 +30,31 @@ import com.adobe.granite.workflow.WorkflowSession;
 import com.adobe.granite.workflow.exec.WorkItem;
 import com.adobe.granite.workflow.exec.Workflow;
 import com.adobe.granite.workflow.WorkflowException;
-import com.day.cq.wcm.api.Page;
-import com.day.cq.dam.api.Asset;
+import com.skipton.core.workflows.PackageFilter;
+import com.skipton.core.workflows.PackageFilterCompiler;
+import com.skipton.core.workflows.ParallelPayloadLoader;
+import com.skipton.core.workflows.PayloadExpansion;
+import com.skipton.core.workflows.PayloadListMetrics;
+import com.skipton.core.workflows.PayloadListMetrics.Discovery;
+import com.skipton.core.workflows.PayloadListCache;
+import com.skipton.core.workflows.PayloadItemResolver;
+import com.skipton.core.workflows.PayloadValidationProcess;
+import com.skipton.core.workflows.WorkItemIndex;
 
 import javax.annotation.PostConstruct;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import java.util.Calendar;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +64,13 @@ public class PayloadListModel {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PayloadListModel.class);
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int MAX_COVERED_ITEMS = 10000;
+    private static final String PARAM_OFFSET = "offset";
+    private static final String PARAM_LIMIT = "limit";
+    private static final String PARAM_PAGE_TOKEN = "pageToken";
+
     @ValueMapValue(injectionStrategy = InjectionStrategy.OPTIONAL)
     @Default(values = "Workflow Payload Items")
     private String title;
@@ -59,6 +83,26 @@ public class PayloadListModel {
     @Default(booleanValues = true)
     private Boolean showDetails;
 
+    @ValueMapValue(injectionStrategy = InjectionStrategy.OPTIONAL)
+    @Default(intValues = DEFAULT_PAGE_SIZE)
+    private int pageSize;
+
+    @ValueMapValue(injectionStrategy = InjectionStrategy.OPTIONAL)
+    @Default(booleanValues = false)
+    private boolean expandTree;
+
+    @ValueMapValue(injectionStrategy = InjectionStrategy.OPTIONAL)
+    @Default(intValues = 3)
+    private int expandDepth;
+
+    @ValueMapValue(injectionStrategy = InjectionStrategy.OPTIONAL)
+    @Default(intValues = 500)
+    private int expandMaxItems;
+
+    @ValueMapValue(injectionStrategy = InjectionStrategy.OPTIONAL)
+    @Default(intValues = 2000)
+    private int expandTimeBudget;
+
     @SlingObject
     private Resource currentResource;
     
@@ -68,18 +112,47 @@ public class PayloadListModel {
     @SlingObject(injectionStrategy = InjectionStrategy.OPTIONAL)
     private SlingHttpServletRequest request;
 
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private WorkItemIndex workItemIndex;
+
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private ParallelPayloadLoader payloadLoader;
+
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private PayloadListCache payloadListCache;
+
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private PackageFilterCompiler packageFilterCompiler;
+
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private PayloadListMetrics metrics;
+
+    private List<String> payloadRoots;
+    private List<String> coveredPaths;
+    private boolean coveredTruncated;
     private List<PayloadItem> payloadItems;
+    private boolean fallback;
+    private boolean truncated;
+    private PayloadListCache.Entry cacheEntry;
+    private PackageFilter packageFilter;
+    private int offset;
+    private int limit;
     private String workflowId;
     private String workflowTitle;
     private String payloadPath;
 
     @PostConstruct
     protected void init() {
-        payloadItems = new ArrayList<>();
-        loadWorkflowPayloadItems();
+        payloadRoots = new ArrayList<>();
+        loadWorkflowPayloadRoots();
+        initPaging();
     }
 
-    private void loadWorkflowPayloadItems() {
+    /**
+     * Discovers the workflow payload roots only. Payload items are resolved lazily,
+     * one page at a time, when {@link #getPayloadItems()} is first called.
+     */
+    private void loadWorkflowPayloadRoots() {
         try {
             // Try to get workflow information from the request context
             WorkflowContext workflowContext = getWorkflowContext();
@@ -91,10 +164,16 @@ public class PayloadListModel {
                 
                 LOGGER.info("Loading payload items for workflow: {} at path: {}", workflowId, payloadPath);
                 if (payloadPath.startsWith("/var/workflow/packages/")) {
-                    List<String> packagePayloadItems = getPackagePayloadItems(payloadPath);
-                    packagePayloadItems.forEach(this::loadPayloadItemsFromPath);
+                    long parseStart = System.nanoTime();
+                    if (packageFilterCompiler != null) {
+                        packageFilter = packageFilterCompiler.getFilter(resourceResolver, payloadPath);
+                    }
+                    payloadRoots.addAll(getCachedPackagePayloadItems(payloadPath));
+                    if (metrics != null) {
+                        metrics.packageParsed(parseStart);
+                    }
                 } else {
-                    loadPayloadItemsFromPath(payloadPath);
+                    payloadRoots.add(payloadPath);
                 }
                 
             } else {
@@ -107,7 +186,33 @@ public class PayloadListModel {
         }
     }
 
+    private List<String> getCachedPackagePayloadItems(String payloadPath) {
+        if (payloadListCache == null) {
+            return getPackagePayloadItems(payloadPath);
+        }
+
+        long lastModified = getPackageLastModified(payloadPath);
+        String userId = resourceResolver.getUserID();
+        cacheEntry = payloadListCache.get(workflowId, userId, lastModified);
+        if (cacheEntry == null) {
+            cacheEntry = payloadListCache.put(workflowId, userId, lastModified, payloadPath, getPackagePayloadItems(payloadPath));
+        } else {
+            LOGGER.debug("Using cached payload roots for workflow: {}", workflowId);
+        }
+        return cacheEntry.getRoots();
+    }
+
+    private long getPackageLastModified(String payloadPath) {
+        Resource packageResource = resourceResolver.getResource(payloadPath);
+        return packageResource != null ? PackageFilterCompiler.getLastModified(packageResource) : 0L;
+    }
+
     private List<String> getPackagePayloadItems(String payloadPath) {
+        if (packageFilter != null) {
+            LOGGER.info("Extracted {} filter roots from package: {}", packageFilter.getRoots().size(), payloadPath);
+            return packageFilter.getRoots();
+        }
+
         List<String> packagePayloadItems = new ArrayList<>();
         
         try {
@@ -193,57 +298,34 @@ public class PayloadListModel {
         }
 
         try {
-            // Method 1: Try to get WorkItem from various request attributes
-            String[] workItemAttributeNames = {"workItem", "item", "workflowItem", "granite.workflow.item"};
-            for (String attributeName : workItemAttributeNames) {
-                Object workflowItem = request.getAttribute(attributeName);
-                if (workflowItem instanceof WorkItem) {
-                    WorkItem item = (WorkItem) workflowItem;
-                    LOGGER.info("Found WorkItem via attribute '{}' - Workflow ID: {}", 
-                               attributeName, item.getWorkflow().getId());
-                    return new WorkflowContext(
-                        item.getWorkflow().getId(),
-                        item.getWorkflow().getWorkflowModel().getTitle(),
-                        item.getWorkflowData().getPayload().toString()
-                    );
-                }
+            long start = System.nanoTime();
+            WorkflowContext context = getWorkflowContextFromAttributes();
+            recordDiscovery(Discovery.ATTRIBUTE, start, context);
+            if (context != null) {
+                return context;
             }
 
-            // Method 2: Try to get workflow item ID from request parameters
-            String[] parameterNames = {"item", "workflowId", "workItemId", "wfItem"};
-            for (String paramName : parameterNames) {
-                String itemId = request.getParameter(paramName);
-                if (itemId != null && !itemId.isEmpty()) {
-                    LOGGER.debug("Found workflow item ID from parameter '{}': {}", paramName, itemId);
-                    WorkflowContext context = getWorkflowContextFromItemId(itemId);
-                    if (context != null) {
-                        return context;
-                    }
-                }
+            start = System.nanoTime();
+            context = getWorkflowContextFromParameters();
+            recordDiscovery(Discovery.PARAMETER, start, context);
+            if (context != null) {
+                return context;
             }
 
-            // Method 3: Try to extract from request suffix
-            String suffix = request.getRequestPathInfo().getSuffix();
-            
-            if (suffix != null && suffix.contains("/var/workflow/instances/")) {
-                String[] parts = suffix.split("/");
-                for (int i = 0; i < parts.length - 1; i++) {
-                    if ("instances".equals(parts[i]) && i + 1 < parts.length) {
-                        String workflowId = parts[i + 1];
-                        LOGGER.debug("Extracted workflow ID from suffix: {}", workflowId);
-                        WorkflowContext context = getWorkflowContextFromWorkflowId(workflowId);
-                        if (context != null) {
-                            return context;
-                        }
-                    }
-                }
+            start = System.nanoTime();
+            context = getWorkflowContextFromSuffix();
+            recordDiscovery(Discovery.SUFFIX, start, context);
+            if (context != null) {
+                return context;
             }
 
             // Method 4: Try to get workflow session and look for active workflows
+            start = System.nanoTime();
             WorkflowSession workflowSession = resourceResolver.adaptTo(WorkflowSession.class);
             if (workflowSession == null) {
                 LOGGER.warn("Could not get WorkflowSession");
             }
+            recordDiscovery(Discovery.SESSION, start, null);
 
             LOGGER.warn("No workflow context found in request");
             return null;
@@ -254,6 +336,67 @@ public class PayloadListModel {
         }
     }
 
+    private void recordDiscovery(Discovery discovery, long start, WorkflowContext context) {
+        if (metrics != null) {
+            metrics.discovery(discovery, start, context != null);
+        }
+    }
+
+    private WorkflowContext getWorkflowContextFromAttributes() {
+        // Method 1: Try to get WorkItem from various request attributes
+        String[] workItemAttributeNames = {"workItem", "item", "workflowItem", "granite.workflow.item"};
+        for (String attributeName : workItemAttributeNames) {
+            Object workflowItem = request.getAttribute(attributeName);
+            if (workflowItem instanceof WorkItem) {
+                WorkItem item = (WorkItem) workflowItem;
+                LOGGER.info("Found WorkItem via attribute '{}' - Workflow ID: {}", 
+                           attributeName, item.getWorkflow().getId());
+                return new WorkflowContext(
+                    item.getWorkflow().getId(),
+                    item.getWorkflow().getWorkflowModel().getTitle(),
+                    item.getWorkflowData().getPayload().toString()
+                );
+            }
+        }
+        return null;
+    }
+
+    private WorkflowContext getWorkflowContextFromParameters() {
+        // Method 2: Try to get workflow item ID from request parameters
+        String[] parameterNames = {"item", "workflowId", "workItemId", "wfItem"};
+        for (String paramName : parameterNames) {
+            String itemId = request.getParameter(paramName);
+            if (itemId != null && !itemId.isEmpty()) {
+                LOGGER.debug("Found workflow item ID from parameter '{}': {}", paramName, itemId);
+                WorkflowContext context = getWorkflowContextFromItemId(itemId);
+                if (context != null) {
+                    return context;
+                }
+            }
+        }
+        return null;
+    }
+
+    private WorkflowContext getWorkflowContextFromSuffix() {
+        // Method 3: Try to extract from request suffix
+        String suffix = request.getRequestPathInfo().getSuffix();
+        
+        if (suffix != null && suffix.contains("/var/workflow/instances/")) {
+            String[] parts = suffix.split("/");
+            for (int i = 0; i < parts.length - 1; i++) {
+                if ("instances".equals(parts[i]) && i + 1 < parts.length) {
+                    String workflowId = parts[i + 1];
+                    LOGGER.debug("Extracted workflow ID from suffix: {}", workflowId);
+                    WorkflowContext context = getWorkflowContextFromWorkflowId(workflowId);
+                    if (context != null) {
+                        return context;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
     private WorkflowContext getWorkflowContextFromItemId(String itemId) {
         try {
             WorkflowSession workflowSession = resourceResolver.adaptTo(WorkflowSession.class);
@@ -262,11 +405,20 @@ public class PayloadListModel {
                 return null;
             }
 
+            // Serve from the work item index when it knows the item and the caller may read it
+            WorkflowContext indexedContext = getWorkflowContextFromIndex(workflowSession, itemId);
+            if (indexedContext != null) {
+                return indexedContext;
+            }
+
             // First try exact match by work item ID
             WorkItem[] workItems = workflowSession.getActiveWorkItems();
             for (WorkItem item : workItems) {
                 if (item.getId().equals(itemId)) {
                     LOGGER.debug("Found exact work item match - Workflow ID: {}", item.getWorkflow().getId());
+                    if (workItemIndex != null) {
+                        workItemIndex.index(item);
+                    }
                     return new WorkflowContext(
                         item.getWorkflow().getId(),
                         item.getWorkflow().getWorkflowModel().getTitle(),
@@ -303,6 +455,37 @@ public class PayloadListModel {
         }
     }
 
+    private WorkflowContext getWorkflowContextFromIndex(WorkflowSession workflowSession, String itemId) {
+        if (workItemIndex == null) {
+            return null;
+        }
+
+        workItemIndex.seed();
+        WorkItemIndex.Entry entry = workItemIndex.getByItemId(itemId);
+        if (entry == null) {
+            entry = workItemIndex.getByWorkflowId(extractWorkflowIdFromItemId(itemId));
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        // The index is seeded by a service user, so confirm the caller can read the workflow
+        try {
+            Workflow workflow = workflowSession.getWorkflow(entry.getWorkflowId());
+            if (workflow != null) {
+                LOGGER.debug("Found work item in index - Workflow ID: {}", entry.getWorkflowId());
+                return new WorkflowContext(
+                    workflow.getId(),
+                    workflow.getWorkflowModel().getTitle(),
+                    workflow.getWorkflowData().getPayload().toString()
+                );
+            }
+        } catch (WorkflowException e) {
+            LOGGER.debug("Indexed workflow {} is not readable by the caller", entry.getWorkflowId(), e);
+        }
+        return null;
+    }
+
     private String extractWorkflowIdFromItemId(String itemId) {
         if (itemId == null || !itemId.contains("/var/workflow/instances/")) {
             return null;
@@ -365,7 +548,6 @@ public class PayloadListModel {
                 );
             }
 
-            // If direct lookup fails, try to find it in active workflows
             WorkItem[] workItems = workflowSession.getActiveWorkItems();
             for (WorkItem item : workItems) {
                 if (item.getWorkflow().getId().equals(workflowId)) {
@@ -386,101 +568,166 @@ public class PayloadListModel {
         }
     }
 
-    private void loadPayloadItemsFromPath(String payloadPath) {
-        if (payloadPath == null || payloadPath.isEmpty()) {
-            LOGGER.warn("No payload path provided");
-            return;
+    private void initPaging() {
+        offset = 0;
+        limit = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+
+        if (request != null) {
+            // Selectors first (e.g. payloadlist.offset-100.limit-50.html), request parameters win
+            for (String selector : request.getRequestPathInfo().getSelectors()) {
+                if (selector.startsWith(PARAM_OFFSET + "-")) {
+                    offset = parseNonNegative(selector.substring(PARAM_OFFSET.length() + 1), offset);
+                } else if (selector.startsWith(PARAM_LIMIT + "-")) {
+                    limit = parseNonNegative(selector.substring(PARAM_LIMIT.length() + 1), limit);
+                }
+            }
+            offset = parseNonNegative(request.getParameter(PARAM_OFFSET), offset);
+            limit = parseNonNegative(request.getParameter(PARAM_LIMIT), limit);
+            decodePageToken(request.getParameter(PARAM_PAGE_TOKEN));
         }
 
-        Resource payloadResource = resourceResolver.getResource(payloadPath);
-        if (payloadResource == null) {
-            LOGGER.warn("Could not find resource at payload path: {}", payloadPath);
+        limit = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    private void decodePageToken(String token) {
+        if (token == null || token.isEmpty()) {
             return;
         }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+            if (parts.length == 2) {
+                offset = parseNonNegative(parts[0], offset);
+                limit = parseNonNegative(parts[1], limit);
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Ignoring invalid page token: {}", token);
+        }
+    }
 
-        // Determine the type of payload and load accordingly
-        if (payloadResource.isResourceType("cq:Page")) {
-            loadPagePayload(payloadResource);
-        } else if (payloadResource.isResourceType("dam:Asset")) {
-            loadAssetPayload(payloadResource);
-        } else if (payloadResource.isResourceType("sling:Folder") || 
-                   payloadResource.isResourceType("sling:OrderedFolder")) {
-            loadFolderPayload(payloadResource);
-        } else {
-            // Generic resource
-            loadGenericPayload(payloadResource);
+    private static String encodePageToken(int offset, int limit) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((offset + ":" + limit).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int parseNonNegative(String value, int defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            return parsed >= 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
         }
     }
 
-    private void loadPagePayload(Resource pageResource) {
-        Page page = pageResource.adaptTo(Page.class);
-        if (page != null) {
-            payloadItems.add(new PayloadItem(
-                page.getPath(),
-                page.getTitle() != null ? page.getTitle() : page.getName(),
-                "cq:Page",
-                "Page"
-            ));
-            
-            // Optionally load child pages if this is a site structure workflow
-            // for (Iterator<Page> children = page.listChildren(); children.hasNext();) {
-            //     Page child = children.next();
-            //     payloadItems.add(new PayloadItem(
-            //         child.getPath(),
-            //         child.getTitle() != null ? child.getTitle() : child.getName(),
-            //         "cq:Page",
-            //         "Child Page"
-            //     ));
-            // }
-        }
-    }
-
-    private void loadAssetPayload(Resource assetResource) {
-        Asset asset = assetResource.adaptTo(Asset.class);
-        if (asset != null) {
-            String title = asset.getMetadataValue("dc:title");
-            if (title == null || title.isEmpty()) {
-                title = asset.getName();
-            }
-            
-            payloadItems.add(new PayloadItem(
-                asset.getPath(),
-                title,
-                "dam:Asset",
-                asset.getMimeType()
-            ));
-        }
-    }
-
-    private void loadFolderPayload(Resource folderResource) {
-        payloadItems.add(new PayloadItem(
-            folderResource.getPath(),
-            folderResource.getName(),
-            folderResource.getResourceType(),
-            "Folder"
-        ));
-        
-        // Load immediate children
-        for (Resource child : folderResource.getChildren()) {
-            if (child.isResourceType("dam:Asset")) {
-                loadAssetPayload(child);
-            } else if (child.isResourceType("cq:Page")) {
-                loadPagePayload(child);
+    /**
+     * @return a fresh expansion budget for one resolution of the current page. The covered
+     *         resources of a package are listed one by one, so they are not expanded.
+     */
+    private PayloadExpansion newExpansion() {
+        if (packageFilter != null) {
+            return PayloadExpansion.none();
+        }
+        return expandTree
+            ? PayloadExpansion.deep(expandDepth, expandMaxItems, expandTimeBudget)
+            : PayloadExpansion.shallow();
+    }
+
+    private String pageKey(PayloadExpansion expansion) {
+        return offset + ":" + limit + ":" + expansion.getKey();
+    }
+
+    /**
+     * Resolves the payload items of the current page, from the cache if possible, otherwise
+     * through the parallel payload loader, and caches the result.
+     */
+    private void loadPagePayloadItems() {
+        PayloadExpansion expansion = newExpansion();
+        String pageKey = pageKey(expansion);
+
+        if (cacheEntry != null) {
+            payloadItems = cacheEntry.getPage(pageKey);
+            if (payloadItems != null) {
+                return;
             }
         }
+
+        payloadItems = resolvePayloadItems(getPagePayloadRoots(), expansion);
+        pageResolved(pageKey, expansion, payloadItems);
+    }
+
+    /**
+     * Records a freshly resolved page in the metrics and the cache.
+     */
+    private void pageResolved(String pageKey, PayloadExpansion expansion, List<PayloadItem> items) {
+        truncated = expansion.isTruncated();
+        if (metrics != null) {
+            metrics.itemsLoaded(items.size());
+        }
+        if (truncated) {
+            LOGGER.warn("Payload expansion for workflow {} truncated after {} items", workflowId, items.size());
+        }
+
+        // A page cut short by time depends on timing, so it is not cached
+        if (cacheEntry != null && !expansion.isTimedOut()) {
+            cacheEntry.putPage(pageKey, items);
+        }
+    }
+
+    private List<PayloadItem> resolvePayloadItems(List<String> roots, PayloadExpansion expansion) {
+        if (payloadLoader != null) {
+            return payloadLoader.load(roots, resourceResolver, expansion);
+        }
+
+        List<PayloadItem> items = new ArrayList<>();
+        new PayloadItemResolver(resourceResolver, items::add, expansion).resolveAll(roots);
+        return items;
     }
 
-    private void loadGenericPayload(Resource resource) {
-        payloadItems.add(new PayloadItem(
-            resource.getPath(),
-            resource.getName(),
-            resource.getResourceType(),
-            "Resource"
-        ));
+    private List<String> getPagePayloadRoots() {
+        List<String> paths = getPagedPaths();
+        if (offset >= paths.size()) {
+            return Collections.emptyList();
+        }
+        return paths.subList(offset, Math.min(offset + limit, paths.size()));
+    }
+
+    /**
+     * @return the paths pages are cut from: for a package with a compiled filter the resources
+     *         it covers, listed by one guided traversal per package revision and user, otherwise
+     *         the payload roots
+     */
+    private List<String> getPagedPaths() {
+        if (packageFilter == null || fallback) {
+            return payloadRoots;
+        }
+        if (coveredPaths == null) {
+            List<String> covered = cacheEntry != null ? cacheEntry.getCovered() : null;
+            if (covered == null) {
+                covered = packageFilter.listCovered(resourceResolver, MAX_COVERED_ITEMS + 1);
+                if (cacheEntry != null) {
+                    cacheEntry.putCovered(covered);
+                }
+            }
+            coveredTruncated = covered.size() > MAX_COVERED_ITEMS;
+            coveredPaths = coveredTruncated ? covered.subList(0, MAX_COVERED_ITEMS) : covered;
+            if (coveredTruncated) {
+                LOGGER.warn("Package {} covers more than {} resources, listing the first ones only", payloadPath, MAX_COVERED_ITEMS);
+            }
+        }
+        return coveredPaths;
     }
 
     private void loadFallbackPayloadItems() {
         // Fallback implementation for when no workflow context is available
+        fallback = true;
+        cacheEntry = null;
+        if (metrics != null) {
+            metrics.fallback();
+        }
+        payloadRoots.clear();
+        payloadItems = new ArrayList<>();
         payloadItems.add(new PayloadItem("/content/df/us/en/page1", "Page 1", "cq:Page", "Page"));
         payloadItems.add(new PayloadItem("/content/dam/df/asset1.jpg", "Asset 1", "dam:Asset", "Image"));
         payloadItems.add(new PayloadItem("/content/df/us/en/page2", "Page 2", "cq:Page", "Page"));
@@ -499,12 +746,126 @@ public class PayloadListModel {
         return showDetails;
     }
 
+    /**
+     * @return the payload items of the requested page, resolved on first access
+     */
     public List<PayloadItem> getPayloadItems() {
+        if (payloadItems == null) {
+            loadPagePayloadItems();
+        }
         return payloadItems;
     }
 
+    /**
+     * @return the total number of payload items pages are cut from, the resources covered by
+     *         the package filter or else the payload roots, without resolving any payload item
+     */
     public int getPayloadCount() {
-        return payloadItems != null ? payloadItems.size() : 0;
+        if (fallback) {
+            return payloadItems.size();
+        }
+        return getPagedPaths().size();
+    }
+
+    /**
+     * Hands the payload items of the requested page to the consumer one by one, as soon as
+     * each item is resolved. A page already in the payload list cache is replayed from there;
+     * otherwise the page is resolved on the calling thread and cached like
+     * {@link #getPayloadItems()} does. It deliberately bypasses the parallel payload loader,
+     * which only returns once every chunk is done and would hold back the first item until
+     * the whole page is resolved. Both paths resolve with the caller's resolver.
+     *
+     * @return {@code true} if the tree expansion of this page stopped at its budget or the
+     *         package covers more resources than are listed
+     */
+    public boolean streamPayloadItems(Consumer<PayloadItem> consumer) {
+        PayloadExpansion expansion = newExpansion();
+        String pageKey = pageKey(expansion);
+        if (payloadItems == null && cacheEntry != null) {
+            payloadItems = cacheEntry.getPage(pageKey);
+        }
+        if (payloadItems != null) {
+            payloadItems.forEach(consumer);
+            return truncated || isCoveredTruncated();
+        }
+
+        List<PayloadItem> items = new ArrayList<>();
+        new PayloadItemResolver(resourceResolver, item -> {
+            items.add(item);
+            consumer.accept(item);
+        }, expansion).resolveAll(getPagePayloadRoots());
+        payloadItems = items;
+        pageResolved(pageKey, expansion, items);
+        return truncated || isCoveredTruncated();
+    }
+
+    /**
+     * @return {@code true} if the tree expansion of this page stopped at its depth, item or time
+     *         budget, or the package covers more resources than are listed
+     */
+    public boolean isTruncated() {
+        getPayloadItems();
+        return truncated || isCoveredTruncated();
+    }
+
+    private boolean isCoveredTruncated() {
+        getPagedPaths();
+        return coveredTruncated;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return 1-based index of the first payload item on this page, 0 if the page is empty
+     */
+    public int getPageStart() {
+        return offset < getPayloadCount() ? offset + 1 : 0;
+    }
+
+    /**
+     * @return 1-based index of the last payload item on this page
+     */
+    public int getPageEnd() {
+        return Math.min(offset + limit, getPayloadCount());
+    }
+
+    /**
+     * @return an opaque token addressing the next page, or {@code null} on the last page
+     */
+    public String getNextPageToken() {
+        if (fallback || offset + limit >= getPayloadCount()) {
+            return null;
+        }
+        return encodePageToken(offset + limit, limit);
+    }
+
+    /**
+     * @return the current request URL pointing at the next page, or {@code null} on the last page
+     */
+    public String getNextPageUrl() {
+        String token = getNextPageToken();
+        if (token == null || request == null) {
+            return null;
+        }
+
+        StringBuilder url = new StringBuilder(request.getRequestURI()).append('?');
+        for (Map.Entry<String, String[]> parameter : request.getParameterMap().entrySet()) {
+            String name = parameter.getKey();
+            if (PARAM_OFFSET.equals(name) || PARAM_LIMIT.equals(name) || PARAM_PAGE_TOKEN.equals(name)) {
+                continue;
+            }
+            for (String value : parameter.getValue()) {
+                url.append(URLEncoder.encode(name, StandardCharsets.UTF_8)).append('=')
+                    .append(URLEncoder.encode(value, StandardCharsets.UTF_8)).append('&');
+            }
+        }
+        return url.append(PARAM_PAGE_TOKEN).append('=').append(token).toString();
     }
 
     public String getWorkflowId() {
@@ -519,6 +880,30 @@ public class PayloadListModel {
         return payloadPath;
     }
 
+    /**
+     * @return the status stored by the payload validation step, or {@code null} if the workflow was not validated
+     */
+    public String getValidationStatus() {
+        ValueMap metaData = getWorkflowMetaData();
+        return metaData != null ? metaData.get(PayloadValidationProcess.VALIDATION_STATUS, String.class) : null;
+    }
+
+    /**
+     * @return the issues found by the payload validation step, empty if there are none
+     */
+    public String[] getValidationIssues() {
+        ValueMap metaData = getWorkflowMetaData();
+        return metaData != null ? metaData.get(PayloadValidationProcess.VALIDATION_ISSUES, new String[0]) : new String[0];
+    }
+
+    private ValueMap getWorkflowMetaData() {
+        if (workflowId == null || !workflowId.startsWith("/var/workflow/instances/")) {
+            return null;
+        }
+        Resource metaData = resourceResolver.getResource(workflowId + "/data/metaData");
+        return metaData != null ? metaData.getValueMap() : null;
+    }
+
     /**
      * Inner class representing workflow context
      */
@@ -546,12 +931,18 @@ public class PayloadListModel {
         private String title;
         private String resourceType;
         private String category;
+        private Calendar lastModified;
 
         public PayloadItem(String path, String title, String resourceType, String category) {
+            this(path, title, resourceType, category, null);
+        }
+
+        public PayloadItem(String path, String title, String resourceType, String category, Calendar lastModified) {
             this.path = path;
             this.title = title;
             this.resourceType = resourceType;
             this.category = category;
+            this.lastModified = lastModified;
         }
 
         public String getPath() {
@@ -569,5 +960,12 @@ public class PayloadListModel {
         public String getCategory() {
             return category;
         }
+
+        /**
+         * @return the last modification of the item, or {@code null} if unknown
+         */
+        public Calendar getLastModified() {
+            return lastModified;
+        }
     }
 }
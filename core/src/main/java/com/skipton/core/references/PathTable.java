@@ -0,0 +1,261 @@
+package com.skipton.core.references;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns absolute repository paths as dense {@code int} ids. Each path is stored as the id of
+ * its parent and the id of its last segment, and segments are shared, so every distinct name
+ * is held once however many paths contain it. Id {@value #ROOT} is the root and a parent always
+ * has a smaller id than its children. Ids of paths that are no longer needed are reclaimed by
+ * {@link #compact(boolean[])}. Not thread-safe.
+ */
+final class PathTable {
+
+    static final int ROOT = 0;
+    static final int MISSING = -1;
+
+    private final Map<String, Integer> segmentIds = new HashMap<>();
+    private String[] segments = new String[64];
+    private int segmentCount;
+
+    private LongIntMap children;
+    private int[] parents;
+    private int[] names;
+    private int size;
+
+    PathTable() {
+        this(256);
+    }
+
+    private PathTable(int expected) {
+        reset(expected);
+    }
+
+    /**
+     * @return the id of the path, or {@value #MISSING} if it was never interned
+     */
+    int find(String path) {
+        int id = ROOT;
+        for (int start = 1; start < path.length() && id != MISSING; ) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            Integer segment = segmentIds.get(path.substring(start, end));
+            id = segment != null ? children.get(key(id, segment)) : MISSING;
+            start = end + 1;
+        }
+        return id;
+    }
+
+    int intern(String path) {
+        int id = ROOT;
+        for (int start = 1; start < path.length(); ) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            id = child(id, segment(path.substring(start, end)));
+            start = end + 1;
+        }
+        return id;
+    }
+
+    String path(int id) {
+        if (id == ROOT) {
+            return "/";
+        }
+        int depth = 0;
+        for (int current = id; current != ROOT; current = parents[current]) {
+            depth++;
+        }
+        String[] parts = new String[depth];
+        for (int current = id; current != ROOT; current = parents[current]) {
+            parts[--depth] = segments[names[current]];
+        }
+        StringBuilder path = new StringBuilder();
+        for (String part : parts) {
+            path.append('/').append(part);
+        }
+        return path.toString();
+    }
+
+    int parent(int id) {
+        return parents[id];
+    }
+
+    /**
+     * @return {@code true} if the path with the given id is the ancestor path or below it
+     */
+    boolean isAtOrBelow(int id, int ancestor) {
+        int current = id;
+        // Parents have smaller ids, so the walk can stop as soon as it passes the ancestor
+        while (current > ancestor) {
+            current = parents[current];
+        }
+        return current == ancestor;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int segmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return the paths marked in {@code keep} together with all their ancestors
+     */
+    boolean[] withAncestors(boolean[] keep) {
+        boolean[] live = Arrays.copyOf(keep, size);
+        live[ROOT] = true;
+        for (int id = size - 1; id > ROOT; id--) {
+            if (live[id]) {
+                live[parents[id]] = true;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Drops every path not marked in {@code keep} and not above a marked one, and the segments
+     * only they used. The remaining paths keep their order, so parents still have smaller ids.
+     *
+     * @return the new id of every kept path, {@value #MISSING} for the dropped ones
+     */
+    int[] compact(boolean[] keep) {
+        boolean[] live = withAncestors(keep);
+        int[] remap = remap(live);
+        int[] oldParents = parents;
+        int[] oldNames = names;
+        String[] oldSegments = segments;
+        int oldSize = size;
+
+        int count = 0;
+        for (int id = 0; id < oldSize; id++) {
+            if (live[id]) {
+                count++;
+            }
+        }
+        segmentIds.clear();
+        segments = new String[Math.max(64, segmentCount)];
+        segmentCount = 0;
+        reset(count);
+        for (int id = 1; id < oldSize; id++) {
+            if (live[id]) {
+                // Kept paths are added in id order, so each gets exactly its remapped id
+                child(remap[oldParents[id]], segment(oldSegments[oldNames[id]]));
+            }
+        }
+        return remap;
+    }
+
+    /**
+     * Writes the paths marked in {@code keep} together with all their ancestors.
+     *
+     * @return the new id of every written path, {@value #MISSING} for the dropped ones
+     */
+    int[] write(DataOutput out, boolean[] keep) throws IOException {
+        boolean[] live = withAncestors(keep);
+        int[] remap = remap(live);
+        int count = 0;
+        for (int id = 0; id < size; id++) {
+            if (live[id]) {
+                count++;
+            }
+        }
+
+        out.writeInt(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            out.writeUTF(segments[i]);
+        }
+        out.writeInt(count);
+        for (int id = 1; id < size; id++) {
+            if (live[id]) {
+                out.writeInt(remap[parents[id]]);
+                out.writeInt(names[id]);
+            }
+        }
+        return remap;
+    }
+
+    static PathTable read(DataInput in) throws IOException {
+        int segmentCount = in.readInt();
+        String[] segments = new String[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = in.readUTF();
+        }
+        int count = in.readInt();
+        PathTable table = new PathTable(count);
+        for (String segment : segments) {
+            table.segment(segment);
+        }
+        for (int id = 1; id < count; id++) {
+            int parent = in.readInt();
+            int name = in.readInt();
+            if (parent < 0 || parent >= id || name < 0 || name >= segmentCount) {
+                throw new IOException("Corrupt path table at id " + id);
+            }
+            table.child(parent, name);
+        }
+        return table;
+    }
+
+    private void reset(int expected) {
+        children = new LongIntMap(expected);
+        parents = new int[Math.max(16, expected)];
+        names = new int[parents.length];
+        parents[ROOT] = MISSING;
+        names[ROOT] = MISSING;
+        size = 1;
+    }
+
+    private int[] remap(boolean[] live) {
+        int[] remap = new int[size];
+        int count = 0;
+        for (int id = 0; id < size; id++) {
+            remap[id] = live[id] ? count++ : MISSING;
+        }
+        return remap;
+    }
+
+    private int segment(String name) {
+        Integer existing = segmentIds.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        if (segmentCount == segments.length) {
+            segments = Arrays.copyOf(segments, segmentCount * 2);
+        }
+        segments[segmentCount] = name;
+        segmentIds.put(name, segmentCount);
+        return segmentCount++;
+    }
+
+    private int child(int parent, int name) {
+        long key = key(parent, name);
+        int id = children.get(key);
+        if (id != MISSING) {
+            return id;
+        }
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+        }
+        id = size++;
+        parents[id] = parent;
+        names[id] = name;
+        children.put(key, id);
+        return id;
+    }
+
+    private static long key(int parent, int name) {
+        return ((long) parent << 32) | (name & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,672 @@
+package com.skipton.core.references;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import com.skipton.core.listeners.ChangeHandler;
+import com.skipton.core.listeners.ContentPaths;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Graph of the references from pages and fragments to assets, experience fragments and
+ * content fragments below the configured roots, answering "which pages embed this" from memory.
+ * A reference is a value of one of the reference properties anywhere inside a page or
+ * fragment, attributed to the page or fragment itself.
+ * <p>
+ * On activation the graph is loaded from the snapshot at {@value #SNAPSHOT_PATH}, or built by
+ * a parallel crawl of the roots if there is none or it is older than the maximum age. A loaded
+ * snapshot is reconciled with the content changed since it was written: pages and fragments
+ * modified after it are rescanned and referencing paths that no longer exist dropped. From then
+ * on it is kept current from resource changes: changed pages are rescanned, added subtrees are
+ * crawled and removed ones dropped. Changes arriving during a load or crawl are applied after
+ * it. The snapshot is rewritten periodically while the graph changes. The graph is exposed over
+ * JMX as {@code com.skipton:type=ReferenceGraph}.
+ */
+@Designate(ocd = ReferenceGraph.Config.class)
+@Component(
+    service = { ReferenceGraph.class, ChangeHandler.class, DynamicMBean.class },
+    property = "jmx.objectname=com.skipton:type=ReferenceGraph"
+)
+public class ReferenceGraph extends StandardMBean implements ReferenceGraphMBean, ChangeHandler {
+
+    @ObjectClassDefinition(name = "Skipton - Reference Graph",
+                           description = "Keeps the references of pages to assets and fragments in memory")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Roots",
+                             description = "Pages and fragments below these paths are crawled for references")
+        String[] roots() default { "/content/skipton", "/content/experience-fragments/skipton" };
+
+        @AttributeDefinition(name = "Reference properties",
+                             description = "Properties through which pages reference assets and fragments")
+        String[] reference_properties() default { "fileReference", "fragmentVariationPath", "fragmentPath" };
+
+        @AttributeDefinition(name = "Crawl threads",
+                             description = "Number of threads crawling the roots on a rebuild")
+        int crawl_threads() default 4;
+
+        @AttributeDefinition(name = "Partition depth",
+                             description = "Levels below a root whose subtrees are crawled as separate tasks")
+        int partition_depth() default 2;
+
+        @AttributeDefinition(name = "Snapshot interval (minutes)",
+                             description = "Time between snapshots of a changed graph")
+        long snapshot_interval() default 10;
+
+        @AttributeDefinition(name = "Maximum snapshot age (hours)",
+                             description = "Older snapshots are discarded and the graph is crawled again")
+        long max_age() default 24;
+
+        @AttributeDefinition(name = "Maximum dependants",
+                             description = "Maximum number of paths returned for one dependants query")
+        int max_dependants() default 10000;
+    }
+
+    static final String SNAPSHOT_PATH = "/var/skipton/reference-graph/snapshot";
+
+    private static final String SUBSERVICE = "reference-graph";
+    private static final String CONTENT_NAME = "jcr:content";
+    private static final String[] MODIFIED_PROPERTIES = { "jcr:lastModified", "cq:lastModified", "jcr:created" };
+
+    // Changes reach the graph asynchronously, so those made shortly before a snapshot may be missing from it
+    private static final long SNAPSHOT_OVERLAP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Logger log = LoggerFactory.getLogger(ReferenceGraph.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private ReferenceIndex index = new ReferenceIndex();
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final List<ResourceChange> backlog = new ArrayList<>();
+    private boolean building;
+    private volatile boolean ready;
+    private volatile boolean stopped;
+
+    private volatile ScheduledExecutorService maintenance;
+    private String[] roots = new String[0];
+    private String[] referenceProperties = new String[0];
+    private int crawlThreads;
+    private int partitionDepth;
+    private long maxAgeMillis;
+    private int maxDependants;
+
+    public ReferenceGraph() throws NotCompliantMBeanException {
+        super(ReferenceGraphMBean.class);
+    }
+
+    @Activate
+    protected void activate(final Config config) {
+        roots = config.roots() != null ? config.roots() : new String[0];
+        referenceProperties = config.reference_properties() != null ? config.reference_properties() : new String[0];
+        crawlThreads = Math.max(1, config.crawl_threads());
+        partitionDepth = Math.max(0, config.partition_depth());
+        maxAgeMillis = TimeUnit.HOURS.toMillis(Math.max(1L, config.max_age()));
+        maxDependants = Math.max(1, config.max_dependants());
+
+        stopped = false;
+        synchronized (backlog) {
+            building = true;
+        }
+        long snapshotInterval = Math.max(1L, config.snapshot_interval());
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "skipton-reference-graph");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.execute(() -> initialize(true));
+        maintenance.scheduleWithFixedDelay(this::maintain, snapshotInterval, snapshotInterval, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops a running load, crawl or update at its next resource instead of interrupting it
+     * inside repository I/O, and writes a final snapshot once the maintenance thread finished.
+     */
+    @Deactivate
+    protected void deactivate() {
+        stopped = true;
+        ScheduledExecutorService current = maintenance;
+        maintenance = null;
+        if (current == null) {
+            return;
+        }
+        current.shutdown();
+        try {
+            if (!current.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Reference graph maintenance did not stop within 10 seconds, skipping the final snapshot");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (ready) {
+            snapshot();
+        }
+    }
+
+    /**
+     * @return the assets and fragments the page or fragment references
+     */
+    public List<String> getReferences(String path) {
+        lock.readLock().lock();
+        try {
+            return index.targets(path);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the pages and fragments referencing the path directly
+     */
+    public List<String> getReferrers(String path) {
+        lock.readLock().lock();
+        try {
+            return index.sources(path);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the pages and fragments referencing the path directly or through fragments
+     *         referencing it, nearest first, up to the configured maximum
+     */
+    public Set<String> getDependants(String path) {
+        lock.readLock().lock();
+        try {
+            return index.dependants(path, maxDependants);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public int getPathCount() {
+        lock.readLock().lock();
+        try {
+            return index.pathCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getReferenceCount() {
+        lock.readLock().lock();
+        try {
+            return index.referenceCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void rebuild() {
+        ScheduledExecutorService current = maintenance;
+        if (current == null) {
+            return;
+        }
+        current.execute(() -> initialize(false));
+    }
+
+    @Override
+    public void handle(List<ResourceChange> changes) {
+        List<ResourceChange> relevant = new ArrayList<>();
+        for (ResourceChange change : changes) {
+            if (ContentPaths.isBelow(change.getPath(), roots)) {
+                relevant.add(change);
+            }
+        }
+        if (relevant.isEmpty()) {
+            return;
+        }
+        synchronized (backlog) {
+            if (building) {
+                backlog.addAll(relevant);
+                return;
+            }
+        }
+        apply(relevant);
+    }
+
+    /**
+     * Updates the graph for the changes: removed items are dropped with everything below them,
+     * added items are crawled with everything below them and other changed items are rescanned.
+     */
+    void apply(List<ResourceChange> changes) {
+        Map<String, Boolean> rescans = new LinkedHashMap<>();
+        List<String> removals = new ArrayList<>();
+        for (ResourceChange change : changes) {
+            String item = ContentPaths.itemPath(change.getPath());
+            boolean itemChange = item.equals(change.getPath());
+            if (itemChange && change.getType() == ChangeType.REMOVED) {
+                removals.add(item);
+                rescans.remove(item);
+            } else {
+                rescans.merge(item, itemChange && change.getType() == ChangeType.ADDED, Boolean::logicalOr);
+            }
+        }
+
+        try (ResourceResolver resolver = serviceResolver()) {
+            lock.writeLock().lock();
+            try {
+                removals.forEach(index::removeBelow);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (Map.Entry<String, Boolean> rescan : rescans.entrySet()) {
+                String item = rescan.getKey();
+                boolean deep = rescan.getValue();
+                Map<String, Set<String>> found = crawl(resolver, item, deep);
+                if (stopped) {
+                    // The crawl may have been cut short; the next load reconciles the item
+                    break;
+                }
+                lock.writeLock().lock();
+                try {
+                    if (deep) {
+                        index.removeBelow(item);
+                        found.forEach(index::set);
+                    } else {
+                        index.set(item, found.getOrDefault(item, Collections.emptySet()));
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            dirty.set(true);
+        } catch (LoginException e) {
+            log.error("Could not log in as {} to update the reference graph for {} changes", SUBSERVICE, changes.size(), e);
+        }
+    }
+
+    /**
+     * Collects the references found at the path and, if deep, below it. Without deep only the
+     * path's own content node is scanned, not its child pages. Once the graph is stopped the
+     * crawl ends early and returns what it found so far.
+     *
+     * @return the referenced paths per referencing page or fragment
+     */
+    Map<String, Set<String>> crawl(ResourceResolver resolver, String path, boolean deep) {
+        Map<String, Set<String>> found = new HashMap<>();
+        Resource start = resolver.getResource(path);
+        if (start == null) {
+            return found;
+        }
+        Deque<Resource> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty() && !stopped) {
+            Resource current = queue.poll();
+            ValueMap properties = current.getValueMap();
+            for (String name : referenceProperties) {
+                String[] values = properties.get(name, String[].class);
+                if (values != null) {
+                    for (String value : values) {
+                        if (value != null && value.startsWith("/")) {
+                            found.computeIfAbsent(ContentPaths.itemPath(current.getPath()), key -> new HashSet<>()).add(ContentPaths.itemPath(value));
+                        }
+                    }
+                }
+            }
+            for (Resource child : current.getChildren()) {
+                if (!"renditions".equals(child.getName()) && (deep || ContentPaths.itemPath(child.getPath()).equals(path))) {
+                    queue.add(child);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Crawls the roots with the configured number of threads, each partition with its own
+     * service resolver, and replaces the graph with the result.
+     *
+     * @return {@code true} if the graph was replaced
+     */
+    boolean build() {
+        long start = System.currentTimeMillis();
+        List<Callable<Map<String, Set<String>>>> tasks = new ArrayList<>();
+        try (ResourceResolver resolver = serviceResolver()) {
+            for (String root : roots) {
+                Resource resource = resolver.getResource(root);
+                if (resource != null) {
+                    partition(resource, partitionDepth, tasks);
+                }
+            }
+        } catch (LoginException e) {
+            log.error("Could not log in as {} to crawl the reference graph", SUBSERVICE, e);
+            return false;
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService crawlers = Executors.newFixedThreadPool(crawlThreads, runnable -> {
+            Thread thread = new Thread(runnable, "skipton-reference-crawler-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ReferenceIndex built = new ReferenceIndex();
+        try {
+            for (Future<Map<String, Set<String>>> partition : crawlers.invokeAll(tasks)) {
+                partition.get().forEach(built::set);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            log.error("Crawling the reference graph failed, keeping the current graph", e.getCause());
+            return false;
+        } finally {
+            // invokeAll returned, so every partition already ended
+            crawlers.shutdown();
+        }
+        if (stopped) {
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try {
+            index = built;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        dirty.set(true);
+        log.info("Built reference graph of {} references between {} paths from {} partitions in {} ms",
+            built.referenceCount(), built.pathCount(), tasks.size(), System.currentTimeMillis() - start);
+        return true;
+    }
+
+    /**
+     * Writes the graph to {@value #SNAPSHOT_PATH} if it changed since the last snapshot.
+     */
+    void snapshot() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        Calendar taken = Calendar.getInstance();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ResourceResolver resolver = serviceResolver()) {
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+                lock.readLock().lock();
+                try {
+                    index.write(out);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            String parentPath = SNAPSHOT_PATH.substring(0, SNAPSHOT_PATH.lastIndexOf('/'));
+            Resource parent = ResourceUtil.getOrCreateResource(resolver, parentPath, "sling:Folder", "sling:Folder", false);
+            Resource existing = parent.getChild(ResourceUtil.getName(SNAPSHOT_PATH));
+            if (existing != null) {
+                resolver.delete(existing);
+            }
+            Resource file = resolver.create(parent, ResourceUtil.getName(SNAPSHOT_PATH),
+                Collections.singletonMap("jcr:primaryType", "nt:file"));
+            Map<String, Object> content = new HashMap<>();
+            content.put("jcr:primaryType", "nt:resource");
+            content.put("jcr:mimeType", "application/octet-stream");
+            content.put("jcr:lastModified", taken);
+            content.put("jcr:data", new ByteArrayInputStream(bytes.toByteArray()));
+            resolver.create(file, CONTENT_NAME, content);
+            resolver.commit();
+            log.debug("Wrote reference graph snapshot of {} bytes", bytes.size());
+        } catch (LoginException | IOException e) {
+            dirty.set(true);
+            log.error("Could not write the reference graph snapshot", e);
+        }
+    }
+
+    /**
+     * Replaces the graph with the snapshot, unless there is none or it is too old, after
+     * reconciling it with the content changed since it was written.
+     *
+     * @return {@code true} if the snapshot was loaded
+     */
+    boolean load() {
+        try (ResourceResolver resolver = serviceResolver()) {
+            Resource content = resolver.getResource(SNAPSHOT_PATH + "/" + CONTENT_NAME);
+            if (content == null) {
+                log.info("No reference graph snapshot at {}, crawling", SNAPSHOT_PATH);
+                return false;
+            }
+            ValueMap properties = content.getValueMap();
+            Calendar lastModified = properties.get("jcr:lastModified", Calendar.class);
+            if (lastModified == null || System.currentTimeMillis() - lastModified.getTimeInMillis() > maxAgeMillis) {
+                log.info("Reference graph snapshot at {} is older than the maximum age, crawling", SNAPSHOT_PATH);
+                return false;
+            }
+            InputStream data = properties.get("jcr:data", InputStream.class);
+            if (data == null) {
+                return false;
+            }
+            ReferenceIndex loaded;
+            try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(data)))) {
+                loaded = ReferenceIndex.read(in);
+            }
+            int reconciled = reconcile(resolver, loaded, lastModified.getTimeInMillis() - SNAPSHOT_OVERLAP_MILLIS);
+            if (stopped) {
+                return false;
+            }
+            lock.writeLock().lock();
+            try {
+                index = loaded;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Loaded reference graph of {} references between {} paths from {}, reconciling {} changed paths",
+                loaded.referenceCount(), loaded.pathCount(), SNAPSHOT_PATH, reconciled);
+            if (reconciled > 0) {
+                dirty.set(true);
+            }
+            return true;
+        } catch (LoginException | IOException e) {
+            log.warn("Could not load the reference graph snapshot, crawling", e);
+            return false;
+        }
+    }
+
+    /**
+     * Brings a loaded snapshot up to date with the content changed while no graph kept it
+     * current: referencing paths that no longer exist are dropped and pages and fragments
+     * modified since the given time are rescanned. Only the items below the roots are visited,
+     * not the content inside them, except where it is rescanned.
+     *
+     * @return the number of dropped and rescanned paths
+     */
+    private int reconcile(ResourceResolver resolver, ReferenceIndex loaded, long since) {
+        int reconciled = 0;
+        for (String source : loaded.sources()) {
+            if (stopped) {
+                return reconciled;
+            }
+            if (resolver.getResource(source) == null) {
+                loaded.removeBelow(source);
+                reconciled++;
+            }
+        }
+        Deque<Resource> queue = new ArrayDeque<>();
+        for (String root : roots) {
+            Resource resource = resolver.getResource(root);
+            if (resource != null) {
+                queue.add(resource);
+            }
+        }
+        while (!queue.isEmpty() && !stopped) {
+            Resource current = queue.poll();
+            Resource content = current.getChild(CONTENT_NAME);
+            if (content != null && (modifiedSince(current, since) || modifiedSince(content, since))) {
+                String path = current.getPath();
+                loaded.set(path, crawl(resolver, path, false).getOrDefault(path, Collections.emptySet()));
+                reconciled++;
+            }
+            for (Resource child : current.getChildren()) {
+                if (!CONTENT_NAME.equals(child.getName())) {
+                    queue.add(child);
+                }
+            }
+        }
+        return reconciled;
+    }
+
+    /**
+     * Loads or crawls the graph while changes are held back, applies them and writes a
+     * snapshot. The graph only becomes ready once this succeeded; until then queries return
+     * whatever partial graph there is.
+     */
+    private void initialize(boolean useSnapshot) {
+        if (stopped) {
+            return;
+        }
+        synchronized (backlog) {
+            building = true;
+        }
+        boolean current = useSnapshot && load() || build();
+        catchUp();
+        if (current && !stopped) {
+            snapshot();
+            ready = true;
+        }
+    }
+
+    /**
+     * Writes a snapshot of a changed graph, or tries again to load or crawl it if that failed.
+     */
+    private void maintain() {
+        if (stopped) {
+            return;
+        }
+        if (ready) {
+            compact();
+            snapshot();
+        } else {
+            initialize(true);
+        }
+    }
+
+    /**
+     * Reclaims the path ids of removed content once they make up most of the graph.
+     */
+    private void compact() {
+        lock.writeLock().lock();
+        try {
+            int before = index.pathCount();
+            if (index.compact()) {
+                log.debug("Compacted reference graph from {} to {} paths", before, index.pathCount());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the changes that arrived while the graph was loaded or built.
+     */
+    private void catchUp() {
+        while (true) {
+            List<ResourceChange> changes;
+            synchronized (backlog) {
+                if (backlog.isEmpty()) {
+                    building = false;
+                    return;
+                }
+                changes = new ArrayList<>(backlog);
+                backlog.clear();
+            }
+            apply(changes);
+        }
+    }
+
+    private void partition(Resource resource, int depth, List<Callable<Map<String, Set<String>>>> tasks) {
+        String path = resource.getPath();
+        if (depth == 0) {
+            tasks.add(() -> crawlWithServiceResolver(path, true));
+            return;
+        }
+        tasks.add(() -> crawlWithServiceResolver(path, false));
+        for (Resource child : resource.getChildren()) {
+            if (!CONTENT_NAME.equals(child.getName())) {
+                partition(child, depth - 1, tasks);
+            }
+        }
+    }
+
+    private Map<String, Set<String>> crawlWithServiceResolver(String path, boolean deep) throws LoginException {
+        try (ResourceResolver resolver = serviceResolver()) {
+            return crawl(resolver, path, deep);
+        }
+    }
+
+    private ResourceResolver serviceResolver() throws LoginException {
+        return resourceResolverFactory.getServiceResourceResolver(
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE));
+    }
+
+    private static boolean modifiedSince(Resource resource, long since) {
+        ValueMap properties = resource.getValueMap();
+        for (String name : MODIFIED_PROPERTIES) {
+            Calendar modified = properties.get(name, Calendar.class);
+            if (modified != null && modified.getTimeInMillis() > since) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,27 @@
+package com.skipton.core.references;
+
+/**
+ * JMX view of the {@link ReferenceGraph}.
+ */
+public interface ReferenceGraphMBean {
+
+    /**
+     * @return {@code true} once the graph was loaded from its snapshot or built by a crawl
+     */
+    boolean isReady();
+
+    /**
+     * @return the number of interned paths, including ancestors of referencing and referenced paths
+     */
+    int getPathCount();
+
+    /**
+     * @return the number of references between paths
+     */
+    int getReferenceCount();
+
+    /**
+     * Discards the graph and crawls the content roots again in the background.
+     */
+    void rebuild();
+}
@@ -0,0 +1,336 @@
+package com.skipton.core.references;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Forward and reverse adjacency of the reference graph over the ids of a {@link PathTable}.
+ * Every row is a sorted {@code int} array that is replaced, never modified, on update, so a
+ * lookup is a path table probe plus a copy of one row. Not thread-safe; {@link ReferenceGraph}
+ * guards it with a read-write lock.
+ */
+final class ReferenceIndex {
+
+    private static final int MAGIC = 0x534b5247;
+    private static final int VERSION = 1;
+    private static final int[] EMPTY = new int[0];
+
+    private final PathTable paths;
+    private int[][] forward;
+    private int[][] reverse;
+    private int references;
+
+    ReferenceIndex() {
+        this(new PathTable());
+    }
+
+    private ReferenceIndex(PathTable paths) {
+        this.paths = paths;
+        forward = new int[Math.max(16, paths.size())][];
+        reverse = new int[forward.length][];
+    }
+
+    /**
+     * Replaces the references of the source with the given target paths.
+     */
+    void set(String source, Collection<String> targets) {
+        if (targets.isEmpty()) {
+            int id = paths.find(source);
+            if (id != PathTable.MISSING) {
+                setRow(id, EMPTY);
+            }
+            return;
+        }
+        int sourceId = paths.intern(source);
+        int[] ids = new int[targets.size()];
+        int count = 0;
+        for (String target : targets) {
+            int id = paths.intern(target);
+            if (id != sourceId) {
+                ids[count++] = id;
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || ids[unique - 1] != ids[i]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        ensureCapacity();
+        setRow(sourceId, unique == ids.length ? ids : Arrays.copyOf(ids, unique));
+    }
+
+    /**
+     * Drops the references of the path and of every path below it. References to them from
+     * elsewhere are kept.
+     */
+    void removeBelow(String path) {
+        int ancestor = paths.find(path);
+        if (ancestor == PathTable.MISSING) {
+            return;
+        }
+        // Descendants always have larger ids than their ancestors
+        for (int id = ancestor; id < paths.size() && id < forward.length; id++) {
+            if (forward[id] != null && paths.isAtOrBelow(id, ancestor)) {
+                setRow(id, EMPTY);
+            }
+        }
+    }
+
+    /**
+     * @return the paths the given path references
+     */
+    List<String> targets(String path) {
+        return toPaths(row(forward, paths.find(path)));
+    }
+
+    /**
+     * @return the paths referencing the given path directly
+     */
+    List<String> sources(String path) {
+        return toPaths(row(reverse, paths.find(path)));
+    }
+
+    /**
+     * @return the paths referencing the given path directly or through other paths, nearest
+     *         first, at most {@code max} of them
+     */
+    Set<String> dependants(String path, int max) {
+        int start = paths.find(path);
+        if (start == PathTable.MISSING || row(reverse, start).length == 0) {
+            return Collections.emptySet();
+        }
+        Set<String> dependants = new LinkedHashSet<>();
+        BitSet visited = new BitSet(paths.size());
+        visited.set(start);
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        while (head < tail && dependants.size() < max) {
+            for (int source : row(reverse, queue[head++])) {
+                if (!visited.get(source)) {
+                    visited.set(source);
+                    dependants.add(paths.path(source));
+                    if (dependants.size() >= max) {
+                        break;
+                    }
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                    }
+                    queue[tail++] = source;
+                }
+            }
+        }
+        return dependants;
+    }
+
+    /**
+     * @return the paths that reference at least one other path
+     */
+    List<String> sources() {
+        List<String> result = new ArrayList<>();
+        for (int id = 0; id < forward.length && id < paths.size(); id++) {
+            if (forward[id] != null) {
+                result.add(paths.path(id));
+            }
+        }
+        return result;
+    }
+
+    int pathCount() {
+        return paths.size();
+    }
+
+    int referenceCount() {
+        return references;
+    }
+
+    /**
+     * Drops the paths that neither reference nor are referenced anymore once they hold the
+     * majority of the path table, so removed content does not keep its ids until the graph is
+     * next loaded from a snapshot.
+     *
+     * @return {@code true} if the index was compacted
+     */
+    boolean compact() {
+        boolean[] live = paths.withAncestors(linked());
+        int count = 0;
+        for (boolean used : live) {
+            if (used) {
+                count++;
+            }
+        }
+        if (paths.size() - count <= count) {
+            return false;
+        }
+        int[] remap = paths.compact(live);
+        int[][] oldForward = forward;
+        int[][] oldReverse = reverse;
+        forward = new int[Math.max(16, paths.size())][];
+        reverse = new int[forward.length][];
+        for (int id = 0; id < oldForward.length && id < remap.length; id++) {
+            // Rows only hold linked ids and the remapping keeps their order, so they stay sorted
+            if (oldForward[id] != null) {
+                forward[remap[id]] = remap(oldForward[id], remap);
+            }
+            if (oldReverse[id] != null) {
+                reverse[remap[id]] = remap(oldReverse[id], remap);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the index, leaving out paths that neither reference nor are referenced anymore.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        int sources = 0;
+        for (int id = 0; id < forward.length && id < paths.size(); id++) {
+            if (forward[id] != null) {
+                sources++;
+            }
+        }
+        int[] remap = paths.write(out, linked());
+        out.writeInt(sources);
+        for (int id = 0; id < forward.length; id++) {
+            int[] targets = forward[id];
+            if (targets != null) {
+                out.writeInt(remap[id]);
+                out.writeInt(targets.length);
+                for (int target : targets) {
+                    out.writeInt(remap[target]);
+                }
+            }
+        }
+    }
+
+    static ReferenceIndex read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a reference graph snapshot of version " + VERSION);
+        }
+        ReferenceIndex index = new ReferenceIndex(PathTable.read(in));
+        int size = index.paths.size();
+        int sources = in.readInt();
+        for (int i = 0; i < sources; i++) {
+            int source = in.readInt();
+            int[] targets = new int[in.readInt()];
+            for (int j = 0; j < targets.length; j++) {
+                targets[j] = in.readInt();
+                if (targets[j] < 0 || targets[j] >= size || j > 0 && targets[j] <= targets[j - 1]) {
+                    throw new IOException("Corrupt reference row of id " + source);
+                }
+            }
+            if (source < 0 || source >= size) {
+                throw new IOException("Corrupt reference source id " + source);
+            }
+            index.setRow(source, targets);
+        }
+        return index;
+    }
+
+    private void setRow(int source, int[] targets) {
+        int[] previous = row(forward, source);
+        int i = 0;
+        int j = 0;
+        while (i < previous.length || j < targets.length) {
+            if (j == targets.length || i < previous.length && previous[i] < targets[j]) {
+                reverse[previous[i]] = without(reverse[previous[i]], source);
+                references--;
+                i++;
+            } else if (i == previous.length || targets[j] < previous[i]) {
+                reverse[targets[j]] = with(reverse[targets[j]], source);
+                references++;
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        forward[source] = targets.length > 0 ? targets : null;
+    }
+
+    /**
+     * @return which ids reference or are referenced by another path
+     */
+    private boolean[] linked() {
+        boolean[] linked = new boolean[paths.size()];
+        for (int id = 0; id < linked.length && id < forward.length; id++) {
+            linked[id] = forward[id] != null || reverse[id] != null;
+        }
+        return linked;
+    }
+
+    private void ensureCapacity() {
+        if (paths.size() > forward.length) {
+            int capacity = Math.max(paths.size(), forward.length * 2);
+            forward = Arrays.copyOf(forward, capacity);
+            reverse = Arrays.copyOf(reverse, capacity);
+        }
+    }
+
+    private List<String> toPaths(int[] ids) {
+        List<String> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(paths.path(id));
+        }
+        return result;
+    }
+
+    private static int[] row(int[][] rows, int id) {
+        if (id < 0 || id >= rows.length || rows[id] == null) {
+            return EMPTY;
+        }
+        return rows[id];
+    }
+
+    private static int[] remap(int[] row, int[] remap) {
+        int[] result = new int[row.length];
+        for (int i = 0; i < row.length; i++) {
+            result[i] = remap[row[i]];
+        }
+        return result;
+    }
+
+    private static int[] with(int[] row, int value) {
+        if (row == null) {
+            return new int[] { value };
+        }
+        int index = Arrays.binarySearch(row, value);
+        if (index >= 0) {
+            return row;
+        }
+        int insert = -index - 1;
+        int[] result = new int[row.length + 1];
+        System.arraycopy(row, 0, result, 0, insert);
+        result[insert] = value;
+        System.arraycopy(row, insert, result, insert + 1, row.length - insert);
+        return result;
+    }
+
+    private static int[] without(int[] row, int value) {
+        int index = row != null ? Arrays.binarySearch(row, value) : -1;
+        if (index < 0) {
+            return row;
+        }
+        if (row.length == 1) {
+            return null;
+        }
+        int[] result = new int[row.length - 1];
+        System.arraycopy(row, 0, result, 0, index);
+        System.arraycopy(row, index + 1, result, index, row.length - index - 1);
+        return result;
+    }
+}
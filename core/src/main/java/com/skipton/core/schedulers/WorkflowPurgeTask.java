@@ -0,0 +1,293 @@
+package com.skipton.core.schedulers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.skipton.core.workflows.ApprovalStatusCounters;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes or archives completed approval workflow instances older than a configured age.
+ * Instances are walked in path order, which is start date order below each server bucket, and
+ * saved in small batches with a pause in between so authoring sessions are not starved. A run
+ * stops once its time budget is spent and stores the last visited path in
+ * {@value #CHECKPOINT_PATH}; the next run resumes after it and starts over once the whole tree
+ * was walked.
+ */
+@Designate(ocd = WorkflowPurgeTask.Config.class)
+@Component(service = Runnable.class)
+public class WorkflowPurgeTask implements Runnable {
+
+    @ObjectClassDefinition(name = "Skipton - Workflow Purge Task",
+                           description = "Purges or archives completed approval workflow instances in time-boxed batches")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Cron-job expression")
+        String scheduler_expression() default "0 */15 * * * ?";
+
+        @AttributeDefinition(name = "Concurrent task",
+                             description = "Whether or not to schedule this task concurrently")
+        boolean scheduler_concurrent() default false;
+
+        @AttributeDefinition(name = "Maximum age (days)",
+                             description = "Completed instances that ended longer ago are purged")
+        int max_age() default 30;
+
+        @AttributeDefinition(name = "Workflow models",
+                             description = "Models whose instances are purged, all models if empty")
+        String[] model_ids() default { "/var/workflow/models/request_for_activation" };
+
+        @AttributeDefinition(name = "Archive",
+                             description = "Move instances below the archive path instead of deleting them")
+        boolean archive() default false;
+
+        @AttributeDefinition(name = "Batch size",
+                             description = "Number of instances removed per save")
+        int batch_size() default 20;
+
+        @AttributeDefinition(name = "Pause between saves (ms)",
+                             description = "Time to wait after each save")
+        long save_pause() default 250;
+
+        @AttributeDefinition(name = "Time budget (seconds)",
+                             description = "Time after which a run stops and leaves the rest to the next run")
+        long time_budget() default 60;
+    }
+
+    static final String INSTANCES_PATH = "/var/workflow/instances";
+    static final String ARCHIVE_PATH = "/var/skipton/workflow-archive";
+    static final String CHECKPOINT_PATH = "/var/skipton/workflow-purge";
+    static final String CURSOR = "cursor";
+
+    private static final String SUBSERVICE = "workflow-purge";
+    private static final String METADATA_PATH = "data/metaData";
+    private static final Set<String> COMPLETED = new HashSet<>(Arrays.asList("COMPLETED", "ABORTED"));
+
+    private static final Logger log = LoggerFactory.getLogger(WorkflowPurgeTask.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile ApprovalStatusCounters statusCounters;
+
+    private int maxAgeDays;
+    private Set<String> modelIds;
+    private boolean archive;
+    private int batchSize;
+    private long savePause;
+    private long timeBudget;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        maxAgeDays = Math.max(0, config.max_age());
+        modelIds = config.model_ids() != null
+            ? new HashSet<>(Arrays.asList(config.model_ids())) : Collections.emptySet();
+        archive = config.archive();
+        batchSize = Math.max(1, config.batch_size());
+        savePause = Math.max(0L, config.save_pause());
+        timeBudget = TimeUnit.SECONDS.toMillis(Math.max(0L, config.time_budget()));
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        try (ResourceResolver resolver = getServiceResolver()) {
+            Resource instances = resolver.getResource(INSTANCES_PATH);
+            if (instances == null) {
+                return;
+            }
+            Resource checkpoint = ResourceUtil.getOrCreateResource(resolver, CHECKPOINT_PATH,
+                Collections.singletonMap("jcr:primaryType", "nt:unstructured"), null, true);
+
+            Run run = new Run(resolver, checkpoint.getValueMap().get(CURSOR, String.class), start + timeBudget);
+            boolean complete = run.walk(instances);
+            run.flush();
+
+            ModifiableValueMap properties = resolver.getResource(CHECKPOINT_PATH).adaptTo(ModifiableValueMap.class);
+            if (complete) {
+                properties.remove(CURSOR);
+            } else {
+                properties.put(CURSOR, run.cursor);
+            }
+            resolver.commit();
+            log.info("Workflow purge {} {} instances in {} ms, {}", archive ? "archived" : "removed", run.purged,
+                System.currentTimeMillis() - start, complete ? "walk complete" : "resuming after " + run.cursor);
+        } catch (LoginException | PersistenceException e) {
+            log.error("Workflow purge failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Workflow purge was interrupted");
+        }
+    }
+
+    /**
+     * Orders paths the way the walk visits them: segment by segment, each segment by name, and
+     * an ancestor before its descendants. Plain string order differs where a name sorts before
+     * {@code '/'}, e.g. it puts {@code a-b} before {@code a/x}.
+     */
+    static int comparePaths(String first, String second) {
+        String[] firstSegments = first.split("/");
+        String[] secondSegments = second.split("/");
+        for (int i = 0; i < firstSegments.length && i < secondSegments.length; i++) {
+            int order = firstSegments[i].compareTo(secondSegments[i]);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(firstSegments.length, secondSegments.length);
+    }
+
+    private ResourceResolver getServiceResolver() throws LoginException {
+        return resourceResolverFactory.getServiceResourceResolver(
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE));
+    }
+
+    /**
+     * State of one purge run: the resume cursor, the current batch and the deadline.
+     */
+    private final class Run {
+
+        private final ResourceResolver resolver;
+        private final String resumeAfter;
+        private final long deadline;
+        private final long cutoff;
+        private final String cutoffDay;
+        private final List<String> pendingStatuses = new ArrayList<>();
+
+        private String cursor;
+        private int pending;
+        private int purged;
+
+        Run(ResourceResolver resolver, String resumeAfter, long deadline) {
+            this.resolver = resolver;
+            this.resumeAfter = resumeAfter;
+            this.deadline = deadline;
+            this.cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays);
+            Calendar day = Calendar.getInstance();
+            day.setTimeInMillis(cutoff);
+            this.cutoffDay = String.format("%1$tY-%1$tm-%1$td", day);
+            this.cursor = resumeAfter;
+        }
+
+        /**
+         * @return {@code true} if the walk reached the end of the tree within the time budget
+         */
+        boolean walk(Resource parent) throws PersistenceException, InterruptedException {
+            List<Resource> children = new ArrayList<>();
+            parent.getChildren().forEach(children::add);
+            children.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+            for (Resource child : children) {
+                String path = child.getPath();
+                if (resumeAfter != null && comparePaths(path, resumeAfter) <= 0 && !resumeAfter.startsWith(path + "/")) {
+                    continue;
+                }
+                if (isYoungerBucket(child)) {
+                    // Date buckets are named after the start day; later buckets cannot hold old instances
+                    cursor = path;
+                    continue;
+                }
+
+                Resource metaData = child.getChild(METADATA_PATH);
+                if (metaData == null && child.getChild("data") == null) {
+                    if (!walk(child)) {
+                        return false;
+                    }
+                    continue;
+                }
+
+                if (isPurgeable(child)) {
+                    purge(child, metaData);
+                }
+                cursor = path;
+                if (pending >= batchSize) {
+                    flush();
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isYoungerBucket(Resource resource) {
+            String name = resource.getName();
+            return name.length() >= 10 && Character.isDigit(name.charAt(0)) && name.charAt(4) == '-'
+                && name.substring(0, 10).compareTo(cutoffDay) > 0;
+        }
+
+        private boolean isPurgeable(Resource instance) {
+            ValueMap properties = instance.getValueMap();
+            if (!COMPLETED.contains(properties.get("status", String.class))) {
+                return false;
+            }
+            if (!modelIds.isEmpty() && !modelIds.contains(properties.get("modelId", String.class))) {
+                return false;
+            }
+            Calendar endTime = properties.get("endTime", Calendar.class);
+            return endTime != null && endTime.getTimeInMillis() < cutoff;
+        }
+
+        private void purge(Resource instance, Resource metaData) throws PersistenceException {
+            if (metaData != null) {
+                String status = metaData.getValueMap().get("status", String.class);
+                if (status != null) {
+                    pendingStatuses.add(status);
+                }
+            }
+            if (archive) {
+                String parent = ARCHIVE_PATH + instance.getParent().getPath().substring(INSTANCES_PATH.length());
+                ResourceUtil.getOrCreateResource(resolver, parent, "sling:Folder", "sling:Folder", false);
+                resolver.move(instance.getPath(), parent);
+            } else {
+                resolver.delete(instance);
+            }
+            pending++;
+        }
+
+        void flush() throws PersistenceException, InterruptedException {
+            if (pending == 0) {
+                return;
+            }
+            resolver.commit();
+            purged += pending;
+            pending = 0;
+
+            ApprovalStatusCounters counters = statusCounters;
+            if (counters != null) {
+                pendingStatuses.forEach(counters::removed);
+            }
+            pendingStatuses.clear();
+
+            if (savePause > 0) {
+                Thread.sleep(savePause);
+            }
+        }
+    }
+}
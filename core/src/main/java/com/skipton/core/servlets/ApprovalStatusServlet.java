@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.skipton.core.servlets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.skipton.core.workflows.ApprovalStatusCounters;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Serves the number of approval workflows per status from {@link ApprovalStatusCounters},
+ * without reading any workflow instance. Recounting all instances is an administrative
+ * operation of the counters' MBean and not offered here.
+ */
+@Component(service = { Servlet.class })
+@SlingServletResourceTypes(
+        resourceTypes="skipton/components/workflow/payloadlist",
+        methods=HttpConstants.METHOD_GET,
+        selectors="statuses",
+        extensions="json")
+@ServiceDescription("Approval Status Servlet")
+public class ApprovalStatusServlet extends SlingSafeMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Reference
+    private transient ApprovalStatusCounters statusCounters;
+
+    @Override
+    protected void doGet(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(resp.getWriter())) {
+            long total = 0;
+            json.writeStartObject();
+            json.writeObjectFieldStart("counts");
+            for (Map.Entry<String, Long> entry : statusCounters.getCounts().entrySet()) {
+                json.writeNumberField(entry.getKey(), entry.getValue());
+                total += entry.getValue();
+            }
+            json.writeEndObject();
+            json.writeNumberField("total", total);
+            json.writeNumberField("checkpointedAt", statusCounters.getCheckpointedAt());
+            json.writeEndObject();
+        }
+    }
+}
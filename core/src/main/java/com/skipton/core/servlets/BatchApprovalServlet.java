@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.skipton.core.servlets;
+
+import com.adobe.granite.workflow.WorkflowSession;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.skipton.core.workflows.BatchApprovalProcessor;
+import com.skipton.core.workflows.BatchApprovalProcessor.Decision;
+import com.skipton.core.workflows.BatchApprovalProcessor.Result;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies one approval decision to many work items at once, e.g. when a release manager
+ * bulk-approves a package. Work item IDs are passed as repeated {@code item} parameters,
+ * together with {@code decision} and optional {@code comments}. Without a decision, each
+ * item's own decision is read from its workflow data or payload. The response lists the
+ * outcome per item; items that failed do not prevent the others from being saved.
+ */
+@Component(service = { Servlet.class })
+@SlingServletResourceTypes(
+        resourceTypes="skipton/components/workflow/payloadlist",
+        methods=HttpConstants.METHOD_POST,
+        selectors="approvals",
+        extensions="json")
+@ServiceDescription("Batch Approval Servlet")
+public class BatchApprovalServlet extends SlingAllMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String PARAM_ITEM = "item";
+    static final String PARAM_DECISION = "decision";
+    static final String PARAM_COMMENTS = "comments";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Reference
+    private transient BatchApprovalProcessor batchApprovalProcessor;
+
+    @Override
+    protected void doPost(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws ServletException, IOException {
+        final String[] itemIds = req.getParameterValues(PARAM_ITEM);
+        if (itemIds == null || itemIds.length == 0) {
+            resp.sendError(SlingHttpServletResponse.SC_BAD_REQUEST, "No work items given");
+            return;
+        }
+        if (itemIds.length > batchApprovalProcessor.getMaxBatchSize()) {
+            resp.sendError(SlingHttpServletResponse.SC_BAD_REQUEST,
+                "At most " + batchApprovalProcessor.getMaxBatchSize() + " work items per batch");
+            return;
+        }
+        final WorkflowSession workflowSession = req.getResourceResolver().adaptTo(WorkflowSession.class);
+        if (workflowSession == null) {
+            resp.sendError(SlingHttpServletResponse.SC_FORBIDDEN, "No workflow session");
+            return;
+        }
+
+        final String decision = StringUtils.trimToNull(req.getParameter(PARAM_DECISION));
+        final String comments = StringUtils.trimToNull(req.getParameter(PARAM_COMMENTS));
+        final List<Decision> decisions = new ArrayList<>(itemIds.length);
+        for (String itemId : itemIds) {
+            decisions.add(new Decision(itemId, decision, comments, null));
+        }
+
+        final List<Result> results = batchApprovalProcessor.process(workflowSession, req.getResourceResolver(), decisions);
+
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(resp.getWriter())) {
+            int failed = 0;
+            json.writeStartObject();
+            json.writeArrayFieldStart("results");
+            for (Result result : results) {
+                json.writeStartObject();
+                json.writeStringField("workItemId", result.getWorkItemId());
+                if (result.isSuccess()) {
+                    json.writeStringField("status", result.getStatus());
+                } else {
+                    json.writeStringField("error", result.getError());
+                    failed++;
+                }
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeNumberField("processed", results.size() - failed);
+            json.writeNumberField("failed", failed);
+            json.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.skipton.core.servlets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.skipton.core.models.PayloadListModel;
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Writes the payload items of a workflow payload list as JSON. Items are streamed
+ * to the response while they are resolved, the writer is flushed every
+ * {@value #FLUSH_INTERVAL} items. Paging uses the same parameters as the HTML
+ * rendering, the {@code fields} parameter restricts the item properties written,
+ * e.g. {@code payloadlist.payloads.json?fields=path}.
+ */
+@Component(service = { Servlet.class })
+@SlingServletResourceTypes(
+        resourceTypes="skipton/components/workflow/payloadlist",
+        methods=HttpConstants.METHOD_GET,
+        selectors="payloads",
+        extensions="json")
+@ServiceDescription("Workflow Payload List JSON Servlet")
+public class PayloadListJsonServlet extends SlingSafeMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String PARAM_FIELDS = "fields";
+
+    private static final int FLUSH_INTERVAL = 25;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    enum Field {
+        PATH, TITLE, RESOURCETYPE, CATEGORY, LASTMODIFIED;
+
+        static Set<Field> parse(String fields) {
+            if (StringUtils.isBlank(fields)) {
+                return EnumSet.allOf(Field.class);
+            }
+            Set<Field> selected = EnumSet.noneOf(Field.class);
+            Arrays.stream(fields.split(","))
+                .map(field -> field.trim().toUpperCase(Locale.ROOT))
+                .forEach(field -> Arrays.stream(values())
+                    .filter(value -> value.name().equals(field))
+                    .forEach(selected::add));
+            return selected.isEmpty() ? EnumSet.allOf(Field.class) : selected;
+        }
+    }
+
+    @Override
+    protected void doGet(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws ServletException, IOException {
+        final PayloadListModel model = req.adaptTo(PayloadListModel.class);
+        if (model == null) {
+            resp.sendError(SlingHttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        final Set<Field> fields = Field.parse(req.getParameter(PARAM_FIELDS));
+
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(resp.getWriter())) {
+            json.writeStartObject();
+            json.writeStringField("workflowId", model.getWorkflowId());
+            json.writeStringField("payloadPath", model.getPayloadPath());
+            json.writeNumberField("total", model.getPayloadCount());
+            json.writeNumberField("offset", model.getOffset());
+            json.writeNumberField("limit", model.getLimit());
+
+            json.writeArrayFieldStart("items");
+            final int[] written = { 0 };
+            final boolean truncated;
+            try {
+                truncated = model.streamPayloadItems(item -> {
+                    writeItem(json, item, fields);
+                    if (++written[0] % FLUSH_INTERVAL == 0) {
+                        flush(json);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                // The client went away, there is nobody left to write to
+                throw e.getCause();
+            }
+            json.writeEndArray();
+
+            json.writeBooleanField("truncated", truncated);
+            json.writeStringField("nextPageToken", model.getNextPageToken());
+            json.writeEndObject();
+        }
+    }
+
+    private static void writeItem(JsonGenerator json, PayloadItem item, Set<Field> fields) {
+        try {
+            json.writeStartObject();
+            if (fields.contains(Field.PATH)) {
+                json.writeStringField("path", item.getPath());
+            }
+            if (fields.contains(Field.TITLE)) {
+                json.writeStringField("title", item.getTitle());
+            }
+            if (fields.contains(Field.RESOURCETYPE)) {
+                json.writeStringField("resourceType", item.getResourceType());
+            }
+            if (fields.contains(Field.CATEGORY)) {
+                json.writeStringField("category", item.getCategory());
+            }
+            if (fields.contains(Field.LASTMODIFIED) && item.getLastModified() != null) {
+                json.writeStringField("lastModified", item.getLastModified().toInstant().toString());
+            }
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void flush(JsonGenerator json) {
+        try {
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.skipton.core.servlets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.skipton.core.filters.LatencyHistogram;
+import com.skipton.core.filters.RequestLatencyRecorder;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the request latency percentiles recorded by the {@link RequestLatencyRecorder},
+ * in microseconds, one entry per resource type, selector string and extension. Bound to the
+ * administrators-only monitoring resource at {@code /var/skipton/monitoring}.
+ */
+@Component(service = { Servlet.class })
+@SlingServletResourceTypes(
+        resourceTypes=SlowRequestServlet.MONITORING_RESOURCE_TYPE,
+        methods=HttpConstants.METHOD_GET,
+        selectors="latency",
+        extensions="json")
+@ServiceDescription("Request Latency Servlet")
+public class RequestLatencyServlet extends SlingSafeMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Reference
+    private transient RequestLatencyRecorder latencyRecorder;
+
+    @Override
+    protected void doGet(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(resp.getWriter())) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("latencies");
+            for (RequestLatencyRecorder.Latency latency : latencyRecorder.getSnapshots()) {
+                LatencyHistogram.Snapshot snapshot = latency.getSnapshot();
+                json.writeStartObject();
+                json.writeStringField("resourceType", latency.getResourceType());
+                json.writeStringField("selectors", latency.getSelectors());
+                json.writeStringField("extension", latency.getExtension());
+                json.writeNumberField("count", snapshot.getCount());
+                json.writeNumberField("p50", snapshot.getValueAtPercentile(50));
+                json.writeNumberField("p95", snapshot.getValueAtPercentile(95));
+                json.writeNumberField("p99", snapshot.getValueAtPercentile(99));
+                json.writeNumberField("max", snapshot.getMax());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeBooleanField("overflowing", latencyRecorder.isOverflowing());
+            json.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.skipton.core.servlets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.skipton.core.filters.SlowRequestStore;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+
+import javax.jcr.RepositoryException;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves the slow requests captured by the {@link SlowRequestStore} per resource type,
+ * slowest first, with their request progress timelines. A POST by an administrator clears the
+ * store. The servlet is bound to the monitoring resource at {@code /var/skipton/monitoring},
+ * which only administrators can read.
+ */
+@Component(service = { Servlet.class })
+@SlingServletResourceTypes(
+        resourceTypes=SlowRequestServlet.MONITORING_RESOURCE_TYPE,
+        methods={ HttpConstants.METHOD_GET, HttpConstants.METHOD_POST },
+        selectors="slowrequests",
+        extensions="json")
+@ServiceDescription("Slow Request Servlet")
+public class SlowRequestServlet extends SlingAllMethodsServlet {
+
+    static final String MONITORING_RESOURCE_TYPE = "skipton/monitoring";
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ADMINISTRATORS = "administrators";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Reference
+    private transient SlowRequestStore slowRequestStore;
+
+    @Override
+    protected void doGet(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws ServletException, IOException {
+        writeTraces(resp);
+    }
+
+    @Override
+    protected void doPost(final SlingHttpServletRequest req,
+            final SlingHttpServletResponse resp) throws ServletException, IOException {
+        if (!isAdministrator(req.getResourceResolver())) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Only administrators can clear slow requests");
+            return;
+        }
+        slowRequestStore.clear();
+        writeTraces(resp);
+    }
+
+    /**
+     * @return {@code true} for the admin user and members of the administrators group
+     */
+    static boolean isAdministrator(final ResourceResolver resolver) throws ServletException {
+        UserManager userManager = resolver.adaptTo(UserManager.class);
+        String userId = resolver.getUserID();
+        if (userManager == null || userId == null) {
+            return false;
+        }
+        try {
+            Authorizable user = userManager.getAuthorizable(userId);
+            if (user == null || user.isGroup()) {
+                return false;
+            }
+            if (((User) user).isAdmin()) {
+                return true;
+            }
+            Iterator<Group> groups = user.memberOf();
+            while (groups.hasNext()) {
+                if (ADMINISTRATORS.equals(groups.next().getID())) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (RepositoryException e) {
+            throw new ServletException("Could not read the groups of " + userId, e);
+        }
+    }
+
+    private void writeTraces(final SlingHttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(resp.getWriter())) {
+            json.writeStartObject();
+            for (Map.Entry<String, List<SlowRequestStore.Trace>> entry : slowRequestStore.getTraces().entrySet()) {
+                json.writeArrayFieldStart(entry.getKey());
+                for (SlowRequestStore.Trace trace : entry.getValue()) {
+                    json.writeStartObject();
+                    json.writeNumberField("timestamp", trace.getTimestamp());
+                    json.writeStringField("method", trace.getMethod());
+                    json.writeStringField("uri", trace.getUri());
+                    json.writeNumberField("durationUs", trace.getDurationMicros());
+                    json.writeArrayFieldStart("timeline");
+                    for (String line : trace.getTimeline()) {
+                        json.writeString(line);
+                    }
+                    json.writeEndArray();
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+            json.writeEndObject();
+        }
+    }
+}
@@ -1,13 +1,23 @@
 package com.skipton.core.workflows;
 
+import java.util.Calendar;
+import java.util.List;
+
+import com.adobe.granite.workflow.WorkflowException;
 import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.HistoryItem;
 import com.adobe.granite.workflow.exec.WorkItem;
 import com.adobe.granite.workflow.exec.WorkflowProcess;
 import com.adobe.granite.workflow.metadata.MetaDataMap;
+import com.skipton.core.audit.ApprovalAuditLog;
+import com.skipton.core.audit.AuditEvent;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +35,17 @@ public class ApprovalDecisionProcessor implements WorkflowProcess {
     private static final String DECISION_PROPERTY = "decision";
     private static final String COMMENTS_PROPERTY = "comments";
     private static final String PRIORITY_PROPERTY = "priority";
+    private static final String ROUTE_PROPERTY = "route";
+    static final String LAST_APPROVER = "lastApprover";
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile DecisionRoutingTable routingTable;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile ApprovalAuditLog auditLog;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile ApprovalStatusCounters statusCounters;
 
     @Override
     public void execute(WorkItem workItem, WorkflowSession workflowSession, MetaDataMap args) {
@@ -35,7 +56,7 @@ public class ApprovalDecisionProcessor implements WorkflowProcess {
             
             if (resolver == null) {
                 log.error("Could not get ResourceResolver from workflow session");
-                setWorkflowStatus(workItem, "ERROR", "Could not get ResourceResolver");
+                setWorkflowStatus(workItem, "ERROR", null, "Could not get ResourceResolver");
                 return;
             }
 
@@ -58,15 +79,24 @@ public class ApprovalDecisionProcessor implements WorkflowProcess {
 
             if (decision == null || decision.isEmpty()) {
                 log.warn("No approval decision found for workflow item. Setting status to PENDING.");
-                setWorkflowStatus(workItem, "PENDING", "No decision made yet");
+                setWorkflowStatus(workItem, "PENDING", null, "No decision made yet");
                 return;
             }
 
-            // Map dialog decision values to status values
-            String status = mapDecisionToStatus(decision);
+            // Map dialog decision values to status values and follow-up routes
+            DecisionRoutingTable table = routingTable;
+            String status;
+            String route = null;
+            if (table != null) {
+                DecisionRoutingTable.Route decisionRoute = table.route(decision);
+                status = decisionRoute.getStatus();
+                route = decisionRoute.getRoute();
+            } else {
+                status = mapDecisionToStatus(decision);
+            }
             
-            // Set the status and additional information
-            setWorkflowStatus(workItem, status, comments);
+            // Set the status, the branch of the approval status split and additional information
+            setWorkflowStatus(workItem, status, route, comments);
             
             // Store additional metadata
             if (priority != null && !priority.isEmpty()) {
@@ -76,13 +106,45 @@ public class ApprovalDecisionProcessor implements WorkflowProcess {
             log.info("Approval decision processed: decision={}, status={}, comments={}, priority={}", 
                     decision, status, comments, priority);
 
+            ApprovalAuditLog audit = auditLog;
+            if (audit != null) {
+                audit.record(new AuditEvent(System.currentTimeMillis(), workItem.getWorkflow().getId(), payloadPath,
+                        approver(workItem, workflowSession, wfData, resolver), decision, status, comments, priority));
+            }
+
         } catch (Exception e) {
             log.error("Error in ApprovalDecisionProcessor", e);
-            setWorkflowStatus(workItem, "ERROR", "Error processing approval decision: " + e.getMessage());
+            setWorkflowStatus(workItem, "ERROR", null, "Error processing approval decision: " + e.getMessage());
         }
     }
 
-    private String mapDecisionToStatus(String decision) {
+    /**
+     * Finds who made the decision: the {@value #LAST_APPROVER} recorded with it, which is consumed,
+     * or else the user who completed the previous step, the approval dialog. The session user is
+     * only the last resort, as it is the workflow service user.
+     */
+    private static String approver(WorkItem workItem, WorkflowSession workflowSession, MetaDataMap wfData,
+                                   ResourceResolver resolver) {
+        String approver = wfData.get(LAST_APPROVER, String.class);
+        if (approver != null && !approver.isEmpty()) {
+            wfData.remove(LAST_APPROVER);
+            return approver;
+        }
+        try {
+            List<HistoryItem> history = workflowSession.getHistory(workItem.getWorkflow());
+            for (int i = history != null ? history.size() - 1 : -1; i >= 0; i--) {
+                String userId = history.get(i).getUserId();
+                if (userId != null && !userId.isEmpty()) {
+                    return userId;
+                }
+            }
+        } catch (WorkflowException e) {
+            log.warn("Could not read the history of workflow {} to find the approver", workItem.getWorkflow().getId(), e);
+        }
+        return resolver.getUserID();
+    }
+
+    static String mapDecisionToStatus(String decision) {
         if (decision == null) {
             return "PENDING";
         }
@@ -103,9 +165,24 @@ public class ApprovalDecisionProcessor implements WorkflowProcess {
         }
     }
 
-    private void setWorkflowStatus(WorkItem workItem, String status, String comment) {
+    /**
+     * Sets the status and the route the approval status split branches on. Without a configured
+     * follow-up route the split branches on the status itself.
+     */
+    private void setWorkflowStatus(WorkItem workItem, String status, String route, String comment) {
         MetaDataMap wfData = workItem.getWorkflow().getWorkflowData().getMetaDataMap();
+        String previousStatus = wfData.get(STATUS, String.class);
         wfData.put(STATUS, status);
+        wfData.put(ROUTE_PROPERTY, route != null ? route : status);
+        if (!status.equals(previousStatus)) {
+            wfData.put(StaleApprovalDetector.STATUS_CHANGED, Calendar.getInstance());
+            wfData.remove(StaleApprovalDetector.ESCALATED);
+        }
+
+        ApprovalStatusCounters counters = statusCounters;
+        if (counters != null) {
+            counters.transition(previousStatus, status);
+        }
         
         if (comment != null && !comment.isEmpty()) {
             wfData.put("comment", comment);
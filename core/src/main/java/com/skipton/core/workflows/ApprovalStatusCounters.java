@@ -0,0 +1,312 @@
+package com.skipton.core.workflows;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Number of approval workflows per status, kept up to date by the approval processors on
+ * every status transition instead of being queried from {@code /var/workflow/instances}.
+ * Counters are {@link LongAdder}s, so concurrent transitions do not contend. The counts are
+ * checkpointed to {@value #CHECKPOINT_PATH} whenever the scheduler runs this service and they
+ * changed, and are loaded from there on activation. Without a checkpoint, or to correct drift
+ * after a crash between two checkpoints, the counts are rebuilt by walking all instances. A
+ * rebuild requested over JMX as {@code com.skipton:type=ApprovalStatusCounters} runs on the
+ * next scheduled run, so at most one walk runs at a time and never on a request thread.
+ */
+@Designate(ocd = ApprovalStatusCounters.Config.class)
+@Component(
+    service = { ApprovalStatusCounters.class, Runnable.class, DynamicMBean.class },
+    property = "jmx.objectname=com.skipton:type=ApprovalStatusCounters"
+)
+public class ApprovalStatusCounters extends StandardMBean implements ApprovalStatusCountersMBean, Runnable {
+
+    @ObjectClassDefinition(name = "Skipton - Approval Status Counters",
+                           description = "Maintains and checkpoints the number of approval workflows per status")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Checkpoint period (seconds)",
+                             description = "How often changed counts are written to the repository")
+        long scheduler_period() default 60;
+
+        @AttributeDefinition(name = "Concurrent task",
+                             description = "Whether or not to schedule this task concurrently")
+        boolean scheduler_concurrent() default false;
+    }
+
+    static final String CHECKPOINT_PATH = "/var/skipton/approval-status";
+    static final String INSTANCES_PATH = "/var/workflow/instances";
+
+    private static final String SUBSERVICE = "status-counter";
+    private static final String COUNTS = "counts";
+    private static final String CHECKPOINTED_AT = "checkpointedAt";
+    private static final String METADATA_PATH = "data/metaData";
+    private static final String STATUS = "status";
+
+    private static final Map<String, Object> UNSTRUCTURED = Collections.singletonMap("jcr:primaryType", "nt:unstructured");
+
+    private static final Logger log = LoggerFactory.getLogger(ApprovalStatusCounters.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    // Transitions hold the read lock, so a rebuild can swap in its recount without losing any
+    private final ReadWriteLock swap = new ReentrantReadWriteLock();
+    private volatile Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private volatile Map<String, LongAdder> recordedDuringRebuild;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile boolean loaded;
+    private volatile long checkpointedAt;
+
+    public ApprovalStatusCounters() throws NotCompliantMBeanException {
+        super(ApprovalStatusCountersMBean.class);
+    }
+
+    @Activate
+    protected void activate() {
+        try (ResourceResolver resolver = getServiceResolver()) {
+            Resource counts = resolver.getResource(CHECKPOINT_PATH + "/" + COUNTS);
+            if (counts != null) {
+                ValueMap properties = counts.getValueMap();
+                for (String status : properties.keySet()) {
+                    if (!status.startsWith("jcr:")) {
+                        counter(counters, status).add(properties.get(status, 0L));
+                    }
+                }
+                Calendar at = resolver.getResource(CHECKPOINT_PATH).getValueMap().get(CHECKPOINTED_AT, Calendar.class);
+                checkpointedAt = at != null ? at.getTimeInMillis() : 0L;
+                loaded = true;
+            }
+        } catch (LoginException e) {
+            log.error("Could not load approval status checkpoint", e);
+        }
+    }
+
+    /**
+     * Records that a workflow moved from one status to another.
+     *
+     * @param oldStatus the previous status, {@code null} if the workflow had none
+     */
+    public void transition(String oldStatus, String newStatus) {
+        if (newStatus == null || newStatus.equals(oldStatus)) {
+            return;
+        }
+        swap.readLock().lock();
+        try {
+            for (Map<String, LongAdder> target : targets()) {
+                if (oldStatus != null) {
+                    counter(target, oldStatus).decrement();
+                }
+                counter(target, newStatus).increment();
+            }
+        } finally {
+            swap.readLock().unlock();
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Records that a workflow with the given status was purged from the repository.
+     */
+    public void removed(String status) {
+        if (status == null) {
+            return;
+        }
+        swap.readLock().lock();
+        try {
+            for (Map<String, LongAdder> target : targets()) {
+                counter(target, status).decrement();
+            }
+        } finally {
+            swap.readLock().unlock();
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * @return the number of workflows per status, sorted by status
+     */
+    public Map<String, Long> getCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((status, counter) -> counts.put(status, counter.sum()));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    @Override
+    public long getCheckpointedAt() {
+        return checkpointedAt;
+    }
+
+    @Override
+    public boolean isRebuilding() {
+        return rebuilding.get() || rebuildRequested.get();
+    }
+
+    @Override
+    public void rebuild() {
+        rebuildRequested.set(true);
+    }
+
+    /**
+     * Checkpoints changed counts, rebuilding them first if there was no checkpoint to load or
+     * a rebuild was requested.
+     */
+    @Override
+    public void run() {
+        if (!loaded || rebuildRequested.getAndSet(false)) {
+            recount();
+            return;
+        }
+        if (dirty.getAndSet(false)) {
+            try {
+                checkpoint();
+            } catch (LoginException | PersistenceException e) {
+                dirty.set(true);
+                log.warn("Could not checkpoint approval status counts", e);
+            }
+        }
+    }
+
+    /**
+     * Recounts all statuses from the workflow instances and checkpoints the result, unless a
+     * recount is already running. Transitions recorded while the walk is running are added to
+     * the recount; one of an instance the walk had not reached yet is counted twice until the
+     * next rebuild.
+     */
+    void recount() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            log.info("Approval status counts are already being rebuilt");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        swap.writeLock().lock();
+        try {
+            recordedDuringRebuild = new ConcurrentHashMap<>();
+        } finally {
+            swap.writeLock().unlock();
+        }
+        try (ResourceResolver resolver = getServiceResolver()) {
+            Map<String, LongAdder> rebuilt = walk(resolver);
+            swap.writeLock().lock();
+            try {
+                recordedDuringRebuild.forEach((status, delta) -> counter(rebuilt, status).add(delta.sum()));
+                counters = rebuilt;
+            } finally {
+                swap.writeLock().unlock();
+            }
+            loaded = true;
+            dirty.set(false);
+            checkpoint();
+            log.info("Rebuilt approval status counts {} in {} ms", getCounts(), System.currentTimeMillis() - start);
+        } catch (LoginException | PersistenceException e) {
+            log.error("Could not rebuild approval status counts", e);
+        } finally {
+            swap.writeLock().lock();
+            try {
+                recordedDuringRebuild = null;
+            } finally {
+                swap.writeLock().unlock();
+            }
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * @return the number of instances per status below {@value #INSTANCES_PATH}
+     */
+    Map<String, LongAdder> walk(ResourceResolver resolver) {
+        Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+        Resource instances = resolver.getResource(INSTANCES_PATH);
+        if (instances != null) {
+            count(instances, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the status of every instance below the given resource. An instance is recognised by
+     * its metadata child; its own subtree (history, work items) is not walked.
+     */
+    private static void count(Resource resource, Map<String, LongAdder> counts) {
+        for (Resource child : resource.getChildren()) {
+            Resource metaData = child.getChild(METADATA_PATH);
+            if (metaData != null) {
+                String status = metaData.getValueMap().get(STATUS, String.class);
+                if (status != null) {
+                    counter(counts, status).increment();
+                }
+            } else {
+                count(child, counts);
+            }
+        }
+    }
+
+    private void checkpoint() throws LoginException, PersistenceException {
+        try (ResourceResolver resolver = getServiceResolver()) {
+            Resource root = ResourceUtil.getOrCreateResource(resolver, CHECKPOINT_PATH, UNSTRUCTURED, null, false);
+            Resource counts = root.getChild(COUNTS);
+            if (counts != null) {
+                resolver.delete(counts);
+            }
+            Map<String, Object> properties = new HashMap<>(getCounts());
+            properties.put("jcr:primaryType", "nt:unstructured");
+            resolver.create(root, COUNTS, properties);
+
+            Calendar now = Calendar.getInstance();
+            root.adaptTo(ModifiableValueMap.class).put(CHECKPOINTED_AT, now);
+            resolver.commit();
+            checkpointedAt = now.getTimeInMillis();
+        }
+    }
+
+    /**
+     * @return the counters a transition updates: the current ones and, during a rebuild, the
+     *         ones recorded for it. Callers hold the read lock.
+     */
+    private List<Map<String, LongAdder>> targets() {
+        Map<String, LongAdder> recorded = recordedDuringRebuild;
+        return recorded != null ? Arrays.asList(counters, recorded) : Collections.singletonList(counters);
+    }
+
+    private ResourceResolver getServiceResolver() throws LoginException {
+        return resourceResolverFactory.getServiceResourceResolver(
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE));
+    }
+
+    private static LongAdder counter(Map<String, LongAdder> counters, String status) {
+        LongAdder counter = counters.get(status);
+        return counter != null ? counter : counters.computeIfAbsent(status, key -> new LongAdder());
+    }
+}
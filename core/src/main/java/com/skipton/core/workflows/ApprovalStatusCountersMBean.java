@@ -0,0 +1,22 @@
+package com.skipton.core.workflows;
+
+/**
+ * JMX view of the {@link ApprovalStatusCounters}.
+ */
+public interface ApprovalStatusCountersMBean {
+
+    /**
+     * @return when the counts were last written to the repository, 0 if never
+     */
+    long getCheckpointedAt();
+
+    /**
+     * @return {@code true} while a requested rebuild is pending or running
+     */
+    boolean isRebuilding();
+
+    /**
+     * Recounts all workflow instances on the next scheduled run, correcting drifted counts.
+     */
+    void rebuild();
+}
@@ -0,0 +1,339 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.Route;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.metadata.MetaDataMap;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies approval decisions to many work items in one pass. Decisions not given explicitly
+ * are read like {@link ApprovalDecisionProcessor} does, from the workflow data first and then
+ * from the payload, reading every payload only once. Decisions and statuses are written to the
+ * workflow instances' metadata and saved with a single commit, after which every saved work item
+ * is completed so that it continues to the decision step, which records the audit event with
+ * the caller as the approver. A failing item is reported and skipped without affecting the others.
+ * <p>
+ * The single commit covers the decisions only. Each completion is saved by the workflow engine
+ * on its own, so a batch can advance partially: an item that cannot be completed keeps its saved
+ * decision and is reported as not advanced, while the items before and after it are completed.
+ * It can be completed again from the inbox.
+ */
+@Designate(ocd = BatchApprovalProcessor.Config.class)
+@Component(service = BatchApprovalProcessor.class)
+public class BatchApprovalProcessor {
+
+    @ObjectClassDefinition(name = "Skipton - Batch Approval Processor",
+                           description = "Applies approval decisions to many work items with a single save")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Maximum batch size",
+                             description = "Maximum number of work items processed in one batch")
+        int max_batch_size() default 1000;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(BatchApprovalProcessor.class);
+
+    private static final String STATUS = "status";
+    private static final String COMMENT = "comment";
+    private static final String DECISION_PROPERTY = "decision";
+    private static final String COMMENTS_PROPERTY = "comments";
+    private static final String PRIORITY_PROPERTY = "priority";
+    private static final String ROUTE_PROPERTY = "route";
+    private static final String METADATA_PATH = "/data/metaData";
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile DecisionRoutingTable routingTable;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile ApprovalStatusCounters statusCounters;
+
+    private volatile int maxBatchSize = 1000;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        maxBatchSize = Math.max(1, config.max_batch_size());
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Applies the given decisions, saves all successful ones at once and then advances their work
+     * items one by one. Items are not rolled back when advancing another one fails.
+     *
+     * @return one result per decision, in the given order
+     * @throws IllegalArgumentException if there are more decisions than the maximum batch size
+     */
+    public List<Result> process(WorkflowSession workflowSession, ResourceResolver resolver, List<Decision> decisions) {
+        if (decisions.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch of " + decisions.size() + " exceeds the maximum of " + maxBatchSize);
+        }
+
+        List<Result> results = new ArrayList<>(decisions.size());
+        List<Result> prepared = new ArrayList<>(decisions.size());
+        Map<String, ValueMap> payloadContent = new HashMap<>();
+
+        for (Decision decision : decisions) {
+            Result result = prepare(workflowSession, resolver, decision, payloadContent);
+            results.add(result);
+            if (result.isSuccess()) {
+                prepared.add(result);
+            }
+        }
+
+        List<Result> pending = write(resolver, prepared);
+        if (!pending.isEmpty()) {
+            try {
+                resolver.commit();
+                countTransitions(pending);
+                advance(workflowSession, pending);
+            } catch (PersistenceException e) {
+                log.error("Could not save batch of {} approval decisions", pending.size(), e);
+                resolver.revert();
+                for (Result result : pending) {
+                    result.fail("Save failed: " + e.getMessage());
+                }
+            }
+        }
+        log.info("Processed batch of {} approval decisions, {} saved", decisions.size(),
+            results.stream().filter(Result::isSuccess).count());
+        return results;
+    }
+
+    /**
+     * Reads everything needed for one decision without changing the repository, so a failing
+     * item leaves nothing behind that the batch commit could pick up.
+     */
+    private Result prepare(WorkflowSession workflowSession, ResourceResolver resolver, Decision decision,
+                           Map<String, ValueMap> payloadContent) {
+        Result result = new Result(decision.getWorkItemId());
+        try {
+            WorkItem workItem = workflowSession.getWorkItem(decision.getWorkItemId());
+            if (workItem == null) {
+                return result.fail("Work item not found");
+            }
+
+            result.metaDataPath = workItem.getWorkflow().getId() + METADATA_PATH;
+            Resource metaDataResource = resolver.getResource(result.metaDataPath);
+            if (metaDataResource == null || metaDataResource.adaptTo(ModifiableValueMap.class) == null) {
+                return result.fail("Workflow metadata is not writable");
+            }
+
+            String value = decision.getDecision();
+            String comments = decision.getComments();
+            String priority = decision.getPriority();
+            if (value == null) {
+                MetaDataMap wfData = workItem.getWorkflow().getWorkflowData().getMetaDataMap();
+                value = wfData.get(DECISION_PROPERTY, String.class);
+                comments = wfData.get(COMMENTS_PROPERTY, String.class);
+                priority = wfData.get(PRIORITY_PROPERTY, String.class);
+            }
+            if (value == null) {
+                String payloadPath = workItem.getWorkflowData().getPayload().toString();
+                ValueMap content = payloadContent.computeIfAbsent(payloadPath, path -> readContent(resolver, path));
+                value = content.get(DECISION_PROPERTY, String.class);
+                comments = content.get(COMMENTS_PROPERTY, String.class);
+                priority = content.get(PRIORITY_PROPERTY, String.class);
+            }
+            if (value == null || value.isEmpty()) {
+                return result.fail("No approval decision found");
+            }
+
+            List<Route> routes = workflowSession.getRoutes(workItem, false);
+            if (routes == null || routes.isEmpty()) {
+                return result.fail("Work item has no route to advance on");
+            }
+
+            String status;
+            String route = null;
+            DecisionRoutingTable table = routingTable;
+            if (table != null) {
+                DecisionRoutingTable.Route decisionRoute = table.route(value);
+                status = decisionRoute.getStatus();
+                route = decisionRoute.getRoute();
+            } else {
+                status = ApprovalDecisionProcessor.mapDecisionToStatus(value);
+            }
+
+            result.workItem = workItem;
+            result.route = routes.get(0);
+            result.previousStatus = metaDataResource.getValueMap().get(STATUS, String.class);
+            result.changes.put(DECISION_PROPERTY, value);
+            result.changes.put(STATUS, status);
+            if (!status.equals(result.previousStatus)) {
+                result.changes.put(StaleApprovalDetector.STATUS_CHANGED, Calendar.getInstance());
+            }
+            result.changes.put(ROUTE_PROPERTY, route != null ? route : status);
+            if (resolver.getUserID() != null) {
+                result.changes.put(ApprovalDecisionProcessor.LAST_APPROVER, resolver.getUserID());
+            }
+            if (comments != null && !comments.isEmpty()) {
+                result.changes.put(COMMENTS_PROPERTY, comments);
+                result.changes.put(COMMENT, comments);
+            }
+            if (priority != null && !priority.isEmpty()) {
+                result.changes.put(PRIORITY_PROPERTY, priority);
+            }
+            return result.succeed(status);
+
+        } catch (WorkflowException | RuntimeException e) {
+            log.warn("Could not apply approval decision to work item {}", decision.getWorkItemId(), e);
+            return result.fail(message(e));
+        }
+    }
+
+    /**
+     * Writes the prepared changes. A failing item may leave part of its changes behind, so if any
+     * item fails all pending changes are reverted and the remaining items are written again.
+     *
+     * @return the items whose changes are pending in the resolver
+     */
+    private List<Result> write(ResourceResolver resolver, List<Result> prepared) {
+        List<Result> pending = prepared;
+        while (true) {
+            List<Result> written = new ArrayList<>(pending.size());
+            for (Result result : pending) {
+                try {
+                    write(resolver, result);
+                    written.add(result);
+                } catch (RuntimeException e) {
+                    log.warn("Could not write approval decision of work item {}", result.getWorkItemId(), e);
+                    result.fail(message(e));
+                }
+            }
+            // Every pass either writes all items or drops at least one, so this ends
+            if (written.size() == pending.size()) {
+                return written;
+            }
+            resolver.revert();
+            pending = written;
+        }
+    }
+
+    private static void write(ResourceResolver resolver, Result result) {
+        Resource metaDataResource = resolver.getResource(result.metaDataPath);
+        ModifiableValueMap metaData = metaDataResource != null ? metaDataResource.adaptTo(ModifiableValueMap.class) : null;
+        if (metaData == null) {
+            throw new IllegalStateException("Workflow metadata is not writable");
+        }
+        metaData.putAll(result.changes);
+        if (result.changes.containsKey(StaleApprovalDetector.STATUS_CHANGED)) {
+            metaData.remove(StaleApprovalDetector.ESCALATED);
+        }
+    }
+
+    /**
+     * Completes the saved work items so that they continue to the decision step, as they would
+     * after the approval dialog.
+     */
+    private void advance(WorkflowSession workflowSession, List<Result> saved) {
+        for (Result result : saved) {
+            try {
+                workflowSession.complete(result.workItem, result.route);
+            } catch (WorkflowException | RuntimeException e) {
+                log.warn("Saved approval decision of work item {} but could not advance it", result.getWorkItemId(), e);
+                result.fail("Saved, but could not advance: " + message(e));
+            }
+        }
+    }
+
+    private void countTransitions(List<Result> saved) {
+        ApprovalStatusCounters counters = statusCounters;
+        if (counters == null) {
+            return;
+        }
+        for (Result result : saved) {
+            counters.transition(result.previousStatus, result.status);
+        }
+    }
+
+    private static String message(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    private static ValueMap readContent(ResourceResolver resolver, String payloadPath) {
+        Resource content = resolver.getResource(payloadPath + "/jcr:content");
+        return content != null ? content.getValueMap() : ValueMap.EMPTY;
+    }
+
+    /**
+     * A decision for one work item. A {@code null} decision is read from the workflow data or payload.
+     */
+    public static final class Decision {
+        private final String workItemId;
+        private final String decision;
+        private final String comments;
+        private final String priority;
+
+        public Decision(String workItemId, String decision, String comments, String priority) {
+            this.workItemId = workItemId;
+            this.decision = decision;
+            this.comments = comments;
+            this.priority = priority;
+        }
+
+        public String getWorkItemId() { return workItemId; }
+        public String getDecision() { return decision; }
+        public String getComments() { return comments; }
+        public String getPriority() { return priority; }
+    }
+
+    /**
+     * Outcome for one work item: the status written, or the reason it failed.
+     */
+    public static final class Result {
+        private final String workItemId;
+        private String status;
+        private String error;
+        private String previousStatus;
+        private String metaDataPath;
+        private WorkItem workItem;
+        private Route route;
+        private final Map<String, Object> changes = new HashMap<>();
+
+        Result(String workItemId) {
+            this.workItemId = workItemId;
+        }
+
+        Result succeed(String status) {
+            this.status = status;
+            return this;
+        }
+
+        Result fail(String error) {
+            this.status = null;
+            this.error = error;
+            return this;
+        }
+
+        public String getWorkItemId() { return workItemId; }
+        public String getStatus() { return status; }
+        public String getError() { return error; }
+        public boolean isSuccess() { return error == null; }
+    }
+}
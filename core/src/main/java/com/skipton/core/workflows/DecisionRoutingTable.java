@@ -0,0 +1,255 @@
+package com.skipton.core.workflows;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps raw approval dialog decisions to workflow statuses and optional follow-up routes.
+ * The configured mappings are compiled into an open-addressing table with a case-insensitive
+ * hash, so a lookup neither upper-cases nor otherwise allocates. A configuration change
+ * compiles a new table and swaps it in atomically. Decisions without a mapping resolve to
+ * the default status and are counted; the counts are exposed over JMX as
+ * {@code com.skipton:type=DecisionRoutingTable}.
+ */
+@Designate(ocd = DecisionRoutingTable.Config.class)
+@Component(
+    service = { DecisionRoutingTable.class, DynamicMBean.class },
+    property = "jmx.objectname=com.skipton:type=DecisionRoutingTable"
+)
+public class DecisionRoutingTable extends StandardMBean implements DecisionRoutingTableMBean {
+
+    @ObjectClassDefinition(name = "Skipton - Decision Routing Table",
+                           description = "Maps approval dialog decisions to workflow statuses and follow-up routes")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Mappings",
+                             description = "Entries of the form decision=STATUS or decision=STATUS|route, decisions are case-insensitive. "
+                                           + "The approval status split branches on the route, which defaults to the status")
+        String[] mappings() default {
+            "approved=APPROVED", "approve=APPROVED",
+            "denied=DENIED", "reject=DENIED",
+            "request_changes=REQUEST_CHANGES", "request changes=REQUEST_CHANGES"
+        };
+
+        @AttributeDefinition(name = "Default status",
+                             description = "Status for decisions without a mapping")
+        String default_status() default "PENDING";
+    }
+
+    private static final int MAX_TRACKED_UNMAPPED = 100;
+
+    private static final String[] COLUMNS = { "decision", "count" };
+    private static final CompositeType ROW_TYPE;
+    private static final TabularType TABLE_TYPE;
+
+    static {
+        try {
+            ROW_TYPE = new CompositeType("UnmappedDecision", "Lookups of a decision without mapping", COLUMNS, COLUMNS,
+                new OpenType<?>[] { SimpleType.STRING, SimpleType.LONG });
+            TABLE_TYPE = new TabularType("UnmappedDecisions", "Lookups per unmapped decision", ROW_TYPE,
+                new String[] { "decision" });
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(DecisionRoutingTable.class);
+
+    private volatile Table table = Table.compile(new String[0], "PENDING");
+
+    private final LongAdder unmapped = new LongAdder();
+    private final Map<String, LongAdder> unmappedByValue = new ConcurrentHashMap<>();
+
+    public DecisionRoutingTable() throws NotCompliantMBeanException {
+        super(DecisionRoutingTableMBean.class);
+    }
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        table = Table.compile(config.mappings(), config.default_status());
+        log.info("Decision routing table compiled with {} mappings", table.size);
+    }
+
+    /**
+     * @return the route of the given decision, the default route if it is not mapped
+     */
+    public Route route(String decision) {
+        Table current = table;
+        Route route = current.get(decision);
+        if (route != null) {
+            return route;
+        }
+
+        unmapped.increment();
+        if (decision != null) {
+            LongAdder counter = unmappedByValue.get(decision);
+            if (counter == null && unmappedByValue.size() < MAX_TRACKED_UNMAPPED) {
+                counter = unmappedByValue.computeIfAbsent(decision, value -> new LongAdder());
+            }
+            if (counter != null) {
+                counter.increment();
+            }
+        }
+        log.warn("Unknown decision value: {}. Defaulting to {}.", decision, current.defaultRoute.getStatus());
+        return current.defaultRoute;
+    }
+
+    @Override
+    public int getMappingCount() {
+        return table.size;
+    }
+
+    @Override
+    public long getUnmappedCount() {
+        return unmapped.sum();
+    }
+
+    /**
+     * @return unmapped decision values seen so far with their counts, limited to the first {@value #MAX_TRACKED_UNMAPPED} values
+     */
+    public Map<String, Long> getUnmappedValues() {
+        Map<String, Long> values = new TreeMap<>();
+        unmappedByValue.forEach((value, counter) -> values.put(value, counter.sum()));
+        return Collections.unmodifiableMap(values);
+    }
+
+    @Override
+    public TabularData getUnmappedDecisions() {
+        TabularDataSupport rows = new TabularDataSupport(TABLE_TYPE);
+        try {
+            for (Map.Entry<String, Long> entry : getUnmappedValues().entrySet()) {
+                rows.put(new CompositeDataSupport(ROW_TYPE, COLUMNS, new Object[] { entry.getKey(), entry.getValue() }));
+            }
+        } catch (OpenDataException e) {
+            log.error("Could not convert unmapped decisions to open data", e);
+        }
+        return rows;
+    }
+
+    @Override
+    public void resetUnmapped() {
+        unmapped.reset();
+        unmappedByValue.clear();
+    }
+
+    /**
+     * Status and optional follow-up route of a decision.
+     */
+    public static final class Route {
+        private final String status;
+        private final String route;
+
+        Route(String status, String route) {
+            this.status = status;
+            this.route = route;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the branch the approval status split follows, or {@code null} to branch on the status
+         */
+        public String getRoute() {
+            return route;
+        }
+    }
+
+    /**
+     * Immutable open-addressing table keyed by decision, compared ignoring case.
+     */
+    private static final class Table {
+        private final String[] keys;
+        private final Route[] routes;
+        private final int size;
+        private final Route defaultRoute;
+
+        private Table(String[] keys, Route[] routes, int size, Route defaultRoute) {
+            this.keys = keys;
+            this.routes = routes;
+            this.size = size;
+            this.defaultRoute = defaultRoute;
+        }
+
+        static Table compile(String[] mappings, String defaultStatus) {
+            int capacity = Integer.highestOneBit(Math.max(4, mappings.length * 2 - 1)) << 1;
+            String[] keys = new String[capacity];
+            Route[] routes = new Route[capacity];
+            int size = 0;
+            for (String mapping : mappings) {
+                int separator = mapping != null ? mapping.indexOf('=') : -1;
+                if (separator <= 0 || separator == mapping.length() - 1) {
+                    log.warn("Ignoring invalid decision mapping: {}", mapping);
+                    continue;
+                }
+                String decision = mapping.substring(0, separator).trim();
+                String target = mapping.substring(separator + 1).trim();
+                int routeSeparator = target.indexOf('|');
+                Route route = routeSeparator < 0
+                    ? new Route(target, null)
+                    : new Route(target.substring(0, routeSeparator).trim(), target.substring(routeSeparator + 1).trim());
+
+                int index = indexOf(keys, decision);
+                if (keys[index] == null) {
+                    keys[index] = decision;
+                    size++;
+                }
+                routes[index] = route;
+            }
+            return new Table(keys, routes, size, new Route(defaultStatus, null));
+        }
+
+        Route get(String decision) {
+            if (decision == null) {
+                return null;
+            }
+            return routes[indexOf(keys, decision)];
+        }
+
+        /**
+         * @return the slot holding the decision, or the empty slot where it belongs
+         */
+        private static int indexOf(String[] keys, String decision) {
+            int mask = keys.length - 1;
+            int index = hash(decision) & mask;
+            while (keys[index] != null && !keys[index].equalsIgnoreCase(decision)) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private static int hash(String value) {
+            int hash = 0;
+            for (int i = 0; i < value.length(); i++) {
+                hash = 31 * hash + Character.toUpperCase(value.charAt(i));
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
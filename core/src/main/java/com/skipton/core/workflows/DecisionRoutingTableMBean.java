@@ -0,0 +1,29 @@
+package com.skipton.core.workflows;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * JMX view of the {@link DecisionRoutingTable}.
+ */
+public interface DecisionRoutingTableMBean {
+
+    /**
+     * @return the number of configured decisions
+     */
+    int getMappingCount();
+
+    /**
+     * @return the number of lookups that fell back to the default status
+     */
+    long getUnmappedCount();
+
+    /**
+     * @return one row per tracked unmapped decision value with the number of lookups
+     */
+    TabularData getUnmappedDecisions();
+
+    /**
+     * Clears the unmapped counters.
+     */
+    void resetUnmapped();
+}
@@ -0,0 +1,220 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+/**
+ * Compiled workspace filter of a content package. Filter roots are kept in a path
+ * segment trie so that only the filter sets rooted at an ancestor of a path are
+ * considered, and include/exclude patterns are compiled once.
+ * Rules follow the vault semantics: the first filter set in definition order whose root
+ * covers a path decides alone; within it the last matching rule wins, and a filter set
+ * whose first rule is an include excludes everything not matched by any rule. The covered
+ * resources are listed by one traversal of the outermost roots.
+ * Instances are immutable and thread-safe.
+ */
+public final class PackageFilter {
+
+    private final List<FilterSet> filterSets;
+    private final List<String> roots;
+    private final List<String> outermostRoots;
+    private final TrieNode trie = new TrieNode();
+
+    PackageFilter(List<FilterSet> filterSets) {
+        this.filterSets = Collections.unmodifiableList(new ArrayList<>(filterSets));
+        LinkedHashSet<String> distinctRoots = new LinkedHashSet<>();
+        for (int i = 0; i < filterSets.size(); i++) {
+            FilterSet filterSet = filterSets.get(i);
+            distinctRoots.add(filterSet.root);
+            TrieNode node = trie.insert(filterSet.root);
+            if (node.filterSet == null) {
+                node.filterSet = filterSet;
+                node.order = i;
+            }
+        }
+        this.roots = Collections.unmodifiableList(new ArrayList<>(distinctRoots));
+        this.outermostRoots = outermost(roots);
+    }
+
+    /**
+     * @return the distinct filter roots in definition order
+     */
+    public List<String> getRoots() {
+        return roots;
+    }
+
+    public List<FilterSet> getFilterSets() {
+        return filterSets;
+    }
+
+    /**
+     * @return {@code true} if the first filter set covering the given path includes it
+     */
+    public boolean contains(String path) {
+        if (path == null || !path.startsWith("/")) {
+            return false;
+        }
+
+        TrieNode node = trie;
+        TrieNode covering = node.filterSet != null ? node : null;
+        int start = 1;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                node = node.children.get(path.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                if (node.filterSet != null && (covering == null || node.order < covering.order)) {
+                    covering = node;
+                }
+            }
+            start = end + 1;
+        }
+        return covering != null && covering.filterSet.contains(path);
+    }
+
+    /**
+     * Lists the resources covered by the package with a single traversal guided by the filter
+     * roots: only the subtrees of the outermost roots are read, each resource once, depth-first
+     * in child order. Nodes with a namespaced name such as {@code jcr:content} belong to their
+     * item and are neither listed nor descended into.
+     *
+     * @param limit the number of covered paths at which to stop traversing
+     * @return the covered paths in traversal order
+     */
+    public List<String> listCovered(ResourceResolver resourceResolver, int limit) {
+        List<String> covered = new ArrayList<>();
+        for (String root : outermostRoots) {
+            Resource resource = resourceResolver.getResource(root);
+            if (resource != null && !listCovered(resource, covered, limit)) {
+                break;
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * @return {@code false} once the limit is reached
+     */
+    private boolean listCovered(Resource resource, List<String> covered, int limit) {
+        if (contains(resource.getPath())) {
+            if (covered.size() >= limit) {
+                return false;
+            }
+            covered.add(resource.getPath());
+        }
+        for (Resource child : resource.getChildren()) {
+            if (child.getName().indexOf(':') < 0 && !listCovered(child, covered, limit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> outermost(List<String> roots) {
+        List<String> outermost = new ArrayList<>();
+        for (String root : roots) {
+            boolean nested = false;
+            for (String other : roots) {
+                if (!other.equals(root) && isAncestor(other, root)) {
+                    nested = true;
+                    break;
+                }
+            }
+            if (!nested) {
+                outermost.add(root);
+            }
+        }
+        return Collections.unmodifiableList(outermost);
+    }
+
+    private static boolean isAncestor(String ancestor, String path) {
+        return "/".equals(ancestor) || path.startsWith(ancestor) && path.charAt(ancestor.length()) == '/';
+    }
+
+    /**
+     * One filter root with its ordered include/exclude rules.
+     */
+    public static final class FilterSet {
+        private final String root;
+        private final List<Rule> rules;
+
+        FilterSet(String root, List<Rule> rules) {
+            this.root = root;
+            this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        }
+
+        public String getRoot() {
+            return root;
+        }
+
+        public List<Rule> getRules() {
+            return rules;
+        }
+
+        /**
+         * @return {@code true} if the rules include the given path, which must be at or below the root
+         */
+        boolean contains(String path) {
+            if (rules.isEmpty()) {
+                return true;
+            }
+            boolean included = !rules.get(0).include;
+            for (Rule rule : rules) {
+                if (rule.pattern.matcher(path).matches()) {
+                    included = rule.include;
+                }
+            }
+            return included;
+        }
+    }
+
+    /**
+     * A compiled include or exclude rule.
+     */
+    public static final class Rule {
+        private final boolean include;
+        private final Pattern pattern;
+
+        Rule(boolean include, Pattern pattern) {
+            this.include = include;
+            this.pattern = pattern;
+        }
+
+        public boolean isInclude() {
+            return include;
+        }
+
+        public String getPattern() {
+            return pattern.pattern();
+        }
+    }
+
+    private static final class TrieNode {
+        private final Map<String, TrieNode> children = new HashMap<>();
+        private FilterSet filterSet;
+        private int order;
+
+        TrieNode insert(String path) {
+            TrieNode node = this;
+            for (String segment : path.split("/")) {
+                if (!segment.isEmpty()) {
+                    node = node.children.computeIfAbsent(segment, name -> new TrieNode());
+                }
+            }
+            return node;
+        }
+    }
+}
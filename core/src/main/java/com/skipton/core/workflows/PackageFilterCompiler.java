@@ -0,0 +1,158 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles the workspace filter of a workflow package into a {@link PackageFilter}.
+ * Compiled filters are cached per package path and last modification, so a changed
+ * package is compiled again on its next use.
+ */
+@Designate(ocd = PackageFilterCompiler.Config.class)
+@Component(service = PackageFilterCompiler.class)
+public class PackageFilterCompiler {
+
+    @ObjectClassDefinition(name = "Skipton - Package Filter Compiler",
+                           description = "Compiles and caches the filters of workflow packages")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Maximum cached filters",
+                             description = "Number of compiled package filters kept before the least recently used is evicted")
+        int max_entries() default 200;
+    }
+
+    private static final String[] DEFINITION_PATHS = {"jcr:content/vlt:definition", "definition"};
+
+    private static final Logger log = LoggerFactory.getLogger(PackageFilterCompiler.class);
+
+    private final Map<String, PackageFilter> filters = new LinkedHashMap<String, PackageFilter>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PackageFilter> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private volatile int maxEntries = 200;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        maxEntries = Math.max(1, config.max_entries());
+        synchronized (filters) {
+            filters.clear();
+        }
+    }
+
+    /**
+     * @return the compiled filter of the package, or {@code null} if the package has no filter definition
+     */
+    public PackageFilter getFilter(ResourceResolver resourceResolver, String packagePath) {
+        Resource packageResource = resourceResolver.getResource(packagePath);
+        if (packageResource == null) {
+            log.warn("Package does not exist at path: {}", packagePath);
+            return null;
+        }
+
+        String key = packagePath + '@' + getLastModified(packageResource);
+        synchronized (filters) {
+            PackageFilter filter = filters.get(key);
+            if (filter != null) {
+                return filter;
+            }
+        }
+
+        PackageFilter filter = compile(packageResource);
+        if (filter != null) {
+            synchronized (filters) {
+                filters.put(key, filter);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Reads and compiles the filter definition below the given package.
+     *
+     * @return the compiled filter, or {@code null} if the package has no filter definition
+     */
+    public static PackageFilter compile(Resource packageResource) {
+        Resource filterResource = null;
+        for (String definitionPath : DEFINITION_PATHS) {
+            filterResource = packageResource.getChild(definitionPath + "/filter");
+            if (filterResource != null) {
+                break;
+            }
+        }
+        if (filterResource == null) {
+            log.warn("No filter definition found in package: {}", packageResource.getPath());
+            return null;
+        }
+
+        List<PackageFilter.FilterSet> filterSets = new ArrayList<>();
+        for (Resource filterSet : filterResource.getChildren()) {
+            String root = filterSet.getValueMap().get("root", String.class);
+            if (root == null || root.isEmpty()) {
+                continue;
+            }
+            filterSets.add(new PackageFilter.FilterSet(root, compileRules(filterSet.getChild("rules"))));
+        }
+        log.debug("Compiled {} filter sets of package: {}", filterSets.size(), packageResource.getPath());
+        return new PackageFilter(filterSets);
+    }
+
+    private static List<PackageFilter.Rule> compileRules(Resource rulesResource) {
+        List<PackageFilter.Rule> rules = new ArrayList<>();
+        if (rulesResource == null) {
+            return rules;
+        }
+        for (Resource ruleResource : rulesResource.getChildren()) {
+            ValueMap properties = ruleResource.getValueMap();
+            String pattern = properties.get("pattern", String.class);
+            if (pattern == null || pattern.isEmpty()) {
+                continue;
+            }
+            try {
+                rules.add(new PackageFilter.Rule(!"exclude".equals(properties.get("type", "include")), Pattern.compile(pattern)));
+            } catch (PatternSyntaxException e) {
+                log.warn("Ignoring invalid filter pattern {} at {}", pattern, ruleResource.getPath());
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * @return the latest of {@code jcr:lastModified} and {@code cq:lastModified} of the package content, or 0
+     */
+    public static long getLastModified(Resource packageResource) {
+        Resource packageContent = packageResource.getChild("jcr:content");
+        if (packageContent == null) {
+            return 0L;
+        }
+        ValueMap properties = packageContent.getValueMap();
+        long lastModified = 0L;
+        for (String name : new String[] {"jcr:lastModified", "cq:lastModified"}) {
+            Calendar value = properties.get(name, Calendar.class);
+            if (value != null) {
+                lastModified = Math.max(lastModified, value.getTimeInMillis());
+            }
+        }
+        return lastModified;
+    }
+}
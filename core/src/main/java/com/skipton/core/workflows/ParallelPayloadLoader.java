@@ -0,0 +1,227 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves payload roots into {@link PayloadItem}s, fanning large root lists out
+ * across a bounded thread pool. Every task works with its own service resource
+ * resolver, the result keeps the order of the given roots and a failing root
+ * only drops that root's items. Items read by the service user are only returned
+ * if the caller's resolver can read them too. When the pool's queue is full, tasks
+ * run on the calling thread; chunks still pending at the timeout mark the
+ * expansion as truncated. Tasks are never interrupted, as that could close the
+ * repository's file channels under a read: at the timeout or on deactivation the
+ * expansion is expired instead, and running tasks stop at their next check.
+ */
+@Designate(ocd = ParallelPayloadLoader.Config.class)
+@Component(service = ParallelPayloadLoader.class)
+public class ParallelPayloadLoader {
+
+    @ObjectClassDefinition(name = "Skipton - Parallel Payload Loader",
+                           description = "Resolves workflow package filter roots in parallel")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Pool size",
+                             description = "Number of threads resolving payload roots")
+        int pool_size() default 4;
+
+        @AttributeDefinition(name = "Parallel threshold",
+                             description = "Minimum number of payload roots before resolution is done in parallel")
+        int parallel_threshold() default 50;
+
+        @AttributeDefinition(name = "Queue size",
+                             description = "Maximum number of tasks waiting for a thread, further tasks run on the calling thread")
+        int queue_size() default 32;
+
+        @AttributeDefinition(name = "Timeout (seconds)",
+                             description = "Maximum time to wait for all parallel tasks of one load")
+        int timeout_seconds() default 30;
+    }
+
+    private static final String SUBSERVICE = "payload-reader";
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelPayloadLoader.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private volatile ExecutorService executor;
+    private final Set<PayloadExpansion> running = ConcurrentHashMap.newKeySet();
+    private int poolSize;
+    private int parallelThreshold;
+    private long timeoutMillis;
+
+    @Activate
+    protected void activate(final Config config) {
+        poolSize = Math.max(1, config.pool_size());
+        parallelThreshold = Math.max(1, config.parallel_threshold());
+        timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.timeout_seconds()));
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, config.queue_size())), runnable -> {
+                Thread thread = new Thread(runnable, "skipton-payload-loader-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, (task, pool) -> {
+                // Caller-runs, but refuse once shut down instead of silently dropping the task
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("Payload loader is shut down");
+                }
+                task.run();
+            });
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        ExecutorService current = executor;
+        executor = null;
+        if (current == null) {
+            return;
+        }
+        running.forEach(PayloadExpansion::expire);
+        current.shutdown();
+        try {
+            if (!current.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("Payload loader tasks still running after deactivation");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Resolves the given payload roots in order, expanding folders to their immediate children.
+     */
+    public List<PayloadItem> load(List<String> roots, ResourceResolver callerResolver) {
+        return load(roots, callerResolver, PayloadExpansion.shallow());
+    }
+
+    /**
+     * Resolves the given payload roots in order. Small lists are resolved on the calling
+     * thread with the caller's resolver. All tasks share the given expansion budget, which
+     * is marked truncated if chunks are still pending at the timeout.
+     */
+    public List<PayloadItem> load(List<String> roots, ResourceResolver callerResolver, PayloadExpansion expansion) {
+        ExecutorService pool = executor;
+        if (roots.size() < parallelThreshold || pool == null) {
+            return loadSequential(roots, callerResolver, expansion);
+        }
+
+        running.add(expansion);
+        try {
+            return loadParallel(pool, roots, callerResolver, expansion);
+        } finally {
+            running.remove(expansion);
+        }
+    }
+
+    private List<PayloadItem> loadParallel(ExecutorService pool, List<String> roots, ResourceResolver callerResolver,
+                                           PayloadExpansion expansion) {
+        List<List<String>> chunks = partition(roots, poolSize * 2);
+        List<Future<List<PayloadItem>>> futures = new ArrayList<>(chunks.size());
+        try {
+            for (List<String> chunk : chunks) {
+                futures.add(pool.submit(() -> loadWithServiceResolver(chunk, expansion)));
+            }
+        } catch (RejectedExecutionException e) {
+            log.debug("Payload loader is shutting down, resolving on the calling thread");
+            futures.forEach(future -> future.cancel(false));
+            return loadSequential(roots, callerResolver, expansion);
+        }
+
+        List<PayloadItem> items = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                items.addAll(futures.get(i).get(remaining, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                expansion.expire();
+                futures.forEach(future -> future.cancel(false));
+                break;
+            } catch (ExecutionException e) {
+                // The service resolver could not be opened, resolve the chunk as the caller
+                log.warn("Parallel payload resolution failed, falling back to caller resolver", e.getCause());
+                items.addAll(loadSequential(chunks.get(i), callerResolver, expansion));
+            } catch (TimeoutException e) {
+                log.warn("Timed out resolving {} payload roots starting at {}", chunks.get(i).size(), chunks.get(i).get(0));
+                expansion.expire();
+                futures.get(i).cancel(false);
+            }
+        }
+        log.debug("Resolved {} payload items from {} roots in {} parallel tasks", items.size(), roots.size(), chunks.size());
+        return readableBy(callerResolver, items);
+    }
+
+    /**
+     * Drops the items the caller cannot read. This costs one lookup per item, far less than
+     * resolving the items as the caller in the first place.
+     */
+    private static List<PayloadItem> readableBy(ResourceResolver callerResolver, List<PayloadItem> items) {
+        List<PayloadItem> readable = new ArrayList<>(items.size());
+        for (PayloadItem item : items) {
+            if (callerResolver.getResource(item.getPath()) != null) {
+                readable.add(item);
+            }
+        }
+        if (readable.size() < items.size()) {
+            log.debug("Dropped {} payload items not readable by the caller", items.size() - readable.size());
+        }
+        return readable;
+    }
+
+    private List<PayloadItem> loadWithServiceResolver(List<String> roots, PayloadExpansion expansion) throws LoginException {
+        try (ResourceResolver serviceResolver = resourceResolverFactory.getServiceResourceResolver(serviceUser())) {
+            return loadSequential(roots, serviceResolver, expansion);
+        }
+    }
+
+    private static List<PayloadItem> loadSequential(List<String> roots, ResourceResolver resolver, PayloadExpansion expansion) {
+        List<PayloadItem> items = new ArrayList<>();
+        new PayloadItemResolver(resolver, items::add, expansion).resolveAll(roots);
+        return items;
+    }
+
+    private static List<List<String>> partition(List<String> roots, int chunkCount) {
+        int chunkSize = (roots.size() + chunkCount - 1) / chunkCount;
+        List<List<String>> chunks = new ArrayList<>(chunkCount);
+        for (int start = 0; start < roots.size(); start += chunkSize) {
+            chunks.add(roots.subList(start, Math.min(start + chunkSize, roots.size())));
+        }
+        return chunks;
+    }
+
+    private static Map<String, Object> serviceUser() {
+        return Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
+    }
+}
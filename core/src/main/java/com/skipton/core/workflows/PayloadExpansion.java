@@ -0,0 +1,148 @@
+package com.skipton.core.workflows;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Expansion mode and budget for folder and page-tree payloads. A deep expansion walks
+ * the tree breadth-first and stops at the maximum depth, the maximum number of items
+ * or the time budget, whichever comes first, and remembers that it was truncated.
+ * One instance is shared by all tasks resolving the same request and is thread-safe.
+ */
+public final class PayloadExpansion {
+
+    private final boolean deep;
+    private final int maxDepth;
+    private final int maxItems;
+    private final long deadlineNanos;
+    private final AtomicInteger items = new AtomicInteger();
+    private final AtomicBoolean exhausted = new AtomicBoolean();
+    private final AtomicBoolean truncated = new AtomicBoolean();
+    private volatile boolean timedOut;
+    private volatile Predicate<String> scope = path -> true;
+
+    private PayloadExpansion(boolean deep, int maxDepth, int maxItems, long timeBudgetMillis) {
+        this.deep = deep;
+        this.maxDepth = maxDepth;
+        this.maxItems = maxItems;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+    }
+
+    /**
+     * Immediate children of folders only, no budget.
+     */
+    public static PayloadExpansion shallow() {
+        return new PayloadExpansion(false, 1, Integer.MAX_VALUE, TimeUnit.DAYS.toMillis(1));
+    }
+
+    /**
+     * The given paths only, for payloads whose items are listed one by one, such as the
+     * resources covered by a package filter.
+     */
+    public static PayloadExpansion none() {
+        return new PayloadExpansion(false, 0, Integer.MAX_VALUE, TimeUnit.DAYS.toMillis(1));
+    }
+
+    /**
+     * Breadth-first expansion of folders and page trees within the given budget.
+     */
+    public static PayloadExpansion deep(int maxDepth, int maxItems, long timeBudgetMillis) {
+        return new PayloadExpansion(true, Math.max(1, maxDepth), Math.max(1, maxItems), Math.max(1L, timeBudgetMillis));
+    }
+
+    /**
+     * Restricts the items produced to the paths accepted by the given scope, e.g. the
+     * paths covered by a package filter.
+     *
+     * @return this expansion
+     */
+    public PayloadExpansion within(Predicate<String> scope) {
+        this.scope = scope;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if the given path is within the scope of this expansion
+     */
+    public boolean isInScope(String path) {
+        return scope.test(path);
+    }
+
+    public boolean isDeep() {
+        return deep;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Claims one expanded item from the budget.
+     *
+     * @return {@code false} once the item count or time budget is exhausted
+     */
+    public boolean tryAcquire() {
+        if (exhausted.get()) {
+            return false;
+        }
+        if (!hasTimeLeft() || items.incrementAndGet() > maxItems) {
+            exhausted.set(true);
+            truncated.set(true);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks the time budget without claiming an item, so traversals that find nothing to
+     * emit still stop in time.
+     *
+     * @return {@code false} once the time budget is exhausted, marking the expansion truncated
+     */
+    public boolean hasTimeLeft() {
+        if (timedOut || System.nanoTime() - deadlineNanos > 0) {
+            expire();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the expansion as cut short at its depth. Other branches keep expanding.
+     */
+    public void truncate() {
+        truncated.set(true);
+    }
+
+    /**
+     * Marks the expansion as cut short by time, e.g. because its tasks timed out.
+     */
+    public void expire() {
+        timedOut = true;
+        exhausted.set(true);
+        truncated.set(true);
+    }
+
+    /**
+     * @return {@code true} if the depth, item or time budget cut the expansion short
+     */
+    public boolean isTruncated() {
+        return truncated.get();
+    }
+
+    /**
+     * @return {@code true} if the expansion was cut short by time, so its result depends on timing
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return a key identifying the expansion settings, used to cache expanded pages
+     */
+    public String getKey() {
+        return deep ? "deep-" + maxDepth + "-" + maxItems : maxDepth == 0 ? "none" : "shallow";
+    }
+}
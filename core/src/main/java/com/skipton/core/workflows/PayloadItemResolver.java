@@ -0,0 +1,290 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.wcm.api.Page;
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves workflow payload paths into {@link PayloadItem}s and hands them to a sink
+ * as soon as they are discovered. Folders and page trees are expanded according to
+ * the given {@link PayloadExpansion}. Item metadata is read in batches by the
+ * {@link PayloadMetadataLoader}, falling back to the {@code Page} and {@code Asset}
+ * APIs for single resources it cannot read. Only items within the expansion's scope are
+ * emitted, but pages and folders outside it, roots included, are still expanded, since a
+ * package filter may include items below a path it excludes.
+ * Instances are bound to one resource resolver and must not be shared between threads.
+ */
+public class PayloadItemResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(PayloadItemResolver.class);
+
+    private final ResourceResolver resourceResolver;
+    private final Consumer<PayloadItem> sink;
+    private final PayloadExpansion expansion;
+
+    public PayloadItemResolver(ResourceResolver resourceResolver, Consumer<PayloadItem> sink) {
+        this(resourceResolver, sink, PayloadExpansion.shallow());
+    }
+
+    public PayloadItemResolver(ResourceResolver resourceResolver, Consumer<PayloadItem> sink, PayloadExpansion expansion) {
+        this.resourceResolver = resourceResolver;
+        this.sink = sink;
+        this.expansion = expansion;
+    }
+
+    /**
+     * Resolves the given payload paths in order, reading their metadata in one batch.
+     * A path failing to resolve is logged and skipped.
+     */
+    public void resolveAll(Collection<String> payloadPaths) {
+        List<String> paths = new ArrayList<>(payloadPaths.size());
+        for (String payloadPath : payloadPaths) {
+            if (payloadPath != null) {
+                paths.add(payloadPath);
+            }
+        }
+        Map<String, PayloadItem> items = new PayloadMetadataLoader(resourceResolver).load(paths);
+
+        for (String payloadPath : paths) {
+            if (Thread.currentThread().isInterrupted() || expansion.isTimedOut()) {
+                break;
+            }
+            try {
+                PayloadItem item = items.get(payloadPath);
+                boolean inScope = expansion.isInScope(payloadPath);
+                if (item == null) {
+                    resolve(payloadPath);
+                } else if ("Page".equals(item.getCategory())) {
+                    emitIf(inScope, item);
+                    if (expansion.isDeep()) {
+                        expand(resourceResolver.getResource(payloadPath));
+                    }
+                } else if ("Folder".equals(item.getCategory())) {
+                    emitIf(inScope, item);
+                    expandFolder(resourceResolver.getResource(payloadPath));
+                } else {
+                    emitIf(inScope, item);
+                }
+            } catch (RuntimeException e) {
+                log.error("Error loading payload item from path: " + payloadPath, e);
+            }
+        }
+    }
+
+    /**
+     * Resolves a single payload path through the {@code Page} and {@code Asset} APIs.
+     */
+    public void resolve(String payloadPath) {
+        if (payloadPath == null || payloadPath.isEmpty()) {
+            log.warn("No payload path provided");
+            return;
+        }
+        Resource payloadResource = resourceResolver.getResource(payloadPath);
+        if (payloadResource == null) {
+            log.warn("Could not find resource at payload path: {}", payloadPath);
+            return;
+        }
+
+        // Excluded pages and folders are not listed, but may contain included items
+        boolean inScope = expansion.isInScope(payloadPath);
+        if (payloadResource.isResourceType("cq:Page")) {
+            if (inScope) {
+                resolvePage(payloadResource);
+            }
+            if (expansion.isDeep()) {
+                expand(payloadResource);
+            }
+        } else if (isFolder(payloadResource)) {
+            if (inScope) {
+                resolveFolder(payloadResource);
+            } else {
+                expandFolder(payloadResource);
+            }
+        } else if (!inScope) {
+            log.debug("Payload path {} is excluded by the package filter", payloadPath);
+        } else if (payloadResource.isResourceType("dam:Asset")) {
+            resolveAsset(payloadResource);
+        } else {
+            // Generic resource
+            resolveGeneric(payloadResource);
+        }
+    }
+
+    /**
+     * Breadth-first expansion below a page or folder, bounded by the expansion budget. Pages
+     * and folders at the maximum depth that have expandable children mark the expansion
+     * truncated.
+     */
+    private void expand(Resource root) {
+        Deque<Resource> queue = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        queue.add(root);
+        depths.add(0);
+
+        while (!queue.isEmpty()) {
+            if (!expansion.hasTimeLeft()) {
+                log.debug("Expansion time budget exhausted below {}", root.getPath());
+                return;
+            }
+            Resource parent = queue.poll();
+            int depth = depths.poll();
+            if (depth >= expansion.getMaxDepth()) {
+                if (hasExpandableChild(parent)) {
+                    expansion.truncate();
+                }
+                continue;
+            }
+
+            for (Resource child : parent.getChildren()) {
+                boolean page = child.isResourceType("cq:Page");
+                boolean folder = !page && isFolder(child);
+                if (!page && !folder && !child.isResourceType("dam:Asset")) {
+                    continue;
+                }
+                if (!expansion.isInScope(child.getPath())) {
+                    // Excluded children may still have included descendants
+                    if (page || folder) {
+                        queue.add(child);
+                        depths.add(depth + 1);
+                    }
+                    continue;
+                }
+                if (!expansion.tryAcquire()) {
+                    log.debug("Expansion budget exhausted below {}", root.getPath());
+                    return;
+                }
+
+                emit(child);
+                if (page || folder) {
+                    queue.add(child);
+                    depths.add(depth + 1);
+                }
+            }
+        }
+    }
+
+    private static boolean hasExpandableChild(Resource resource) {
+        for (Resource child : resource.getChildren()) {
+            if (child.isResourceType("cq:Page") || child.isResourceType("dam:Asset") || isFolder(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Emits the item of a resource found while traversing, reading its properties directly.
+     */
+    private void emit(Resource resource) {
+        PayloadItem item = PayloadMetadataLoader.read(resource);
+        if (item != null) {
+            sink.accept(item);
+        } else if (resource.isResourceType("cq:Page")) {
+            resolvePage(resource);
+        } else if (resource.isResourceType("dam:Asset")) {
+            resolveAsset(resource);
+        }
+    }
+
+    private void emitIf(boolean inScope, PayloadItem item) {
+        if (inScope) {
+            sink.accept(item);
+        }
+    }
+
+    private static boolean isFolder(Resource resource) {
+        return resource.isResourceType("sling:Folder") || resource.isResourceType("sling:OrderedFolder");
+    }
+
+    private void resolvePage(Resource pageResource) {
+        Page page = pageResource.adaptTo(Page.class);
+        if (page != null) {
+            sink.accept(new PayloadItem(
+                page.getPath(),
+                page.getTitle() != null ? page.getTitle() : page.getName(),
+                "cq:Page",
+                "Page",
+                page.getLastModified()
+            ));
+        }
+    }
+
+    private void resolveAsset(Resource assetResource) {
+        Asset asset = assetResource.adaptTo(Asset.class);
+        if (asset != null) {
+            String title = asset.getMetadataValue("dc:title");
+            if (title == null || title.isEmpty()) {
+                title = asset.getName();
+            }
+
+            sink.accept(new PayloadItem(
+                asset.getPath(),
+                title,
+                "dam:Asset",
+                asset.getMimeType(),
+                calendar(asset.getLastModified())
+            ));
+        }
+    }
+
+    private void resolveFolder(Resource folderResource) {
+        sink.accept(new PayloadItem(
+            folderResource.getPath(),
+            folderResource.getName(),
+            folderResource.getResourceType(),
+            "Folder"
+        ));
+        expandFolder(folderResource);
+    }
+
+    private void expandFolder(Resource folderResource) {
+        if (expansion.getMaxDepth() == 0) {
+            return;
+        }
+        if (expansion.isDeep()) {
+            expand(folderResource);
+            return;
+        }
+
+        // Load immediate children
+        for (Resource child : folderResource.getChildren()) {
+            if (!expansion.isInScope(child.getPath())) {
+                continue;
+            }
+            if (child.isResourceType("dam:Asset") || child.isResourceType("cq:Page")) {
+                emit(child);
+            }
+        }
+    }
+
+    private static Calendar calendar(long millis) {
+        if (millis <= 0) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    private void resolveGeneric(Resource resource) {
+        sink.accept(new PayloadItem(
+            resource.getPath(),
+            resource.getName(),
+            resource.getResourceType(),
+            "Resource"
+        ));
+    }
+}
@@ -0,0 +1,259 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.skipton.core.listeners.ChangeHandler;
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache of resolved workflow payload lists, keyed by workflow ID, the ID of the
+ * user they were resolved for and the package's last modification. Lists are resolved under
+ * the user's ACLs, so one user's entry is never served to another. Every entry is indexed by the paths it covers so that
+ * a resource change at, above or below one of those paths evicts it.
+ */
+@Designate(ocd = PayloadListCache.Config.class)
+@Component(service = { PayloadListCache.class, ChangeHandler.class })
+public class PayloadListCache implements ChangeHandler {
+
+    @ObjectClassDefinition(name = "Skipton - Payload List Cache",
+                           description = "Caches resolved workflow payload lists for the approval dialog")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Enabled")
+        boolean enabled() default true;
+
+        @AttributeDefinition(name = "Maximum entries",
+                             description = "Number of workflow payload lists kept before the least recently used is evicted")
+        int max_entries() default 100;
+
+        @AttributeDefinition(name = "Maximum pages per entry",
+                             description = "Number of resolved pages kept per workflow payload list")
+        int max_pages() default 16;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PayloadListCache.class);
+
+    private final Object lock = new Object();
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final NavigableMap<String, Set<String>> keysByPath = new TreeMap<>();
+
+    private volatile boolean enabled = true;
+    private volatile int maxEntries = 100;
+    private volatile int maxPages = 16;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        enabled = config.enabled();
+        maxEntries = Math.max(1, config.max_entries());
+        maxPages = Math.max(1, config.max_pages());
+        clear();
+    }
+
+    /**
+     * @return the cached entry, or {@code null} on a miss or if the cache is disabled
+     */
+    public Entry get(String workflowId, String userId, long lastModified) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (lock) {
+            return entries.get(key(workflowId, userId, lastModified));
+        }
+    }
+
+    /**
+     * Caches the payload roots of a workflow as read by the given user. The roots only depend
+     * on the package definition, whose modification is part of the key.
+     *
+     * @return the entry to attach pages resolved for the same user to
+     */
+    public Entry put(String workflowId, String userId, long lastModified, String payloadPath, List<String> roots) {
+        String key = key(workflowId, userId, lastModified);
+        Entry entry = new Entry(key, payloadPath, roots);
+        if (!enabled) {
+            return entry;
+        }
+
+        synchronized (lock) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(entry);
+            while (entries.size() > maxEntries) {
+                Entry eldest = entries.values().iterator().next();
+                entries.remove(eldest.key);
+                unindex(eldest);
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void handle(List<ResourceChange> changes) {
+        changes.forEach(change -> invalidate(change.getPath()));
+    }
+
+    /**
+     * Evicts every entry covering the given path, one of its ancestors or one of its descendants.
+     */
+    public void invalidate(String path) {
+        if (path == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            Set<String> keys = new HashSet<>();
+            // Covered paths at or above the changed path
+            for (String current = path; !current.isEmpty(); current = parentOf(current)) {
+                Set<String> covered = keysByPath.get(current);
+                if (covered != null) {
+                    keys.addAll(covered);
+                }
+            }
+            // Covered paths below the changed path
+            String prefix = "/".equals(path) ? "/" : path + "/";
+            keysByPath.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values().forEach(keys::addAll);
+
+            for (String key : keys) {
+                Entry entry = entries.remove(key);
+                if (entry != null) {
+                    unindex(entry);
+                }
+            }
+            if (!keys.isEmpty()) {
+                log.debug("Invalidated {} payload lists after change at {}", keys.size(), path);
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.values().forEach(entry -> entry.invalidated = true);
+            entries.clear();
+            keysByPath.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    private void index(Entry entry) {
+        keysByPath.computeIfAbsent(entry.payloadPath, path -> new HashSet<>()).add(entry.key);
+        for (String root : entry.roots) {
+            keysByPath.computeIfAbsent(root, path -> new HashSet<>()).add(entry.key);
+        }
+    }
+
+    private void unindex(Entry entry) {
+        entry.invalidated = true;
+        removeKey(entry.payloadPath, entry.key);
+        for (String root : entry.roots) {
+            removeKey(root, entry.key);
+        }
+    }
+
+    private void removeKey(String path, String key) {
+        Set<String> keys = keysByPath.get(path);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            keysByPath.remove(path);
+        }
+    }
+
+    private static String key(String workflowId, String userId, long lastModified) {
+        return workflowId + '@' + lastModified + '/' + userId;
+    }
+
+    private static String parentOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index > 0 ? path.substring(0, index) : (index == 0 && path.length() > 1 ? "/" : "");
+    }
+
+    /**
+     * Cached payload roots of one workflow plus the pages resolved from them so far.
+     */
+    public final class Entry {
+        private final String key;
+        private final String payloadPath;
+        private final List<String> roots;
+        private volatile boolean invalidated;
+        private volatile List<String> covered;
+        private final Map<String, List<PayloadItem>> pages = new LinkedHashMap<String, List<PayloadItem>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<PayloadItem>> eldest) {
+                return size() > maxPages;
+            }
+        };
+
+        private Entry(String key, String payloadPath, List<String> roots) {
+            this.key = key;
+            this.payloadPath = payloadPath;
+            this.roots = Collections.unmodifiableList(new ArrayList<>(roots));
+        }
+
+        public List<String> getRoots() {
+            return roots;
+        }
+
+        /**
+         * @return the resources covered by the package filter as listed for this entry, or
+         *         {@code null} if they were not listed yet
+         */
+        public List<String> getCovered() {
+            return covered;
+        }
+
+        /**
+         * Stores the covered resources unless this entry was invalidated or evicted meanwhile.
+         */
+        public void putCovered(List<String> paths) {
+            if (!invalidated) {
+                covered = Collections.unmodifiableList(new ArrayList<>(paths));
+            }
+        }
+
+        public List<PayloadItem> getPage(String pageKey) {
+            synchronized (pages) {
+                return pages.get(pageKey);
+            }
+        }
+
+        /**
+         * Stores a resolved page unless this entry was invalidated or evicted meanwhile,
+         * in which case the page may have been resolved from stale content.
+         */
+        public void putPage(String pageKey, List<PayloadItem> items) {
+            if (invalidated) {
+                return;
+            }
+            synchronized (pages) {
+                pages.put(pageKey, Collections.unmodifiableList(new ArrayList<>(items)));
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.skipton.core.workflows;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.metrics.Timer;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Timers and counters of the payload list, registered with the Sling {@link MetricsService}
+ * and therefore visible in JMX under the {@code skipton.payloadlist} prefix.
+ * All metrics are created at activation, recording only updates them and does not allocate.
+ */
+@Component(service = PayloadListMetrics.class)
+public class PayloadListMetrics {
+
+    static final String PREFIX = "skipton.payloadlist.";
+
+    /**
+     * The ways the payload list discovers the workflow it belongs to, in the order they are tried.
+     */
+    public enum Discovery {
+        ATTRIBUTE, PARAMETER, SUFFIX, SESSION;
+
+        String metricName() {
+            return PREFIX + "discovery." + name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    @Reference
+    private MetricsService metricsService;
+
+    private Timer[] discoveryTimers;
+    private Counter[] discoveryHits;
+    private Counter[] discoveryMisses;
+    private Timer packageParseTimer;
+    private Counter itemsLoaded;
+    private Counter fallbacks;
+
+    @Activate
+    protected void activate() {
+        Discovery[] discoveries = Discovery.values();
+        discoveryTimers = new Timer[discoveries.length];
+        discoveryHits = new Counter[discoveries.length];
+        discoveryMisses = new Counter[discoveries.length];
+        for (Discovery discovery : discoveries) {
+            discoveryTimers[discovery.ordinal()] = metricsService.timer(discovery.metricName() + ".time");
+            discoveryHits[discovery.ordinal()] = metricsService.counter(discovery.metricName() + ".hit");
+            discoveryMisses[discovery.ordinal()] = metricsService.counter(discovery.metricName() + ".miss");
+        }
+        packageParseTimer = metricsService.timer(PREFIX + "package.parse.time");
+        itemsLoaded = metricsService.counter(PREFIX + "items.loaded");
+        fallbacks = metricsService.counter(PREFIX + "fallback");
+    }
+
+    /**
+     * Records one attempt of a discovery method that started at {@code startNanos}.
+     */
+    public void discovery(Discovery discovery, long startNanos, boolean hit) {
+        int index = discovery.ordinal();
+        discoveryTimers[index].update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        (hit ? discoveryHits : discoveryMisses)[index].increment();
+    }
+
+    /**
+     * Records reading the filter roots of a package that started at {@code startNanos}.
+     */
+    public void packageParsed(long startNanos) {
+        packageParseTimer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void itemsLoaded(int count) {
+        itemsLoaded.increment(count);
+    }
+
+    public void fallback() {
+        fallbacks.increment();
+    }
+}
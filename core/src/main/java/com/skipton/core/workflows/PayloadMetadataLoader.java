@@ -0,0 +1,127 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+
+/**
+ * Reads title, mime type, resource type and last modification of payload items straight
+ * from the content properties, without adapting every resource to {@code Page} or
+ * {@code Asset}. Paths are grouped by parent: each parent is resolved once and its requested
+ * children are looked up by name, so the cost does not depend on how many siblings they have.
+ * Resources whose properties are incomplete are left out of the result, callers resolve
+ * those one by one through the {@code Page} and {@code Asset} APIs instead.
+ */
+public final class PayloadMetadataLoader {
+
+    private final ResourceResolver resourceResolver;
+
+    public PayloadMetadataLoader(ResourceResolver resourceResolver) {
+        this.resourceResolver = resourceResolver;
+    }
+
+    /**
+     * @return the payload items found for the given paths, keyed by path
+     */
+    public Map<String, PayloadItem> load(Collection<String> paths) {
+        Map<String, List<String>> namesByParent = new LinkedHashMap<>();
+        for (String path : paths) {
+            int index = path != null ? path.lastIndexOf('/') : -1;
+            if (index <= 0 || index == path.length() - 1) {
+                continue;
+            }
+            namesByParent.computeIfAbsent(path.substring(0, index), parent -> new ArrayList<>())
+                .add(path.substring(index + 1));
+        }
+
+        Map<String, PayloadItem> items = new HashMap<>();
+        for (Map.Entry<String, List<String>> group : namesByParent.entrySet()) {
+            Resource parent = resourceResolver.getResource(group.getKey());
+            if (parent == null) {
+                continue;
+            }
+            for (String name : group.getValue()) {
+                Resource child = parent.getChild(name);
+                if (child != null) {
+                    add(items, child);
+                }
+            }
+        }
+        return items;
+    }
+
+    private static void add(Map<String, PayloadItem> items, Resource resource) {
+        PayloadItem item = read(resource);
+        if (item != null) {
+            items.put(item.getPath(), item);
+        }
+    }
+
+    /**
+     * @return the payload item of the given resource, or {@code null} if its properties are incomplete
+     */
+    public static PayloadItem read(Resource resource) {
+        if (resource.isResourceType("cq:Page")) {
+            return readPage(resource);
+        } else if (resource.isResourceType("dam:Asset")) {
+            return readAsset(resource);
+        } else if (resource.isResourceType("sling:Folder") || resource.isResourceType("sling:OrderedFolder")) {
+            return new PayloadItem(resource.getPath(), resource.getName(), resource.getResourceType(), "Folder");
+        }
+        return new PayloadItem(resource.getPath(), resource.getName(), resource.getResourceType(), "Resource");
+    }
+
+    private static PayloadItem readPage(Resource pageResource) {
+        Resource content = pageResource.getChild("jcr:content");
+        if (content == null) {
+            return null;
+        }
+        ValueMap properties = content.getValueMap();
+        return new PayloadItem(
+            pageResource.getPath(),
+            properties.get("jcr:title", pageResource.getName()),
+            "cq:Page",
+            "Page",
+            lastModified(properties)
+        );
+    }
+
+    private static PayloadItem readAsset(Resource assetResource) {
+        Resource content = assetResource.getChild("jcr:content");
+        Resource metadata = content != null ? content.getChild("metadata") : null;
+        if (metadata == null) {
+            return null;
+        }
+        ValueMap properties = metadata.getValueMap();
+        String mimeType = properties.get("dc:format", String.class);
+        if (mimeType == null) {
+            // Not extracted yet, only the original rendition knows
+            return null;
+        }
+        String title = properties.get("dc:title", String.class);
+        if (title == null || title.isEmpty()) {
+            title = assetResource.getName();
+        }
+        return new PayloadItem(
+            assetResource.getPath(),
+            title,
+            "dam:Asset",
+            mimeType,
+            lastModified(content.getValueMap())
+        );
+    }
+
+    private static Calendar lastModified(ValueMap properties) {
+        Calendar lastModified = properties.get("cq:lastModified", Calendar.class);
+        return lastModified != null ? lastModified : properties.get("jcr:lastModified", Calendar.class);
+    }
+}
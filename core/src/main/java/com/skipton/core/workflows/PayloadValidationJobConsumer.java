@@ -0,0 +1,122 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates one chunk of payload items enqueued by {@link PayloadValidationProcess} and stores
+ * the issues found as a child of the batch resource. Jobs are distributed across the cluster by
+ * Sling; a job that cannot store its result fails and is retried.
+ */
+@Designate(ocd = PayloadValidationJobConsumer.Config.class)
+@Component(
+    service = JobConsumer.class,
+    property = JobConsumer.PROPERTY_TOPICS + "=" + PayloadValidationJobConsumer.TOPIC
+)
+public class PayloadValidationJobConsumer implements JobConsumer {
+
+    @ObjectClassDefinition(name = "Skipton - Payload Validation Job Consumer",
+                           description = "Checks payload items for broken references, missing renditions and oversized binaries")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Required renditions",
+                             description = "Renditions every asset in a payload must have")
+        String[] required_renditions() default { "original", "cq5dam.thumbnail.140.100.png" };
+
+        @AttributeDefinition(name = "Maximum binary size",
+                             description = "Largest original asset binary in bytes, 0 to disable the check")
+        long max_binary_size() default 52428800L;
+
+        @AttributeDefinition(name = "Maximum scanned resources",
+                             description = "Maximum number of resources below jcr:content checked for references per item")
+        int max_scanned_resources() default 500;
+    }
+
+    public static final String TOPIC = "skipton/workflow/payload-validation";
+
+    static final String BATCH_ID = "batchId";
+    static final String CHUNK = "chunk";
+    static final String PATHS = "paths";
+    static final String CHECKED = "checked";
+    static final String ISSUES = "issues";
+
+    static final String SUBSERVICE = "payload-validator";
+
+    private static final Logger log = LoggerFactory.getLogger(PayloadValidationJobConsumer.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private volatile PayloadValidator validator = new PayloadValidator(new String[0], 0L, 500);
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        validator = new PayloadValidator(config.required_renditions(), config.max_binary_size(),
+            Math.max(1, config.max_scanned_resources()));
+    }
+
+    @Override
+    public JobResult process(Job job) {
+        String batchId = job.getProperty(BATCH_ID, String.class);
+        Integer chunk = job.getProperty(CHUNK, Integer.class);
+        String[] paths = job.getProperty(PATHS, String[].class);
+        if (batchId == null || chunk == null || paths == null) {
+            log.error("Ignoring payload validation job {} without batch, chunk or paths", job.getId());
+            return JobResult.CANCEL;
+        }
+
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE))) {
+            Resource batch = resolver.getResource(PayloadValidationProcess.BATCH_ROOT + "/" + batchId);
+            if (batch == null) {
+                log.warn("Payload validation batch {} no longer exists", batchId);
+                return JobResult.CANCEL;
+            }
+
+            PayloadValidator current = validator;
+            List<String> issues = new ArrayList<>();
+            for (String path : paths) {
+                issues.addAll(current.validate(resolver, path));
+            }
+
+            String name = CHUNK + "-" + chunk;
+            Resource existing = batch.getChild(name);
+            if (existing != null) {
+                resolver.delete(existing);
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("jcr:primaryType", "nt:unstructured");
+            result.put(CHECKED, (long) paths.length);
+            result.put(ISSUES, issues.toArray(new String[0]));
+            resolver.create(batch, name, result);
+            resolver.commit();
+
+            log.debug("Validated {} payload items of batch {}, {} issues", paths.length, batchId, issues.size());
+            return JobResult.OK;
+        } catch (LoginException | PersistenceException e) {
+            log.warn("Could not validate chunk {} of payload validation batch {}", chunk, batchId, e);
+            return JobResult.FAILED;
+        }
+    }
+}
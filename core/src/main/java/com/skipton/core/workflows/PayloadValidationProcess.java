@@ -0,0 +1,308 @@
+package com.skipton.core.workflows;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.WorkflowExternalProcess;
+import com.adobe.granite.workflow.metadata.MetaDataMap;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.JobManager.QueryType;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates all payload items of a workflow without occupying a workflow thread. The step
+ * splits the payload into chunks, enqueues one {@link PayloadValidationJobConsumer} job per
+ * chunk and returns; the workflow engine then polls {@link #hasFinished} until every chunk has
+ * stored its result below {@value #BATCH_ROOT}, no job of the batch is left to do so, or the
+ * batch timed out. Package payloads are expanded like the payload list does, within the
+ * package filter. The collected issues are written to the workflow metadata, where the
+ * approval dialog reads them.
+ */
+@Designate(ocd = PayloadValidationProcess.Config.class)
+@Component(
+    service = WorkflowExternalProcess.class,
+    property = {
+        "process.label=Payload Validation",
+        "process.description=Validates payload items in Sling jobs and resumes when all of them finished"
+    }
+)
+public class PayloadValidationProcess implements WorkflowExternalProcess {
+
+    @ObjectClassDefinition(name = "Skipton - Payload Validation Process",
+                           description = "Splits workflow payloads into validation jobs")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Chunk size",
+                             description = "Number of payload items validated by one job")
+        int chunk_size() default 50;
+
+        @AttributeDefinition(name = "Timeout (seconds)",
+                             description = "Time after which the workflow resumes with the results collected so far")
+        long timeout() default 1800;
+
+        @AttributeDefinition(name = "Expansion depth",
+                             description = "Levels below each package filter root expanded into payload items")
+        int expand_depth() default 5;
+
+        @AttributeDefinition(name = "Maximum items",
+                             description = "Maximum number of payload items validated per workflow")
+        int expand_max_items() default 5000;
+
+        @AttributeDefinition(name = "Expansion time budget (ms)",
+                             description = "Time allowed for expanding a package payload into items")
+        int expand_time_budget() default 10000;
+    }
+
+    static final String BATCH_ROOT = "/var/skipton/payload-validation";
+
+    public static final String VALIDATION_STATUS = "validationStatus";
+    public static final String VALIDATION_ISSUES = "validationIssues";
+    public static final String VALIDATION_CHECKED = "validationChecked";
+
+    static final String VALID = "VALID";
+    static final String INVALID = "INVALID";
+    static final String INCOMPLETE = "INCOMPLETE";
+
+    private static final String WORKFLOW_ID = "workflowId";
+    private static final String CHUNKS = "chunks";
+    private static final String CREATED = "created";
+    private static final String FAILED_CHUNKS = "failedChunks";
+    private static final String TRUNCATED = "truncated";
+
+    private static final Logger log = LoggerFactory.getLogger(PayloadValidationProcess.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private JobManager jobManager;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile PackageFilterCompiler packageFilterCompiler;
+
+    private int chunkSize = 50;
+    private long timeoutMillis = 1800000L;
+    private int expandDepth = 5;
+    private int expandMaxItems = 5000;
+    private int expandTimeBudget = 10000;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        chunkSize = Math.max(1, config.chunk_size());
+        timeoutMillis = Math.max(0L, config.timeout()) * 1000L;
+        expandDepth = config.expand_depth();
+        expandMaxItems = config.expand_max_items();
+        expandTimeBudget = config.expand_time_budget();
+    }
+
+    @Override
+    public Serializable execute(WorkItem item, WorkflowSession session, MetaDataMap args) throws WorkflowException {
+        String payloadPath = item.getWorkflowData().getPayload().toString();
+        ResourceResolver sessionResolver = session.adaptTo(ResourceResolver.class);
+        if (sessionResolver == null) {
+            throw new WorkflowException("Could not get ResourceResolver from workflow session");
+        }
+        PayloadExpansion expansion = PayloadExpansion.deep(expandDepth, expandMaxItems, expandTimeBudget);
+        List<String> paths = getPayloadPaths(sessionResolver, payloadPath, expansion);
+        boolean truncated = expansion.isTruncated() || expansion.isTimedOut();
+        if (truncated) {
+            log.warn("Payload {} was only partially expanded, validating {} items", payloadPath, paths.size());
+        }
+
+        String batchId = UUID.randomUUID().toString();
+        List<List<String>> chunks = partition(paths, chunkSize);
+        try (ResourceResolver resolver = getServiceResolver()) {
+            Resource root = ResourceUtil.getOrCreateResource(resolver, BATCH_ROOT, "sling:Folder", "sling:Folder", false);
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("jcr:primaryType", "nt:unstructured");
+            properties.put(WORKFLOW_ID, item.getWorkflow().getId());
+            properties.put(CHUNKS, (long) chunks.size());
+            properties.put(CREATED, Calendar.getInstance());
+            properties.put(TRUNCATED, truncated);
+            Resource batch = resolver.create(root, batchId, properties);
+            resolver.commit();
+
+            // The batch must exist before the first job runs, so jobs are only added after the commit
+            long failed = 0;
+            for (int i = 0; i < chunks.size(); i++) {
+                Map<String, Object> jobProperties = new HashMap<>();
+                jobProperties.put(PayloadValidationJobConsumer.BATCH_ID, batchId);
+                jobProperties.put(PayloadValidationJobConsumer.CHUNK, i);
+                jobProperties.put(PayloadValidationJobConsumer.PATHS, chunks.get(i).toArray(new String[0]));
+                if (jobManager.addJob(PayloadValidationJobConsumer.TOPIC, jobProperties) == null) {
+                    log.warn("Could not enqueue chunk {} of payload validation batch {}", i, batchId);
+                    failed++;
+                }
+            }
+            if (failed > 0) {
+                // Chunks without a job never report, count them as done so the step does not wait for them
+                batch.adaptTo(ModifiableValueMap.class).put(FAILED_CHUNKS, failed);
+                resolver.commit();
+            }
+        } catch (LoginException | PersistenceException e) {
+            throw new WorkflowException("Could not create payload validation batch for " + payloadPath, e);
+        }
+
+        log.info("Enqueued {} payload validation jobs for {} items of workflow {}",
+            chunks.size(), paths.size(), item.getWorkflow().getId());
+        return batchId;
+    }
+
+    @Override
+    public boolean hasFinished(Serializable externalProcessId, WorkItem item, WorkflowSession session, MetaDataMap args) {
+        try (ResourceResolver resolver = getServiceResolver()) {
+            Resource batch = resolver.getResource(BATCH_ROOT + "/" + externalProcessId);
+            if (batch == null) {
+                log.warn("Payload validation batch {} disappeared, resuming workflow", externalProcessId);
+                return true;
+            }
+            ValueMap properties = batch.getValueMap();
+            long expected = properties.get(CHUNKS, 0L) - properties.get(FAILED_CHUNKS, 0L);
+            if (isTimedOut(properties)) {
+                return true;
+            }
+            // Look for jobs before counting results, so a job finishing in between is counted
+            boolean pending = hasPendingJobs(externalProcessId.toString());
+            long completed = countChunks(batch);
+            if (completed < expected && !pending) {
+                log.warn("Jobs of payload validation batch {} ended without storing {} of {} results, resuming workflow",
+                    externalProcessId, expected - completed, expected);
+                return true;
+            }
+            return completed >= expected;
+        } catch (LoginException e) {
+            log.error("Could not check payload validation batch {}", externalProcessId, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void handleResult(Serializable externalProcessId, WorkItem item, WorkflowSession session, MetaDataMap args)
+            throws WorkflowException {
+        MetaDataMap wfData = item.getWorkflow().getWorkflowData().getMetaDataMap();
+        try (ResourceResolver resolver = getServiceResolver()) {
+            Resource batch = resolver.getResource(BATCH_ROOT + "/" + externalProcessId);
+            if (batch == null) {
+                wfData.put(VALIDATION_STATUS, INCOMPLETE);
+                return;
+            }
+
+            long expected = batch.getValueMap().get(CHUNKS, 0L);
+            long checked = 0;
+            long completed = 0;
+            Set<String> issues = new LinkedHashSet<>();
+            for (Resource chunk : batch.getChildren()) {
+                ValueMap result = chunk.getValueMap();
+                checked += result.get(PayloadValidationJobConsumer.CHECKED, 0L);
+                Collections.addAll(issues, result.get(PayloadValidationJobConsumer.ISSUES, new String[0]));
+                completed++;
+            }
+
+            boolean truncated = batch.getValueMap().get(TRUNCATED, false);
+            String status = completed < expected || truncated ? INCOMPLETE : issues.isEmpty() ? VALID : INVALID;
+            wfData.put(VALIDATION_STATUS, status);
+            wfData.put(VALIDATION_CHECKED, checked);
+            wfData.put(VALIDATION_ISSUES, issues.toArray(new String[0]));
+            log.info("Payload validation of workflow {} finished: status={}, checked={}, issues={}",
+                item.getWorkflow().getId(), status, checked, issues.size());
+
+            resolver.delete(batch);
+            resolver.commit();
+        } catch (LoginException e) {
+            throw new WorkflowException("Could not read payload validation batch " + externalProcessId, e);
+        } catch (PersistenceException e) {
+            log.warn("Could not remove payload validation batch {}", externalProcessId, e);
+        }
+    }
+
+    /**
+     * @return the payload path itself, or for a package the items within its filter, expanded
+     *         below the filter roots within the given budget
+     */
+    private List<String> getPayloadPaths(ResourceResolver resolver, String payloadPath, PayloadExpansion expansion) {
+        if (payloadPath.startsWith("/var/workflow/packages/")) {
+            PackageFilterCompiler compiler = packageFilterCompiler;
+            Resource packageResource = resolver.getResource(payloadPath);
+            PackageFilter filter = null;
+            if (compiler != null) {
+                filter = compiler.getFilter(resolver, payloadPath);
+            } else if (packageResource != null) {
+                filter = PackageFilterCompiler.compile(packageResource);
+            }
+            if (filter != null) {
+                Set<String> paths = new LinkedHashSet<>();
+                new PayloadItemResolver(resolver, payloadItem -> paths.add(payloadItem.getPath()),
+                    expansion.within(filter::contains)).resolveAll(filter.getRoots());
+                return new ArrayList<>(paths);
+            }
+            log.warn("Could not read the package filter of {}, validating no items", payloadPath);
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(payloadPath);
+    }
+
+    private boolean isTimedOut(ValueMap batch) {
+        Calendar created = batch.get(CREATED, Calendar.class);
+        return timeoutMillis > 0 && created != null
+            && System.currentTimeMillis() - created.getTimeInMillis() > timeoutMillis;
+    }
+
+    private boolean hasPendingJobs(String batchId) {
+        Collection<Job> jobs = jobManager.findJobs(QueryType.ALL, PayloadValidationJobConsumer.TOPIC, 1,
+            Collections.<String, Object>singletonMap(PayloadValidationJobConsumer.BATCH_ID, batchId));
+        return jobs != null && !jobs.isEmpty();
+    }
+
+    private static long countChunks(Resource batch) {
+        long count = 0;
+        for (Resource ignored : batch.getChildren()) {
+            count++;
+        }
+        return count;
+    }
+
+    static List<List<String>> partition(List<String> paths, int chunkSize) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int start = 0; start < paths.size(); start += chunkSize) {
+            chunks.add(new ArrayList<>(paths.subList(start, Math.min(start + chunkSize, paths.size()))));
+        }
+        return chunks;
+    }
+
+    private ResourceResolver getServiceResolver() throws LoginException {
+        return resourceResolverFactory.getServiceResourceResolver(
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, PayloadValidationJobConsumer.SUBSERVICE));
+    }
+}
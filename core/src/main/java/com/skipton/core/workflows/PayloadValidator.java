@@ -0,0 +1,115 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+
+/**
+ * Checks one payload item before approval: pages for references to content that does not
+ * exist, assets for missing renditions and oversized originals. The content tree of a page is
+ * walked up to a fixed number of resources so a very large page cannot stall a validation job.
+ */
+public class PayloadValidator {
+
+    private static final String CONTENT_PREFIX = "/content/";
+
+    private final String[] requiredRenditions;
+    private final long maxBinarySize;
+    private final int maxScannedResources;
+
+    public PayloadValidator(String[] requiredRenditions, long maxBinarySize, int maxScannedResources) {
+        this.requiredRenditions = requiredRenditions != null ? requiredRenditions : new String[0];
+        this.maxBinarySize = maxBinarySize;
+        this.maxScannedResources = maxScannedResources;
+    }
+
+    /**
+     * @return human readable issues found for the item, empty if it is valid
+     */
+    public List<String> validate(ResourceResolver resolver, String path) {
+        List<String> issues = new ArrayList<>();
+        Resource resource = resolver.getResource(path);
+        if (resource == null) {
+            issues.add(path + ": does not exist");
+            return issues;
+        }
+
+        if (resource.isResourceType("dam:Asset")) {
+            checkAsset(resource, issues);
+        }
+        Resource content = resource.getChild("jcr:content");
+        if (content != null) {
+            checkReferences(resolver, content, issues);
+        }
+        return issues;
+    }
+
+    private void checkAsset(Resource asset, List<String> issues) {
+        Resource renditions = asset.getChild("jcr:content/renditions");
+        for (String rendition : requiredRenditions) {
+            if (renditions == null || renditions.getChild(rendition) == null) {
+                issues.add(asset.getPath() + ": missing rendition " + rendition);
+            }
+        }
+
+        Resource metadata = asset.getChild("jcr:content/metadata");
+        Long size = metadata != null ? metadata.getValueMap().get("dam:size", Long.class) : null;
+        if (size != null && maxBinarySize > 0 && size > maxBinarySize) {
+            issues.add(asset.getPath() + ": binary of " + size + " bytes exceeds the limit of " + maxBinarySize + " bytes");
+        }
+    }
+
+    private void checkReferences(ResourceResolver resolver, Resource content, List<String> issues) {
+        Map<String, Boolean> checked = new HashMap<>();
+        Deque<Resource> queue = new ArrayDeque<>();
+        queue.add(content);
+        int scanned = 0;
+        while (!queue.isEmpty() && scanned++ < maxScannedResources) {
+            Resource current = queue.poll();
+            ValueMap properties = current.getValueMap();
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                Object value = property.getValue();
+                if (value instanceof String) {
+                    checkReference(resolver, current, property.getKey(), (String) value, checked, issues);
+                } else if (value instanceof String[]) {
+                    for (String item : (String[]) value) {
+                        checkReference(resolver, current, property.getKey(), item, checked, issues);
+                    }
+                }
+            }
+            for (Resource child : current.getChildren()) {
+                if (!"renditions".equals(child.getName())) {
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    private static void checkReference(ResourceResolver resolver, Resource owner, String name, String value,
+                                       Map<String, Boolean> checked, List<String> issues) {
+        if (!value.startsWith(CONTENT_PREFIX) || value.indexOf(' ') >= 0) {
+            return;
+        }
+        // Strip selectors, extension and fragment of links like /content/site/page.html#top
+        String target = value;
+        int end = target.indexOf('#');
+        if (end > 0) {
+            target = target.substring(0, end);
+        }
+        int lastSlash = target.lastIndexOf('/');
+        int dot = target.indexOf('.', lastSlash);
+        if (dot > 0 && resolver.getResource(target) == null) {
+            target = target.substring(0, dot);
+        }
+        if (!checked.computeIfAbsent(target, path -> resolver.getResource(path) != null)) {
+            issues.add(owner.getPath() + "/" + name + ": broken reference to " + value);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.util.ISO8601;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds approvals of running workflows that stayed in {@code PENDING} longer than a threshold
+ * and posts an escalation event for each of them on {@value #TOPIC}. Stale approvals are found with one
+ * query on the {@code status}, {@code statusChanged} and {@code escalated} metadata properties,
+ * served by the {@code skiptonApprovalStatus-custom-1} Oak index, instead of walking the instance tree.
+ * Results are read lazily and at most a configured number are escalated per run; each one is
+ * marked {@code escalated} so the next run continues with the remaining ones.
+ */
+@Designate(ocd = StaleApprovalDetector.Config.class)
+@Component(service = Runnable.class)
+public class StaleApprovalDetector implements Runnable {
+
+    @ObjectClassDefinition(name = "Skipton - Stale Approval Detector",
+                           description = "Escalates approvals that stay pending for too long")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Period (seconds)",
+                             description = "How often pending approvals are checked")
+        long scheduler_period() default 900;
+
+        @AttributeDefinition(name = "Concurrent task",
+                             description = "Whether or not to schedule this task concurrently")
+        boolean scheduler_concurrent() default false;
+
+        @AttributeDefinition(name = "Threshold (hours)",
+                             description = "Time an approval may stay pending before it is escalated")
+        long threshold() default 48;
+
+        @AttributeDefinition(name = "Maximum escalations per run",
+                             description = "Remaining stale approvals are escalated by the next run")
+        int max_escalations() default 200;
+    }
+
+    public static final String TOPIC = "skipton/workflow/approval/STALE";
+
+    public static final String WORKFLOW_ID = "workflowId";
+    public static final String PAYLOAD = "payload";
+    public static final String PENDING_SINCE = "pendingSince";
+
+    static final String STATUS_CHANGED = "statusChanged";
+    static final String ESCALATED = "escalated";
+
+    private static final String INSTANCES_PATH = "/var/workflow/instances";
+    private static final String PENDING = "PENDING";
+    private static final String RUNNING = "RUNNING";
+    private static final String STATUS = "status";
+    private static final String SUBSERVICE = "stale-approval";
+    private static final int COMMIT_SIZE = 50;
+
+    private static final Logger log = LoggerFactory.getLogger(StaleApprovalDetector.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private EventAdmin eventAdmin;
+
+    private long thresholdMillis;
+    private int maxEscalations;
+
+    @Activate
+    @Modified
+    protected void activate(final Config config) {
+        thresholdMillis = TimeUnit.HOURS.toMillis(Math.max(0L, config.threshold()));
+        maxEscalations = Math.max(1, config.max_escalations());
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        Calendar cutoff = Calendar.getInstance();
+        cutoff.setTimeInMillis(start - thresholdMillis);
+
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE))) {
+            int escalated = escalate(resolver, resolver.findResources(query(cutoff), Query.JCR_SQL2), cutoff);
+            if (escalated > 0) {
+                log.info("Escalated {} stale approvals in {} ms", escalated, System.currentTimeMillis() - start);
+            }
+        } catch (LoginException | PersistenceException e) {
+            log.error("Could not escalate stale approvals", e);
+        }
+    }
+
+    /**
+     * Escalates the stale approvals among the given metadata resources, committing every few of them.
+     * The Oak index is updated asynchronously, so every hit is checked again before it is escalated.
+     * Approvals of workflows that are no longer running are skipped, and the events of an
+     * escalation are only posted once it was committed.
+     *
+     * @return the number of approvals escalated
+     */
+    int escalate(ResourceResolver resolver, Iterator<Resource> metaDataResources, Calendar cutoff)
+            throws PersistenceException {
+        int escalated = 0;
+        List<Event> events = new ArrayList<>();
+        while (metaDataResources.hasNext() && escalated < maxEscalations) {
+            Resource metaData = metaDataResources.next();
+            ModifiableValueMap properties = metaData.adaptTo(ModifiableValueMap.class);
+            Calendar pendingSince = properties != null ? properties.get(STATUS_CHANGED, Calendar.class) : null;
+            if (pendingSince == null || !PENDING.equals(properties.get(STATUS, String.class))
+                    || properties.containsKey(ESCALATED) || !pendingSince.before(cutoff)) {
+                continue;
+            }
+            Resource instance = metaData.getParent().getParent();
+            if (!RUNNING.equals(instance.getValueMap().get(STATUS, String.class))) {
+                continue;
+            }
+
+            Map<String, Object> eventProperties = new HashMap<>();
+            eventProperties.put(WORKFLOW_ID, instance.getPath());
+            eventProperties.put(PENDING_SINCE, pendingSince.getTimeInMillis());
+            Resource payload = instance.getChild("data/payload");
+            if (payload != null) {
+                eventProperties.put(PAYLOAD, payload.getValueMap().get("path", String.class));
+            }
+            events.add(new Event(TOPIC, eventProperties));
+
+            properties.put(ESCALATED, Calendar.getInstance());
+            if (++escalated % COMMIT_SIZE == 0) {
+                commit(resolver, events);
+            }
+        }
+        commit(resolver, events);
+        return escalated;
+    }
+
+    private void commit(ResourceResolver resolver, List<Event> events) throws PersistenceException {
+        resolver.commit();
+        events.forEach(eventAdmin::postEvent);
+        events.clear();
+    }
+
+    static String query(Calendar cutoff) {
+        return "SELECT * FROM [nt:unstructured] AS m"
+            + " WHERE ISDESCENDANTNODE(m, '" + INSTANCES_PATH + "')"
+            + " AND m.[" + STATUS + "] = '" + PENDING + "'"
+            + " AND m.[" + STATUS_CHANGED + "] < CAST('" + ISO8601.format(cutoff) + "' AS DATE)"
+            + " AND m.[" + ESCALATED + "] IS NULL"
+            + " ORDER BY m.[" + STATUS_CHANGED + "]";
+    }
+}
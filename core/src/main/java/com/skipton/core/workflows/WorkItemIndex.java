@@ -0,0 +1,202 @@
+package com.skipton.core.workflows;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.event.WorkflowEvent;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.Workflow;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of active work items, keyed by work item ID and by workflow ID.
+ * The index is kept up to date from granite workflow events, so callers can resolve
+ * a work item without scanning {@code WorkflowSession.getActiveWorkItems()}.
+ * It starts cold and is seeded once, via {@link #seed()}, from the running workflows visible
+ * to a service user. The index therefore knows work items the caller may not be allowed to
+ * see: callers must confirm every hit with their own {@code WorkflowSession} before using it.
+ */
+@Component(
+    service = {WorkItemIndex.class, EventHandler.class},
+    property = {
+        EventConstants.EVENT_TOPIC + "=" + WorkflowEvent.EVENT_TOPIC
+    }
+)
+public class WorkItemIndex implements EventHandler {
+
+    private static final String SUBSERVICE = "work-item-index";
+    private static final String[] RUNNING = { "RUNNING" };
+
+    private static final Logger log = LoggerFactory.getLogger(WorkItemIndex.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private final Map<String, Entry> byItemId = new ConcurrentHashMap<>();
+    private final Map<String, Entry> byWorkflowId = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> itemIdsByWorkflowId = new ConcurrentHashMap<>();
+
+    private volatile boolean warm;
+
+    @Override
+    public void handleEvent(Event event) {
+        Object eventType = event.getProperty(WorkflowEvent.EVENT_TYPE);
+        Object workflowId = event.getProperty(WorkflowEvent.WORKFLOW_INSTANCE_ID);
+
+        if (WorkflowEvent.WORKFLOW_COMPLETED_EVENT.equals(eventType)
+                || WorkflowEvent.WORKFLOW_ABORTED_EVENT.equals(eventType)) {
+            if (workflowId instanceof String) {
+                remove((String) workflowId);
+            }
+        } else if (WorkflowEvent.NODE_TRANSITION_EVENT.equals(eventType)) {
+            // The previous work items of this workflow are gone after a transition;
+            // drop them and let the next lookup miss rather than serve a stale item.
+            if (workflowId instanceof String) {
+                remove((String) workflowId);
+            }
+            Object workItem = event.getProperty(WorkflowEvent.WORK_ITEM);
+            if (workItem instanceof WorkItem) {
+                index((WorkItem) workItem);
+            }
+        }
+    }
+
+    /**
+     * @return the indexed entry for the given work item ID, or {@code null} if unknown
+     */
+    public Entry getByItemId(String itemId) {
+        return itemId != null ? byItemId.get(itemId) : null;
+    }
+
+    /**
+     * @return the indexed entry for the given workflow ID, or {@code null} if unknown
+     */
+    public Entry getByWorkflowId(String workflowId) {
+        return workflowId != null ? byWorkflowId.get(workflowId) : null;
+    }
+
+    /**
+     * @return the payload path of every indexed workflow, keyed by workflow ID
+     */
+    public Map<String, String> getPayloadPaths() {
+        Map<String, String> payloadPaths = new HashMap<>();
+        byWorkflowId.forEach((workflowId, entry) -> payloadPaths.put(workflowId, entry.getPayloadPath()));
+        return payloadPaths;
+    }
+
+    /**
+     * @return {@code true} once the index has been seeded from a full scan of active work items
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public int size() {
+        return byItemId.size();
+    }
+
+    /**
+     * Adds or replaces the entry for a single work item.
+     */
+    public void index(WorkItem item) {
+        if (item == null) {
+            return;
+        }
+        try {
+            Workflow workflow = item.getWorkflow();
+            Entry entry = new Entry(
+                workflow.getId(),
+                workflow.getWorkflowModel().getTitle(),
+                workflow.getWorkflowData().getPayload().toString()
+            );
+            byItemId.put(item.getId(), entry);
+            byWorkflowId.put(entry.getWorkflowId(), entry);
+            itemIdsByWorkflowId.computeIfAbsent(entry.getWorkflowId(), id -> ConcurrentHashMap.newKeySet())
+                .add(item.getId());
+        } catch (RuntimeException e) {
+            log.debug("Could not index work item {}", item.getId(), e);
+        }
+    }
+
+    /**
+     * Seeds the index from the work items of all running workflows, read with the service
+     * user, unless it is warm already. Failures leave the index cold, so the next call retries.
+     */
+    public synchronized void seed() {
+        if (warm) {
+            return;
+        }
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE))) {
+            WorkflowSession workflowSession = resolver.adaptTo(WorkflowSession.class);
+            if (workflowSession == null) {
+                log.warn("Could not get a workflow session for {} to seed the work item index", SUBSERVICE);
+                return;
+            }
+            int count = 0;
+            for (Workflow workflow : workflowSession.getWorkflows(RUNNING)) {
+                for (WorkItem item : workflow.getWorkItems()) {
+                    index(item);
+                    count++;
+                }
+            }
+            warm = true;
+            log.debug("Work item index seeded with {} items", count);
+        } catch (LoginException | WorkflowException e) {
+            log.warn("Could not seed the work item index", e);
+        }
+    }
+
+    /**
+     * Removes a workflow and all of its work items from the index.
+     */
+    public void remove(String workflowId) {
+        byWorkflowId.remove(workflowId);
+        Set<String> itemIds = itemIdsByWorkflowId.remove(workflowId);
+        if (itemIds != null) {
+            itemIds.forEach(byItemId::remove);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        byItemId.clear();
+        byWorkflowId.clear();
+        itemIdsByWorkflowId.clear();
+        warm = false;
+    }
+
+    /**
+     * Compact workflow context kept per indexed work item.
+     */
+    public static final class Entry {
+        private final String workflowId;
+        private final String workflowTitle;
+        private final String payloadPath;
+
+        public Entry(String workflowId, String workflowTitle, String payloadPath) {
+            this.workflowId = workflowId;
+            this.workflowTitle = workflowTitle;
+            this.payloadPath = payloadPath;
+        }
+
+        public String getWorkflowId() { return workflowId; }
+        public String getWorkflowTitle() { return workflowTitle; }
+        public String getPayloadPath() { return payloadPath; }
+    }
+}
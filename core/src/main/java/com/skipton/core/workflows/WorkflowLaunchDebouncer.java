@@ -0,0 +1,408 @@
+package com.skipton.core.workflows;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.Workflow;
+import com.adobe.granite.workflow.model.WorkflowModel;
+import com.skipton.core.listeners.ChangeHandler;
+import com.skipton.core.listeners.ContentPaths;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts approval workflows for content changes below the configured roots. Changes are
+ * coalesced by path prefix: the first change below a prefix opens a window, every further
+ * change below it during the window is added to the same set, and when the window closes one
+ * workflow package listing all changed pages and assets is written to
+ * {@value #PACKAGES_PATH} and a single workflow is started on it. A bulk import touching
+ * thousands of resources therefore starts one workflow per prefix and window.
+ * <p>
+ * Changes made by the workflows themselves must not start new ones: changes from other cluster
+ * instances, by the configured service users, or touching only replication and last-modified
+ * properties are ignored, and items already in a running workflow are left out of the package.
+ * Running workflows are taken from the {@link WorkItemIndex} and their package filters from the
+ * {@link PackageFilterCompiler} cache where those are available.
+ * <p>
+ * On deactivation the open windows are launched on the launcher thread, which is then shut
+ * down without interrupting a launch in progress.
+ */
+@Designate(ocd = WorkflowLaunchDebouncer.Config.class)
+@Component(service = { WorkflowLaunchDebouncer.class, ChangeHandler.class })
+public class WorkflowLaunchDebouncer implements ChangeHandler {
+
+    @ObjectClassDefinition(name = "Skipton - Workflow Launch Debouncer",
+                           description = "Starts one approval workflow per window of content changes")
+    public static @interface Config {
+
+        @AttributeDefinition(name = "Roots",
+                             description = "Changes below these paths start approval workflows")
+        String[] roots() default {};
+
+        @AttributeDefinition(name = "Grouping depth",
+                             description = "Number of path segments below a root that form the coalescing prefix")
+        int group_depth() default 1;
+
+        @AttributeDefinition(name = "Window (ms)",
+                             description = "Time changes below a prefix are collected before a workflow is started")
+        long window() default 10000;
+
+        @AttributeDefinition(name = "Maximum paths per package",
+                             description = "Further changes in the same window are dropped")
+        int max_paths() default 1000;
+
+        @AttributeDefinition(name = "Workflow model")
+        String model() default "/var/workflow/models/request_for_activation";
+
+        @AttributeDefinition(name = "Ignored users",
+                             description = "Changes by these users, such as the workflow and replication service users, never start workflows")
+        String[] ignored_users() default {
+            "workflow-process-service", "replication-service", "dam-update-service", "skipton-workflow-launcher"
+        };
+    }
+
+    static final String PACKAGES_PATH = "/var/workflow/packages/skipton";
+
+    private static final String SUBSERVICE = "workflow-launcher";
+    private static final String[] RUNNING = { "RUNNING" };
+    private static final String PACKAGES_ROOT = "/var/workflow/packages/";
+    private static final long STOP_SECONDS = 10;
+
+    /**
+     * Properties written by activation and by saving without an edit. A change touching only
+     * these does not start a workflow; replication properties are matched by prefix, e.g.
+     * {@code cq:lastReplicated_publish} of agent-specific replication status.
+     */
+    private static final String REPLICATION_PROPERTY_PREFIX = "cq:lastReplicat";
+    private static final Set<String> IGNORED_PROPERTIES = new HashSet<>(Arrays.asList(
+        "cq:lastModified", "cq:lastModifiedBy", "jcr:lastModified", "jcr:lastModifiedBy", "cq:lastRolledout",
+        "cq:lastRolledoutBy"));
+
+    private static final Logger log = LoggerFactory.getLogger(WorkflowLaunchDebouncer.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile WorkItemIndex workItemIndex;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile PackageFilterCompiler packageFilterCompiler;
+
+    private final Map<String, Set<String>> windows = new ConcurrentHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    private volatile ScheduledThreadPoolExecutor launcher;
+    private String[] roots = new String[0];
+    private int groupDepth;
+    private long window;
+    private int maxPaths;
+    private String model;
+    private Set<String> ignoredUsers = Collections.emptySet();
+
+    @Activate
+    protected void activate(final Config config) {
+        roots = config.roots() != null ? config.roots() : new String[0];
+        groupDepth = Math.max(0, config.group_depth());
+        window = Math.max(0L, config.window());
+        maxPaths = Math.max(1, config.max_paths());
+        model = config.model();
+        ignoredUsers = config.ignored_users() != null
+            ? new HashSet<>(Arrays.asList(config.ignored_users())) : Collections.emptySet();
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "skipton-workflow-launcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The windows are drained before shutdown, so their scheduled launches have nothing left to do
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        launcher = executor;
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        ScheduledThreadPoolExecutor current = launcher;
+        launcher = null;
+        if (current == null) {
+            return;
+        }
+        // Windows still open are launched now rather than lost, on the launcher thread after any
+        // launch in progress
+        Future<?> drained = current.submit(() -> new ArrayList<>(windows.keySet()).forEach(this::launch));
+        try {
+            drained.get(STOP_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Open workflow launch windows not launched within {} seconds, dropping {} still open",
+                STOP_SECONDS, windows.size());
+        } catch (ExecutionException e) {
+            log.error("Could not launch the open workflow launch windows", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        current.shutdown();
+        try {
+            if (!current.awaitTermination(STOP_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Workflow launch still running after {} seconds, leaving it to finish", STOP_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        windows.clear();
+    }
+
+    @Override
+    public void handle(List<ResourceChange> changes) {
+        changes.forEach(this::accept);
+    }
+
+    /**
+     * Adds a change to the window of its prefix, opening the window if there is none.
+     * Removals, changes outside the configured roots and changes that must not start a
+     * workflow are ignored.
+     */
+    public void accept(ResourceChange change) {
+        ScheduledExecutorService current = launcher;
+        if (current == null || change.getType() == ResourceChange.ChangeType.REMOVED || isIgnored(change)) {
+            return;
+        }
+        String path = ContentPaths.itemPath(change.getPath());
+        String prefix = prefix(path);
+        if (prefix == null) {
+            return;
+        }
+
+        windows.compute(prefix, (key, paths) -> {
+            if (paths == null) {
+                paths = ConcurrentHashMap.newKeySet();
+                current.schedule(() -> launch(key), window, TimeUnit.MILLISECONDS);
+            }
+            if (paths.size() < maxPaths) {
+                paths.add(path);
+            }
+            return paths;
+        });
+    }
+
+    /**
+     * @return {@code true} for changes from another cluster instance, which starts its own
+     *         workflows, changes by an ignored user, and changes touching only ignored properties
+     */
+    boolean isIgnored(ResourceChange change) {
+        if (change.isExternal()) {
+            return true;
+        }
+        String userId = change.getUserId();
+        if (userId != null && ignoredUsers.contains(userId)) {
+            log.debug("Ignoring change of {} by {}", change.getPath(), userId);
+            return true;
+        }
+        return change.getType() == ResourceChange.ChangeType.CHANGED && touchesOnlyIgnoredProperties(change);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean touchesOnlyIgnoredProperties(ResourceChange change) {
+        Set<String> added = change.getAddedPropertyNames();
+        Set<String> changed = change.getChangedPropertyNames();
+        Set<String> removed = change.getRemovedPropertyNames();
+        // Without property names, e.g. for node changes, the change cannot be ruled out
+        if (added == null || changed == null || removed == null
+                || added.isEmpty() && changed.isEmpty() && removed.isEmpty()) {
+            return false;
+        }
+        return onlyIgnored(added) && onlyIgnored(changed) && onlyIgnored(removed);
+    }
+
+    private static boolean onlyIgnored(Set<String> propertyNames) {
+        for (String name : propertyNames) {
+            if (!IGNORED_PROPERTIES.contains(name) && !name.startsWith(REPLICATION_PROPERTY_PREFIX)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the coalescing prefix of the path, or {@code null} if it is not below a configured root
+     */
+    String prefix(String path) {
+        for (String root : roots) {
+            if (path.equals(root) || path.startsWith(root + "/")) {
+                int end = root.length();
+                for (int depth = 0; depth < groupDepth && end < path.length(); depth++) {
+                    int next = path.indexOf('/', end + 1);
+                    end = next > 0 ? next : path.length();
+                }
+                return path.substring(0, end);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a workflow package whose filter lists the given paths, in the layout
+     * {@link PackageFilterCompiler} reads.
+     *
+     * @return the path of the package
+     */
+    String createPackage(ResourceResolver resolver, String prefix, Collection<String> paths) throws PersistenceException {
+        Resource parent = ResourceUtil.getOrCreateResource(resolver, PACKAGES_PATH, "sling:Folder", "sling:Folder", false);
+        String name = "changes-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-" + sequence.incrementAndGet();
+
+        Resource pkg = resolver.create(parent, name, Collections.singletonMap("jcr:primaryType", "cq:Page"));
+        Map<String, Object> content = new HashMap<>();
+        content.put("jcr:primaryType", "cq:PageContent");
+        content.put("jcr:title", "Changes below " + prefix);
+        content.put("sling:resourceType", "cq/workflow/components/collection/page");
+        Resource definition = resolver.create(resolver.create(pkg, "jcr:content", content), "vlt:definition",
+            Collections.singletonMap("jcr:primaryType", "vlt:PackageDefinition"));
+        Resource filter = resolver.create(definition, "filter", Collections.singletonMap("jcr:primaryType", "nt:unstructured"));
+
+        int index = 0;
+        for (String path : new TreeSet<>(paths)) {
+            Map<String, Object> filterSet = new HashMap<>();
+            filterSet.put("jcr:primaryType", "nt:unstructured");
+            filterSet.put("root", path);
+            filterSet.put("mode", "replace");
+            resolver.create(filter, "f" + index++, filterSet);
+        }
+        return pkg.getPath();
+    }
+
+    private void launch(String prefix) {
+        Set<String> paths = windows.remove(prefix);
+        if (paths == null || paths.isEmpty()) {
+            return;
+        }
+        List<String> snapshot = new ArrayList<>(paths);
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE))) {
+            WorkflowSession session = resolver.adaptTo(WorkflowSession.class);
+            WorkflowModel workflowModel = session != null ? session.getModel(model) : null;
+            if (workflowModel == null) {
+                log.error("Cannot start workflow model {} for {} changes below {}", model, snapshot.size(), prefix);
+                return;
+            }
+
+            snapshot.removeAll(inRunningWorkflows(session, resolver, snapshot));
+            if (snapshot.isEmpty()) {
+                log.debug("All changes below {} are already in running workflows", prefix);
+                return;
+            }
+
+            String packagePath = createPackage(resolver, prefix, snapshot);
+            resolver.commit();
+            session.startWorkflow(workflowModel, session.newWorkflowData("JCR_PATH", packagePath));
+            log.info("Started {} for {} changes below {} with package {}", model, snapshot.size(), prefix, packagePath);
+        } catch (LoginException | PersistenceException | WorkflowException e) {
+            log.error("Could not start approval workflow for {} changes below {}", snapshot.size(), prefix, e);
+        }
+    }
+
+    /**
+     * @return the given paths that are the payload of a running workflow or covered by the
+     *         package of one
+     */
+    Set<String> inRunningWorkflows(WorkflowSession session, ResourceResolver resolver, Collection<String> paths)
+            throws WorkflowException {
+        WorkItemIndex index = warmIndex();
+        Map<String, String> payloads = index != null ? index.getPayloadPaths() : runningPayloads(session);
+        Set<String> running = new HashSet<>();
+        for (Map.Entry<String, String> payload : payloads.entrySet()) {
+            String payloadPath = payload.getValue();
+            PackageFilter filter = payloadPath.startsWith(PACKAGES_ROOT) ? filter(resolver, payloadPath) : null;
+            List<String> covered = new ArrayList<>();
+            for (String path : paths) {
+                if (filter != null ? filter.contains(path) : path.equals(payloadPath)) {
+                    covered.add(path);
+                }
+            }
+            // The index may still hold a workflow that completed, so its hits are confirmed
+            if (!covered.isEmpty() && (index == null || isRunning(session, payload.getKey()))) {
+                running.addAll(covered);
+            }
+        }
+        return running;
+    }
+
+    /**
+     * @return the work item index if it is available and seeded, otherwise {@code null}
+     */
+    private WorkItemIndex warmIndex() {
+        WorkItemIndex index = workItemIndex;
+        if (index == null) {
+            return null;
+        }
+        index.seed();
+        return index.isWarm() ? index : null;
+    }
+
+    /**
+     * @return the payload path of every running workflow, keyed by workflow ID
+     */
+    private static Map<String, String> runningPayloads(WorkflowSession session) throws WorkflowException {
+        Map<String, String> payloads = new HashMap<>();
+        for (Workflow workflow : session.getWorkflows(RUNNING)) {
+            Object payload = workflow.getWorkflowData().getPayload();
+            if (payload != null) {
+                payloads.put(workflow.getId(), payload.toString());
+            }
+        }
+        return payloads;
+    }
+
+    private static boolean isRunning(WorkflowSession session, String workflowId) {
+        try {
+            Workflow workflow = session.getWorkflow(workflowId);
+            return workflow != null && RUNNING[0].equals(workflow.getState());
+        } catch (WorkflowException e) {
+            log.debug("Indexed workflow {} is no longer readable", workflowId, e);
+            return false;
+        }
+    }
+
+    private PackageFilter filter(ResourceResolver resolver, String packagePath) {
+        PackageFilterCompiler compiler = packageFilterCompiler;
+        if (compiler != null) {
+            return compiler.getFilter(resolver, packagePath);
+        }
+        Resource packageResource = resolver.getResource(packagePath);
+        return packageResource != null ? PackageFilterCompiler.compile(packageResource) : null;
+    }
+}
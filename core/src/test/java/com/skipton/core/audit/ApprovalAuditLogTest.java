@@ -0,0 +1,107 @@
+package com.skipton.core.audit;
+
+import java.util.List;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(AemContextExtension.class)
+class ApprovalAuditLogTest {
+
+    // 2024-03-01T23:59:00Z and 2024-03-02T00:01:00Z
+    private static final long LATE = 1709337540000L;
+    private static final long EARLY = 1709337660000L;
+
+    @Test
+    void flushWritesEventsPartitionedByDate(AemContext context) {
+        ApprovalAuditLog fixture = register(context, "DROP_NEWEST");
+
+        assertTrue(fixture.record(event(EARLY, "/var/workflow/instances/wf2")));
+        assertTrue(fixture.record(event(LATE, "/var/workflow/instances/wf1")));
+        fixture.flush();
+
+        assertEquals(0, fixture.getQueueSize());
+        assertEquals(2, fixture.getWrittenCount());
+        assertNotNull(context.resourceResolver().getResource("/var/skipton/audit/2024/03/01"));
+        assertNotNull(context.resourceResolver().getResource("/var/skipton/audit/2024/03/02"));
+
+        List<AuditEvent> events = fixture.query(context.resourceResolver(), LATE, EARLY + 1, 10);
+        assertEquals(2, events.size());
+        assertEquals("/var/workflow/instances/wf1", events.get(0).getWorkflowId());
+        assertEquals("APPROVED", events.get(0).getStatus());
+        assertEquals(EARLY, events.get(1).getTimestamp());
+
+        assertEquals(1, fixture.query(context.resourceResolver(), LATE, EARLY, 10).size());
+    }
+
+    @Test
+    void fullQueueDropsNewestEvent(AemContext context) {
+        ApprovalAuditLog fixture = register(context, "DROP_NEWEST");
+
+        assertTrue(fixture.record(event(LATE, "wf1")));
+        assertTrue(fixture.record(event(LATE + 1, "wf2")));
+        assertFalse(fixture.record(event(LATE + 2, "wf3")));
+
+        assertEquals(2, fixture.getQueueSize());
+        assertEquals(1, fixture.getDroppedCount());
+    }
+
+    @Test
+    void fullQueueDropsOldestEvent(AemContext context) {
+        ApprovalAuditLog fixture = register(context, "DROP_OLDEST");
+
+        fixture.record(event(LATE, "wf1"));
+        fixture.record(event(LATE + 1, "wf2"));
+        assertTrue(fixture.record(event(LATE + 2, "wf3")));
+        assertEquals(2, fixture.getQueueSize());
+        fixture.flush();
+
+        List<AuditEvent> events = fixture.query(context.resourceResolver(), LATE, LATE + 3, 10);
+        assertEquals(2, events.size());
+        assertEquals("wf2", events.get(0).getWorkflowId());
+        assertEquals(1, fixture.getDroppedCount());
+
+        assertTrue(fixture.record(event(LATE + 3, "wf4")));
+        assertTrue(fixture.record(event(LATE + 4, "wf5")));
+        assertTrue(fixture.record(event(LATE + 5, "wf6")));
+        assertEquals(2, fixture.getQueueSize());
+        fixture.flush();
+
+        events = fixture.query(context.resourceResolver(), LATE, LATE + 6, 10);
+        assertEquals(4, events.size());
+        assertEquals("wf6", events.get(3).getWorkflowId());
+        assertEquals(2, fixture.getDroppedCount());
+        assertEquals(0, fixture.getQueueSize());
+    }
+
+    @Test
+    void deactivateDrainsQueue(AemContext context) {
+        ApprovalAuditLog fixture = register(context, "DROP_NEWEST");
+        fixture.record(event(LATE, "wf1"));
+
+        MockOsgi.deactivate(fixture, context.bundleContext());
+
+        assertEquals(1, fixture.getWrittenCount());
+        assertFalse(fixture.record(event(LATE, "wf2")));
+    }
+
+    private static ApprovalAuditLog register(AemContext context, String overflowPolicy) {
+        return context.registerInjectActivateService(new ApprovalAuditLog(),
+            "queue.capacity", 2,
+            "flush.interval.ms", 3600000L,
+            "overflow.policy", overflowPolicy);
+    }
+
+    private static AuditEvent event(long timestamp, String workflowId) {
+        return new AuditEvent(timestamp, workflowId, "/content/skipton/us/en", "reviewer",
+            "approve", "APPROVED", null, null);
+    }
+}
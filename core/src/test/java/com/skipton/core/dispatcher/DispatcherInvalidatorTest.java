@@ -0,0 +1,206 @@
+package com.skipton.core.dispatcher;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import javax.jcr.query.Query;
+
+import com.skipton.core.references.ReferenceGraph;
+import com.sun.net.httpserver.HttpServer;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class DispatcherInvalidatorTest {
+
+    private static final String ASSET = "/content/dam/skipton/logo.png";
+    private static final String PAGE = "/content/skipton/us/en/page";
+
+    /** Requests received by the stub flush endpoint, as action, handle and scope. */
+    private final List<String> flushed = Collections.synchronizedList(new ArrayList<>());
+
+    private HttpServer server;
+    private int status = 200;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/dispatcher/invalidate.cache", exchange -> {
+            flushed.add(exchange.getRequestMethod() + " "
+                + exchange.getRequestHeaders().getFirst(DispatcherFlushClient.ACTION) + " "
+                + exchange.getRequestHeaders().getFirst(DispatcherFlushClient.HANDLE) + " "
+                + exchange.getRequestHeaders().getFirst(DispatcherFlushClient.SCOPE));
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void collectInvalidatesItemsReferrersAndParents(AemContext context) {
+        DispatcherInvalidator fixture = invalidator(context, 20, 100);
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        Resource image = mock(Resource.class);
+        when(image.getPath()).thenReturn(PAGE + "/jcr:content/root/image");
+        when(resolver.findResources(anyString(), anyString())).thenAnswer(invocation ->
+            ((String) invocation.getArgument(0)).contains(ASSET)
+                ? Collections.singletonList(image).iterator()
+                : Collections.emptyIterator());
+
+        Map<String, String> invalidations = fixture.collect(resolver, Arrays.asList(
+            change(ChangeType.CHANGED, ASSET + "/jcr:content/renditions/original"),
+            change(ChangeType.ADDED, "/content/skipton/us/en/new"),
+            change(ChangeType.ADDED, "/content/skipton/us/en/new/jcr:content"),
+            change(ChangeType.REMOVED, "/content/skipton/us/en/old"),
+            change(ChangeType.CHANGED, "/content/other/page/jcr:content")));
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put(ASSET, DispatcherInvalidator.ACTIVATE);
+        expected.put(PAGE, DispatcherInvalidator.ACTIVATE);
+        expected.put("/content/skipton/us/en/new", DispatcherInvalidator.ACTIVATE);
+        expected.put("/content/skipton/us/en", DispatcherInvalidator.ACTIVATE);
+        expected.put("/content/skipton/us/en/old", DispatcherInvalidator.DELETE);
+        assertEquals(expected, invalidations);
+    }
+
+    @Test
+    void collectTakesReferrersFromAReadyReferenceGraph(AemContext context) {
+        String header = "/content/experience-fragments/skipton/header/master";
+        ReferenceGraph graph = mock(ReferenceGraph.class);
+        when(graph.isReady()).thenReturn(true);
+        when(graph.getDependants(ASSET)).thenReturn(new LinkedHashSet<>(Arrays.asList(header, PAGE)));
+        context.registerService(ReferenceGraph.class, graph);
+        DispatcherInvalidator fixture = invalidator(context, 20, 100);
+        ResourceResolver resolver = mock(ResourceResolver.class);
+
+        Map<String, String> invalidations = fixture.collect(resolver,
+            Collections.singletonList(change(ChangeType.CHANGED, ASSET + "/jcr:content/metadata")));
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put(ASSET, DispatcherInvalidator.ACTIVATE);
+        expected.put(PAGE, DispatcherInvalidator.ACTIVATE);
+        assertEquals(expected, invalidations);
+        verify(resolver, never()).findResources(anyString(), anyString());
+    }
+
+    @Test
+    void flushSendsResourceOnlyInvalidationsPerInterval(AemContext context) {
+        DispatcherInvalidator fixture = invalidator(context, 2, 100);
+        Map<String, String> invalidations = new LinkedHashMap<>();
+        invalidations.put(ASSET, DispatcherInvalidator.ACTIVATE);
+        invalidations.put(PAGE, DispatcherInvalidator.ACTIVATE);
+        invalidations.put("/content/skipton/us/en/old", DispatcherInvalidator.DELETE);
+        fixture.enqueue(invalidations);
+
+        fixture.flush();
+        assertEquals(Arrays.asList(
+            "POST Activate " + ASSET + " ResourceOnly",
+            "POST Activate " + PAGE + " ResourceOnly"), flushed);
+
+        fixture.flush();
+        assertEquals("POST Delete /content/skipton/us/en/old ResourceOnly", flushed.get(2));
+    }
+
+    @Test
+    void failedInvalidationsStayPending(AemContext context) {
+        DispatcherInvalidator fixture = invalidator(context, 20, 100);
+        fixture.enqueue(Collections.singletonMap(PAGE, DispatcherInvalidator.ACTIVATE));
+
+        status = 503;
+        fixture.flush();
+        status = 200;
+        fixture.flush();
+
+        assertEquals(2, flushed.size());
+        assertEquals(flushed.get(0), flushed.get(1));
+    }
+
+    @Test
+    void overflowInvalidatesTheRoots(AemContext context) {
+        DispatcherInvalidator fixture = invalidator(context, 20, 2);
+        Map<String, String> invalidations = new LinkedHashMap<>();
+        invalidations.put(ASSET, DispatcherInvalidator.ACTIVATE);
+        invalidations.put(PAGE, DispatcherInvalidator.ACTIVATE);
+        invalidations.put("/content/skipton/us/en/old", DispatcherInvalidator.DELETE);
+        fixture.enqueue(invalidations);
+
+        fixture.flush();
+        assertEquals(Arrays.asList(
+            "POST Activate /content/skipton null",
+            "POST Activate /content/dam/skipton null"), flushed);
+
+        fixture.flush();
+        assertEquals(2, flushed.size());
+    }
+
+    @Test
+    void collectQueriesReferrersOfAllChangesAtOnce(AemContext context) {
+        DispatcherInvalidator fixture = invalidator(context, 20, 100);
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.findResources(anyString(), anyString())).thenReturn(Collections.emptyIterator());
+
+        fixture.collect(resolver, Arrays.asList(
+            change(ChangeType.CHANGED, ASSET + "/jcr:content/metadata"),
+            change(ChangeType.CHANGED, "/content/dam/skipton/banner.png/jcr:content/renditions/original"),
+            change(ChangeType.CHANGED, PAGE + "/jcr:content")));
+
+        verify(resolver, times(1)).findResources(contains("'" + ASSET + "', '/content/dam/skipton/banner.png', '" + PAGE + "'"),
+            eq(Query.JCR_SQL2));
+    }
+
+    @Test
+    void queryMatchesEveryReferenceProperty() {
+        String query = DispatcherInvalidator.query(Arrays.asList("/content/dam/skipton/o'brien.png", ASSET),
+            new String[] { "fileReference", "fragmentPath" });
+
+        assertTrue(query.contains("ISDESCENDANTNODE(n, '/content')"));
+        assertTrue(query.contains("n.[fileReference] IN ('/content/dam/skipton/o''brien.png', '" + ASSET + "')"));
+        assertTrue(query.contains(" OR n.[fragmentPath] IN ('/content/dam/skipton/o''brien.png', '" + ASSET + "')"));
+    }
+
+    private DispatcherInvalidator invalidator(AemContext context, int maxRequests, int maxPending) {
+        return context.registerInjectActivateService(new DispatcherInvalidator(),
+            "flush.url", "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + "/dispatcher/invalidate.cache",
+            "roots", new String[] { "/content/skipton", "/content/dam/skipton" },
+            "interval", 3600000L,
+            "max.requests", maxRequests,
+            "max.pending", maxPending);
+    }
+
+    private static ResourceChange change(ChangeType type, String path) {
+        return new ResourceChange(type, path, false);
+    }
+}
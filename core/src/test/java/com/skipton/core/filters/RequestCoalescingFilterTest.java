@@ -0,0 +1,146 @@
+package com.skipton.core.filters;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class RequestCoalescingFilterTest {
+
+    private static final String URI = "/content/skipton/us/en.txt";
+
+    private final AtomicInteger renders = new AtomicInteger();
+    private final Set<Thread> requestThreads = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setup() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentIdenticalRequestsShareOneRender(AemContext context) throws Exception {
+        RequestCoalescingFilter fixture = filter(context, 1024);
+        FilterChain chain = (request, response) -> render(response, "Title = Skipton");
+
+        Future<MockSlingHttpServletResponse> first = executor.submit(() -> filter(fixture, request(URI, "en"), chain));
+        Future<MockSlingHttpServletResponse> second = executor.submit(() -> filter(fixture, request(URI, "en"), chain));
+
+        MockSlingHttpServletResponse leading = first.get(10, TimeUnit.SECONDS);
+        MockSlingHttpServletResponse waiting = second.get(10, TimeUnit.SECONDS);
+        assertEquals(1, renders.get());
+        assertEquals("Title = Skipton", leading.getOutputAsString());
+        assertEquals("Title = Skipton", waiting.getOutputAsString());
+        assertEquals("text/plain", waiting.getContentType().split(";")[0]);
+        assertEquals("max-age=0", waiting.getHeader("Cache-Control"));
+    }
+
+    @Test
+    void oversizedResponsesAreRenderedByEveryRequest(AemContext context) throws Exception {
+        RequestCoalescingFilter fixture = filter(context, 4);
+        FilterChain chain = (request, response) -> render(response, "Title = Skipton");
+
+        Future<MockSlingHttpServletResponse> first = executor.submit(() -> filter(fixture, request(URI, "en"), chain));
+        Future<MockSlingHttpServletResponse> second = executor.submit(() -> filter(fixture, request(URI, "en"), chain));
+
+        assertEquals("Title = Skipton", first.get(10, TimeUnit.SECONDS).getOutputAsString());
+        assertEquals("Title = Skipton", second.get(10, TimeUnit.SECONDS).getOutputAsString());
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    void keyCoversQueryAndVaryHeaders(AemContext context) {
+        RequestCoalescingFilter fixture = filter(context, 1024);
+
+        assertTrue(fixture.optedIn(URI));
+        assertFalse(fixture.optedIn("/content/skipton/us/en.html"));
+        assertEquals(fixture.key(request(URI, "en")), fixture.key(request(URI, "en")));
+        assertNotEquals(fixture.key(request(URI, "en")), fixture.key(request(URI, "de")));
+
+        SlingHttpServletRequest query = request(URI, "en");
+        when(query.getQueryString()).thenReturn("q=1");
+        assertNotEquals(fixture.key(request(URI, "en")), fixture.key(query));
+    }
+
+    private static RequestCoalescingFilter filter(AemContext context, int maxSize) {
+        return context.registerInjectActivateService(new RequestCoalescingFilter(),
+            "paths", new String[] { "/content/skipton/.*\\.txt" },
+            "vary.headers", new String[] { "Accept-Language" },
+            "max.size", maxSize,
+            "wait.timeout", 10000L);
+    }
+
+    private MockSlingHttpServletResponse filter(RequestCoalescingFilter fixture, SlingHttpServletRequest request,
+                                                FilterChain chain) throws IOException, ServletException {
+        requestThreads.add(Thread.currentThread());
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        fixture.doFilter(request, response, chain);
+        return response;
+    }
+
+    private static SlingHttpServletRequest request(String uri, String language) {
+        SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getRequestURI()).thenReturn(uri);
+        when(request.getHeader("Accept-Language")).thenReturn(language);
+        return request;
+    }
+
+    /**
+     * Renders the response once the other request is waiting, either for this render or in the
+     * executor after it finished its own.
+     */
+    private void render(ServletResponse response, String body) throws IOException {
+        renders.incrementAndGet();
+        awaitOtherRequest();
+        response.setContentType("text/plain");
+        ((HttpServletResponse) response).setHeader("Cache-Control", "max-age=0");
+        response.getWriter().write(body);
+    }
+
+    private void awaitOtherRequest() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            for (Thread thread : requestThreads) {
+                Thread.State state = thread.getState();
+                if (thread != Thread.currentThread()
+                        && (state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING)) {
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+}
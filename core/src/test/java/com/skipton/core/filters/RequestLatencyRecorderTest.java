@@ -0,0 +1,77 @@
+package com.skipton.core.filters;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(AemContextExtension.class)
+class RequestLatencyRecorderTest {
+
+    @Test
+    void histogramPercentilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertWithin(500, snapshot.getValueAtPercentile(50));
+        assertWithin(950, snapshot.getValueAtPercentile(95));
+        assertWithin(990, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    void bucketIndexIsContiguous() {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.highestValue(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+        }
+    }
+
+    @Test
+    void recordKeepsOneHistogramPerKeyUpToTheLimit(AemContext context) {
+        RequestLatencyRecorder fixture = context.registerInjectActivateService(recorder(), "max.keys", 2);
+
+        fixture.record("skipton/components/page", null, "html", TimeUnit.MILLISECONDS.toNanos(20));
+        fixture.record("skipton/components/page", null, "html", TimeUnit.MILLISECONDS.toNanos(40));
+        fixture.record("skipton/components/page", "latency", "json", TimeUnit.MILLISECONDS.toNanos(1));
+        assertFalse(fixture.isOverflowing());
+        fixture.record("dam/gui/components/asset", null, "jpg", TimeUnit.MILLISECONDS.toNanos(5));
+
+        List<RequestLatencyRecorder.Latency> latencies = fixture.getSnapshots();
+        assertEquals(3, latencies.size());
+        assertEquals("", latencies.get(0).getSelectors());
+        assertEquals(2, latencies.get(0).getSnapshot().getCount());
+        assertEquals(40000, latencies.get(0).getSnapshot().getMax());
+        assertEquals("latency", latencies.get(1).getSelectors());
+        assertEquals(RequestLatencyRecorder.OVERFLOW, latencies.get(2).getResourceType());
+        assertTrue(fixture.isOverflowing());
+        assertEquals(3, fixture.getLatencies().size());
+
+        fixture.reset();
+        assertTrue(fixture.getSnapshots().isEmpty());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16 + 1, "expected about " + expected + " but was " + actual);
+    }
+
+    private static RequestLatencyRecorder recorder() {
+        try {
+            return new RequestLatencyRecorder();
+        } catch (javax.management.NotCompliantMBeanException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.skipton.core.filters;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import uk.org.lidalia.slf4jext.Level;
+import uk.org.lidalia.slf4jtest.LoggingEvent;
+import uk.org.lidalia.slf4jtest.TestLogger;
+import uk.org.lidalia.slf4jtest.TestLoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(AemContextExtension.class)
+class SampledAccessLogTest {
+
+    private final TestLogger accessLogger = TestLoggerFactory.getTestLogger(SampledAccessLog.ACCESS_LOGGER);
+
+    @BeforeEach
+    void setup() {
+        TestLoggerFactory.clear();
+    }
+
+    @Test
+    void slowRequestsAreLoggedByTheWriter(AemContext context) {
+        SampledAccessLog fixture = context.registerInjectActivateService(new SampledAccessLog(),
+            "sample.rate", 0.0, "slow.threshold", 100L);
+
+        fixture.offer("GET", "/content/skipton/us/en.html", 200, TimeUnit.MILLISECONDS.toNanos(5));
+        fixture.offer("POST", "/content/skipton/us/en/jcr:content.approvals.json", 500, TimeUnit.MILLISECONDS.toNanos(250));
+        fixture.deactivate();
+
+        List<String> lines = infoLines();
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains(" method=POST status=500 durationUs=250000 sampled=slow"
+            + " path=/content/skipton/us/en/jcr:content.approvals.json"));
+    }
+
+    @Test
+    void fullBufferDropsInsteadOfBlocking(AemContext context) {
+        SampledAccessLog fixture = context.registerInjectActivateService(new SampledAccessLog(),
+            "sample.rate", 1.0, "buffer.size", 4);
+
+        StringBuilder longPath = new StringBuilder("/content");
+        while (longPath.length() <= SampledAccessLog.MAX_PATH_LENGTH) {
+            longPath.append("/segment");
+        }
+        for (int i = 0; i < 1000; i++) {
+            fixture.offer("GET", longPath.toString(), 200, 1000L);
+        }
+        fixture.deactivate();
+
+        List<String> lines = infoLines();
+        long dropped = accessLogger.getAllLoggingEvents().stream()
+            .filter(event -> event.getLevel() == Level.WARN)
+            .mapToLong(event -> ((Number) event.getArguments().get(0)).longValue())
+            .sum();
+        assertEquals(1000, lines.size() + dropped);
+        assertTrue(lines.get(0).endsWith("..."));
+    }
+
+    private List<String> infoLines() {
+        return accessLogger.getAllLoggingEvents().stream()
+            .filter(event -> event.getLevel() == Level.INFO)
+            .map(LoggingEvent::getMessage)
+            .collect(Collectors.toList());
+    }
+}
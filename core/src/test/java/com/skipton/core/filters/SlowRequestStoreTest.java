@@ -0,0 +1,72 @@
+package com.skipton.core.filters;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestProgressTracker;
+import org.apache.sling.api.resource.Resource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class SlowRequestStoreTest {
+
+    private static final String PAGE_TYPE = "skipton/components/page";
+
+    private SlowRequestStore fixture;
+
+    @BeforeEach
+    void setup(AemContext context) {
+        fixture = context.registerInjectActivateService(new SlowRequestStore(),
+            "threshold", 100L, "max.per.type", 2, "max.types", 1, "max.lines", 2);
+    }
+
+    @Test
+    void captureKeepsTheSlowestRequestsPerResourceType() {
+        assertFalse(fixture.isSlow(TimeUnit.MILLISECONDS.toNanos(99)));
+        assertTrue(fixture.isSlow(TimeUnit.MILLISECONDS.toNanos(100)));
+
+        fixture.capture(request(PAGE_TYPE, "/a.html"), TimeUnit.MILLISECONDS.toNanos(300));
+        fixture.capture(request(PAGE_TYPE, "/b.html"), TimeUnit.MILLISECONDS.toNanos(100));
+        fixture.capture(request(PAGE_TYPE, "/c.html"), TimeUnit.MILLISECONDS.toNanos(200));
+        fixture.capture(request("dam/gui/components/asset", "/d.jpg"), TimeUnit.MILLISECONDS.toNanos(150));
+
+        Map<String, List<SlowRequestStore.Trace>> traces = fixture.getTraces();
+        List<SlowRequestStore.Trace> pages = traces.get(PAGE_TYPE);
+        assertEquals(2, pages.size());
+        assertEquals("/a.html", pages.get(0).getUri());
+        assertEquals("/c.html", pages.get(1).getUri());
+        assertEquals(Arrays.asList("0 (2019) Starting Request Processing", "1 (2019) Method=GET", "..."),
+            pages.get(0).getTimeline());
+        assertEquals("/d.jpg", traces.get(SlowRequestStore.OTHER).get(0).getUri());
+
+        fixture.clear();
+        assertTrue(fixture.getTraces().isEmpty());
+    }
+
+    private static SlingHttpServletRequest request(String resourceType, String uri) {
+        SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        Resource resource = mock(Resource.class);
+        RequestProgressTracker tracker = mock(RequestProgressTracker.class);
+        when(resource.getResourceType()).thenReturn(resourceType);
+        when(request.getResource()).thenReturn(resource);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getRequestURI()).thenReturn(uri);
+        when(request.getRequestProgressTracker()).thenReturn(tracker);
+        when(tracker.getMessages()).thenReturn(Arrays.asList(
+            "0 (2019) Starting Request Processing\n", "1 (2019) Method=GET\n", "2 (2019) Request Processing ended\n").iterator());
+        return request;
+    }
+}
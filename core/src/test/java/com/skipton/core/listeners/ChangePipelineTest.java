@@ -0,0 +1,158 @@
+package com.skipton.core.listeners;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class ChangePipelineTest {
+
+    @Test
+    void coalesceKeepsOneChangePerPathAndCollapsesSubtrees() {
+        List<ResourceChange> coalesced = ChangePipeline.coalesce(Arrays.asList(
+            change(ChangeType.CHANGED, "/content/skipton/en/jcr:content"),
+            change(ChangeType.ADDED, "/content/skipton/de"),
+            change(ChangeType.ADDED, "/content/skipton/de/jcr:content"),
+            change(ChangeType.CHANGED, "/content/skipton/de"),
+            change(ChangeType.CHANGED, "/content/skipton/de-ch/jcr:content"),
+            change(ChangeType.CHANGED, "/content/skipton/en/jcr:content"),
+            change(ChangeType.REMOVED, "/content/skipton/fr/jcr:content"),
+            change(ChangeType.REMOVED, "/content/skipton/fr")));
+
+        assertEquals(Arrays.asList(
+            "CHANGED /content/skipton/en/jcr:content",
+            "ADDED /content/skipton/de",
+            "CHANGED /content/skipton/de-ch/jcr:content",
+            "REMOVED /content/skipton/fr"),
+            coalesced.stream().map(change -> change.getType() + " " + change.getPath()).collect(Collectors.toList()));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void coalesceKeepsChangesOfEachUserWithAllTheirProperties() {
+        String page = "/content/skipton/en/jcr:content";
+        List<ResourceChange> coalesced = ChangePipeline.coalesce(Arrays.asList(
+            change(page, "author", "jcr:title"),
+            change(page, "replication-service", "cq:lastReplicated"),
+            change(page, "author", "jcr:description")));
+
+        assertEquals(2, coalesced.size());
+        assertEquals("author", coalesced.get(0).getUserId());
+        assertEquals(new HashSet<>(Arrays.asList("jcr:title", "jcr:description")),
+            coalesced.get(0).getChangedPropertyNames());
+        assertEquals("replication-service", coalesced.get(1).getUserId());
+        assertEquals(Collections.singleton("cq:lastReplicated"), coalesced.get(1).getChangedPropertyNames());
+    }
+
+    @Test
+    void handlersReceiveChangesOffTheCallingThread(AemContext context) throws Exception {
+        BlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+        BlockingQueue<List<ResourceChange>> received = new LinkedBlockingQueue<>();
+        context.registerService(ChangeHandler.class, changes -> {
+            threads.add(Thread.currentThread());
+            received.add(changes);
+        });
+        ChangePipeline fixture = context.registerInjectActivateService(pipeline());
+
+        fixture.enqueue(Arrays.asList(
+            change(ChangeType.CHANGED, "/content/skipton/en"),
+            change(ChangeType.CHANGED, "/content/skipton/en")));
+
+        List<ResourceChange> changes = received.poll(5, TimeUnit.SECONDS);
+        assertEquals(1, changes.size());
+        assertTrue(threads.take() != Thread.currentThread());
+        assertEquals(2, fixture.getReceivedChanges());
+        assertEquals(1, fixture.getDispatchedChanges());
+        assertEquals(0, fixture.getDroppedChanges());
+    }
+
+    @Test
+    void fullQueueDropsChangesWithoutBlocking(AemContext context) throws Exception {
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        context.registerService(ChangeHandler.class, changes -> {
+            handling.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ChangePipeline fixture = context.registerInjectActivateService(pipeline(), "queue.capacity", 1);
+
+        fixture.enqueue(Collections.singletonList(change(ChangeType.CHANGED, "/content/skipton/a")));
+        assertTrue(handling.await(5, TimeUnit.SECONDS));
+        fixture.enqueue(Collections.singletonList(change(ChangeType.CHANGED, "/content/skipton/b")));
+        fixture.enqueue(Arrays.asList(
+            change(ChangeType.CHANGED, "/content/skipton/c"),
+            change(ChangeType.CHANGED, "/content/skipton/d")));
+
+        assertEquals(1, fixture.getQueueDepth());
+        assertEquals(2, fixture.getDroppedChanges());
+        release.countDown();
+    }
+
+    @Test
+    void deactivateLetsRunningHandlerFinishWithoutInterrupt(AemContext context) throws Exception {
+        CountDownLatch handling = new CountDownLatch(1);
+        BlockingQueue<Boolean> interrupted = new LinkedBlockingQueue<>();
+        context.registerService(ChangeHandler.class, changes -> {
+            handling.countDown();
+            try {
+                Thread.sleep(200);
+                interrupted.add(false);
+            } catch (InterruptedException e) {
+                interrupted.add(true);
+            }
+        });
+        ChangePipeline fixture = context.registerInjectActivateService(pipeline());
+
+        fixture.enqueue(Collections.singletonList(change(ChangeType.CHANGED, "/content/skipton/a")));
+        assertTrue(handling.await(5, TimeUnit.SECONDS));
+        fixture.deactivate();
+
+        assertEquals(Boolean.FALSE, interrupted.poll(5, TimeUnit.SECONDS));
+    }
+
+    private static ResourceChange change(ChangeType type, String path) {
+        return new ResourceChange(type, path, false);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static ResourceChange change(String path, String userId, String... changedProperties) {
+        ResourceChange change = mock(ResourceChange.class);
+        when(change.getType()).thenReturn(ChangeType.CHANGED);
+        when(change.getPath()).thenReturn(path);
+        when(change.getUserId()).thenReturn(userId);
+        when(change.getAddedPropertyNames()).thenReturn(Collections.emptySet());
+        when(change.getChangedPropertyNames()).thenReturn(new HashSet<>(Arrays.asList(changedProperties)));
+        when(change.getRemovedPropertyNames()).thenReturn(Collections.emptySet());
+        return change;
+    }
+
+    private static ChangePipeline pipeline() {
+        try {
+            return new ChangePipeline();
+        } catch (javax.management.NotCompliantMBeanException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.skipton.core.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.Workflow;
+import com.adobe.granite.workflow.exec.WorkflowData;
+import com.adobe.granite.workflow.model.WorkflowModel;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import com.skipton.core.testcontext.AppAemContext;
+import com.skipton.core.workflows.PackageFilterCompiler;
+import com.skipton.core.workflows.PayloadListCache;
+import com.skipton.core.workflows.WorkItemIndex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * JUnit test verifying the paging of the PayloadListModel
+ */
+@ExtendWith(AemContextExtension.class)
+class PayloadListModelTest {
+
+    private static final String PACKAGE_PATH = "/var/workflow/packages/approval-package";
+    private static final String WORKFLOW_ID = "/var/workflow/instances/server0/2024-01-01/approval_1";
+    private static final int ROOT_COUNT = 12;
+
+    private final AemContext context = AppAemContext.newAemContextBuilder(ResourceResolverType.JCR_MOCK).build();
+
+    @BeforeEach
+    public void setup() throws Exception {
+        context.addModelsForClasses(PayloadListModel.class);
+
+        context.create().resource(PACKAGE_PATH + "/definition/filter");
+        for (int i = 0; i < ROOT_COUNT; i++) {
+            String pagePath = "/content/skipton/us/en/page" + i;
+            context.create().page(pagePath);
+            context.create().resource(PACKAGE_PATH + "/definition/filter/f" + i, "root", pagePath);
+        }
+
+        context.currentResource(context.create().resource("/content/skipton/us/en/page0/jcr:content/payloadlist",
+            "sling:resourceType", "skipton/components/workflow/payloadlist",
+            "pageSize", 5));
+        context.request().setAttribute("workItem", workItem(PACKAGE_PATH));
+    }
+
+    @Test
+    void testFirstPage() {
+        PayloadListModel model = context.request().adaptTo(PayloadListModel.class);
+
+        assertNotNull(model);
+        assertEquals(ROOT_COUNT, model.getPayloadCount());
+        assertEquals(5, model.getPayloadItems().size());
+        assertEquals("/content/skipton/us/en/page0", model.getPayloadItems().get(0).getPath());
+        assertEquals(1, model.getPageStart());
+        assertEquals(5, model.getPageEnd());
+        assertNotNull(model.getNextPageToken());
+    }
+
+    @Test
+    void testNextPageToken() {
+        String token = context.request().adaptTo(PayloadListModel.class).getNextPageToken();
+        context.request().setParameterMap(Collections.singletonMap("pageToken", token));
+
+        PayloadListModel model = context.request().adaptTo(PayloadListModel.class);
+
+        assertEquals(5, model.getOffset());
+        assertEquals(5, model.getLimit());
+        assertEquals("/content/skipton/us/en/page5", model.getPayloadItems().get(0).getPath());
+    }
+
+    @Test
+    void testLastPage() {
+        context.request().setParameterMap(Collections.singletonMap("offset", "10"));
+
+        PayloadListModel model = context.request().adaptTo(PayloadListModel.class);
+
+        assertEquals(2, model.getPayloadItems().size());
+        assertNull(model.getNextPageToken());
+        assertNull(model.getNextPageUrl());
+    }
+
+    @Test
+    void testPackagePagesOverCoveredResources() {
+        context.registerInjectActivateService(new PackageFilterCompiler());
+        context.create().page("/content/skipton/us/en/page1/child-a");
+        context.create().page("/content/skipton/us/en/page1/child-b");
+
+        PayloadListModel model = context.request().adaptTo(PayloadListModel.class);
+
+        assertEquals(ROOT_COUNT + 2, model.getPayloadCount());
+        assertEquals(Arrays.asList("/content/skipton/us/en/page0", "/content/skipton/us/en/page1",
+                "/content/skipton/us/en/page1/child-a", "/content/skipton/us/en/page1/child-b", "/content/skipton/us/en/page2"),
+            model.getPayloadItems().stream().map(PayloadListModel.PayloadItem::getPath).collect(Collectors.toList()));
+        assertEquals(5, model.getPageEnd());
+
+        context.request().setParameterMap(Collections.singletonMap("offset", "10"));
+        model = context.request().adaptTo(PayloadListModel.class);
+        assertEquals(4, model.getPayloadItems().size());
+        assertNull(model.getNextPageToken());
+    }
+
+    @Test
+    void testStreamedPageIsCached() throws Exception {
+        context.registerInjectActivateService(new PayloadListCache());
+        List<String> streamed = new ArrayList<>();
+        context.request().adaptTo(PayloadListModel.class).streamPayloadItems(item -> streamed.add(item.getPath()));
+        assertEquals(5, streamed.size());
+
+        // Without a change event the cache is not invalidated, so the removed page is still listed
+        context.resourceResolver().delete(context.resourceResolver().getResource("/content/skipton/us/en/page1"));
+        context.resourceResolver().commit();
+
+        List<PayloadListModel.PayloadItem> items = context.request().adaptTo(PayloadListModel.class).getPayloadItems();
+        assertEquals(streamed.get(1), items.get(1).getPath());
+    }
+
+    @Test
+    void testIndexedWorkItemNeedsReadAccess() throws Exception {
+        String itemId = WORKFLOW_ID + "/workItems/node1_var_workflow_instances";
+        WorkItem item = workItem(PACKAGE_PATH);
+        Workflow workflow = item.getWorkflow();
+        when(item.getId()).thenReturn(itemId);
+        when(workflow.getWorkItems()).thenReturn(Collections.singletonList(item));
+        WorkflowSession workflowSession = mock(WorkflowSession.class);
+        when(workflowSession.getWorkflows(any(String[].class))).thenReturn(new Workflow[] { workflow });
+        when(workflowSession.getActiveWorkItems()).thenReturn(new WorkItem[0]);
+        context.registerAdapter(ResourceResolver.class, WorkflowSession.class, workflowSession);
+        context.registerInjectActivateService(new WorkItemIndex());
+        context.request().removeAttribute("workItem");
+        context.request().setParameterMap(Collections.singletonMap("item", itemId));
+
+        // The service user seeded the index, but the caller cannot read the workflow
+        assertEquals(3, context.request().adaptTo(PayloadListModel.class).getPayloadCount());
+
+        when(workflowSession.getWorkflow(WORKFLOW_ID)).thenReturn(workflow);
+        assertEquals(ROOT_COUNT, context.request().adaptTo(PayloadListModel.class).getPayloadCount());
+    }
+
+    private static WorkItem workItem(String payload) {
+        WorkItem item = mock(WorkItem.class);
+        Workflow workflow = mock(Workflow.class);
+        WorkflowModel workflowModel = mock(WorkflowModel.class);
+        WorkflowData workflowData = mock(WorkflowData.class);
+
+        when(item.getWorkflow()).thenReturn(workflow);
+        when(item.getWorkflowData()).thenReturn(workflowData);
+        when(workflow.getId()).thenReturn(WORKFLOW_ID);
+        when(workflow.getWorkflowModel()).thenReturn(workflowModel);
+        when(workflow.getWorkflowData()).thenReturn(workflowData);
+        when(workflowModel.getTitle()).thenReturn("Approval");
+        when(workflowData.getPayload()).thenReturn(payload);
+        return item;
+    }
+}
@@ -0,0 +1,190 @@
+package com.skipton.core.references;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(AemContextExtension.class)
+class ReferenceGraphTest {
+
+    private static final String LOGO = "/content/dam/skipton/logo.png";
+    private static final String OFFER = "/content/dam/skipton/fragments/offer";
+    private static final String HEADER = "/content/experience-fragments/skipton/header/master";
+    private static final String PAGE = "/content/skipton/us/en/page";
+    private static final String OTHER = "/content/skipton/us/en/other";
+    private static final String NEW = "/content/skipton/us/en/new";
+
+    @BeforeEach
+    void setup(AemContext context) throws PersistenceException {
+        context.create().resource(PAGE + "/jcr:content/root/image", "fileReference", LOGO);
+        context.create().resource(PAGE + "/jcr:content/root/header", "fragmentVariationPath", HEADER);
+        context.create().resource(HEADER + "/jcr:content/root/image", "fileReference", LOGO);
+        context.create().resource(OTHER + "/jcr:content/root/offer", "fragmentPath", OFFER);
+        context.resourceResolver().commit();
+    }
+
+    @Test
+    void crawlFindsReferrersAndTransitiveDependants(AemContext context) {
+        ReferenceGraph fixture = graph(context);
+
+        assertEquals(set(HEADER, PAGE), new HashSet<>(fixture.getReferrers(LOGO)));
+        assertEquals(set(LOGO, HEADER), new HashSet<>(fixture.getReferences(PAGE)));
+        assertEquals(Collections.singletonList(OTHER), fixture.getReferrers(OFFER));
+        assertEquals(set(HEADER, PAGE), fixture.getDependants(LOGO));
+        assertEquals(4, fixture.getReferenceCount());
+    }
+
+    @Test
+    void changesUpdateTheGraphIncrementally(AemContext context) throws PersistenceException {
+        ReferenceGraph fixture = graph(context);
+        ResourceResolver resolver = context.resourceResolver();
+
+        resolver.delete(resolver.getResource(PAGE + "/jcr:content/root/image"));
+        context.create().resource(OTHER + "/child/jcr:content/root/image", "fileReference", LOGO);
+        resolver.delete(resolver.getResource(OTHER + "/jcr:content"));
+        resolver.commit();
+
+        fixture.handle(Arrays.asList(
+            new ResourceChange(ChangeType.REMOVED, PAGE + "/jcr:content/root/image", false),
+            new ResourceChange(ChangeType.REMOVED, OTHER + "/jcr:content", false),
+            new ResourceChange(ChangeType.ADDED, OTHER + "/child", false),
+            new ResourceChange(ChangeType.CHANGED, "/content/elsewhere/jcr:content", false)));
+
+        assertEquals(set(HEADER, OTHER + "/child"), new HashSet<>(fixture.getReferrers(LOGO)));
+        assertEquals(set(HEADER, PAGE, OTHER + "/child"), fixture.getDependants(LOGO));
+        assertTrue(fixture.getReferrers(OFFER).isEmpty());
+
+        resolver.delete(resolver.getResource(OTHER));
+        resolver.commit();
+        fixture.handle(Collections.singletonList(new ResourceChange(ChangeType.REMOVED, OTHER, false)));
+        assertEquals(Collections.singletonList(HEADER), fixture.getReferrers(LOGO));
+    }
+
+    @Test
+    void snapshotIsLoadedInsteadOfCrawling(AemContext context) throws PersistenceException {
+        graph(context);
+        assertNotNull(context.resourceResolver().getResource(ReferenceGraph.SNAPSHOT_PATH + "/jcr:content"));
+
+        // A reference added without a modification date is not seen, proving the snapshot was used
+        context.create().resource(OTHER + "/jcr:content/root/image", "fileReference", LOGO);
+        context.resourceResolver().commit();
+
+        ReferenceGraph restarted = graph(context);
+        assertEquals(Collections.singletonList(OTHER), restarted.getReferrers(OFFER));
+        assertEquals(set(HEADER, PAGE), restarted.getDependants(LOGO));
+    }
+
+    @Test
+    void staleSnapshotCatchesUpWithChangedContent(AemContext context) throws PersistenceException {
+        graph(context);
+        ResourceResolver resolver = context.resourceResolver();
+        Calendar written = Calendar.getInstance();
+        written.add(Calendar.HOUR_OF_DAY, -1);
+        resolver.getResource(ReferenceGraph.SNAPSHOT_PATH + "/jcr:content").adaptTo(ModifiableValueMap.class)
+            .put("jcr:lastModified", written);
+
+        // Changed while no graph was running: a page edited, one removed and one created
+        resolver.delete(resolver.getResource(PAGE + "/jcr:content/root/image"));
+        resolver.getResource(PAGE + "/jcr:content").adaptTo(ModifiableValueMap.class)
+            .put("cq:lastModified", Calendar.getInstance());
+        resolver.delete(resolver.getResource(OTHER));
+        context.create().resource(NEW + "/jcr:content", "cq:lastModified", Calendar.getInstance());
+        context.create().resource(NEW + "/jcr:content/root/offer", "fragmentPath", OFFER);
+        resolver.commit();
+
+        ReferenceGraph restarted = graph(context);
+        assertEquals(Collections.singletonList(HEADER), restarted.getReferrers(LOGO));
+        assertEquals(Collections.singletonList(HEADER), restarted.getReferences(PAGE));
+        assertEquals(Collections.singletonList(NEW), restarted.getReferrers(OFFER));
+        assertEquals(set(HEADER, PAGE), restarted.getDependants(LOGO));
+    }
+
+    @Test
+    void indexSnapshotDropsUnreferencedPaths() throws IOException {
+        ReferenceIndex index = new ReferenceIndex();
+        index.set(PAGE, Arrays.asList(LOGO, HEADER, LOGO));
+        index.set(HEADER, Collections.singletonList(LOGO));
+        index.set(OTHER, Collections.singletonList(OFFER));
+        index.removeBelow("/content/skipton/us/en/other");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            index.write(out);
+        }
+        ReferenceIndex read = ReferenceIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(3, read.referenceCount());
+        assertTrue(read.pathCount() < index.pathCount());
+        assertEquals(Arrays.asList(PAGE, HEADER), read.sources(LOGO));
+        assertEquals(Arrays.asList(LOGO, HEADER), read.targets(PAGE));
+        assertTrue(read.sources(OFFER).isEmpty());
+    }
+
+    @Test
+    void indexCompactionReclaimsRemovedPaths() {
+        ReferenceIndex index = new ReferenceIndex();
+        index.set(PAGE, Arrays.asList(LOGO, HEADER));
+        index.set(HEADER, Collections.singletonList(LOGO));
+        for (int i = 0; i < 50; i++) {
+            index.set(OTHER + "/child-" + i, Collections.singletonList(OFFER + "-" + i));
+        }
+        int grown = index.pathCount();
+        index.removeBelow(OTHER);
+
+        assertTrue(index.compact());
+        assertTrue(index.pathCount() < grown / 2);
+        assertEquals(3, index.referenceCount());
+        assertEquals(Arrays.asList(PAGE, HEADER), index.sources(LOGO));
+        assertEquals(Arrays.asList(LOGO, HEADER), index.targets(PAGE));
+        assertTrue(index.sources(OFFER + "-0").isEmpty());
+
+        index.set(OTHER, Collections.singletonList(OFFER));
+        assertEquals(Collections.singletonList(OTHER), index.sources(OFFER));
+        assertEquals(set(HEADER, PAGE), index.dependants(LOGO, 10));
+    }
+
+    private static ReferenceGraph graph(AemContext context) {
+        ReferenceGraph graph;
+        try {
+            graph = new ReferenceGraph();
+        } catch (javax.management.NotCompliantMBeanException e) {
+            throw new IllegalStateException(e);
+        }
+        ReferenceGraph fixture = context.registerInjectActivateService(graph,
+            "crawl.threads", 2, "partition.depth", 1);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!fixture.isReady() && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        assertTrue(fixture.isReady());
+        return fixture;
+    }
+
+    private static Set<String> set(String... paths) {
+        return new LinkedHashSet<>(Arrays.asList(paths));
+    }
+}
@@ -0,0 +1,109 @@
+package com.skipton.core.schedulers;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(AemContextExtension.class)
+class WorkflowPurgeTaskTest {
+
+    private static final String MODEL = "/var/workflow/models/request_for_activation";
+    private static final String OLD_BUCKET = "/var/workflow/instances/server0/2020-01-01";
+    private static final String NEW_BUCKET = "/var/workflow/instances/server0/2999-01-01";
+
+    @BeforeEach
+    void setup(AemContext context) {
+        instance(context, OLD_BUCKET + "/approval_1", "COMPLETED", MODEL, daysAgo(60));
+        instance(context, OLD_BUCKET + "/approval_2", "ABORTED", MODEL, daysAgo(45));
+        instance(context, OLD_BUCKET + "/approval_3", "RUNNING", MODEL, null);
+        instance(context, OLD_BUCKET + "/approval_4", "COMPLETED", MODEL, daysAgo(2));
+        instance(context, OLD_BUCKET + "/other_1", "COMPLETED", "/var/workflow/models/other", daysAgo(60));
+        instance(context, NEW_BUCKET + "/approval_5", "COMPLETED", MODEL, daysAgo(60));
+    }
+
+    @Test
+    void runPurgesOldCompletedApprovalInstances(AemContext context) {
+        WorkflowPurgeTask fixture = context.registerInjectActivateService(new WorkflowPurgeTask(),
+            "batch.size", 1, "save.pause", 0L);
+
+        fixture.run();
+
+        ResourceResolver resolver = context.resourceResolver();
+        assertNull(resolver.getResource(OLD_BUCKET + "/approval_1"));
+        assertNull(resolver.getResource(OLD_BUCKET + "/approval_2"));
+        assertNotNull(resolver.getResource(OLD_BUCKET + "/approval_3"));
+        assertNotNull(resolver.getResource(OLD_BUCKET + "/approval_4"));
+        assertNotNull(resolver.getResource(OLD_BUCKET + "/other_1"));
+        assertNotNull(resolver.getResource(NEW_BUCKET + "/approval_5"));
+        assertNull(resolver.getResource(WorkflowPurgeTask.CHECKPOINT_PATH).getValueMap().get(WorkflowPurgeTask.CURSOR));
+    }
+
+    @Test
+    void runResumesAfterCheckpointWhenBudgetIsSpent(AemContext context) {
+        WorkflowPurgeTask fixture = context.registerInjectActivateService(new WorkflowPurgeTask(),
+            "batch.size", 10, "save.pause", 0L, "time.budget", 0L);
+
+        fixture.run();
+
+        ResourceResolver resolver = context.resourceResolver();
+        assertNull(resolver.getResource(OLD_BUCKET + "/approval_1"));
+        assertNotNull(resolver.getResource(OLD_BUCKET + "/approval_2"));
+        assertEquals(OLD_BUCKET + "/approval_1", resolver.getResource(WorkflowPurgeTask.CHECKPOINT_PATH)
+            .getValueMap().get(WorkflowPurgeTask.CURSOR, String.class));
+
+        fixture.run();
+
+        resolver.refresh();
+        assertNull(resolver.getResource(OLD_BUCKET + "/approval_2"));
+        assertEquals(OLD_BUCKET + "/approval_2", resolver.getResource(WorkflowPurgeTask.CHECKPOINT_PATH)
+            .getValueMap().get(WorkflowPurgeTask.CURSOR, String.class));
+    }
+
+    @Test
+    void runResumesInTheOrderChildrenAreWalked(AemContext context) {
+        // "server0-b" sorts after "server0" by name but before "server0/..." as a plain string
+        String laterServer = "/var/workflow/instances/server0-b/2020-01-01";
+        instance(context, laterServer + "/approval_6", "COMPLETED", MODEL, daysAgo(60));
+        context.create().resource(WorkflowPurgeTask.CHECKPOINT_PATH, WorkflowPurgeTask.CURSOR, OLD_BUCKET + "/approval_1");
+        WorkflowPurgeTask fixture = context.registerInjectActivateService(new WorkflowPurgeTask(),
+            "batch.size", 10, "save.pause", 0L);
+
+        fixture.run();
+
+        ResourceResolver resolver = context.resourceResolver();
+        assertNotNull(resolver.getResource(OLD_BUCKET + "/approval_1"));
+        assertNull(resolver.getResource(laterServer + "/approval_6"));
+        assertNull(resolver.getResource(OLD_BUCKET + "/approval_2"));
+        assertTrue(WorkflowPurgeTask.comparePaths(OLD_BUCKET + "/approval_1", laterServer) < 0);
+        assertTrue(WorkflowPurgeTask.comparePaths(OLD_BUCKET, OLD_BUCKET + "/approval_1") < 0);
+    }
+
+    private static void instance(AemContext context, String path, String status, String modelId, Calendar endTime) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("status", status);
+        properties.put("modelId", modelId);
+        if (endTime != null) {
+            properties.put("endTime", endTime);
+        }
+        context.create().resource(path, properties);
+        context.create().resource(path + "/data/metaData", "status", "APPROVED");
+    }
+
+    private static Calendar daysAgo(int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, -days);
+        return calendar;
+    }
+}
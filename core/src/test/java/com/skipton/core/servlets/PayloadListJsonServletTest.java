@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.skipton.core.servlets;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.servlet.ServletException;
+
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.Workflow;
+import com.adobe.granite.workflow.exec.WorkflowData;
+import com.adobe.granite.workflow.model.WorkflowModel;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skipton.core.models.PayloadListModel;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class PayloadListJsonServletTest {
+
+    private PayloadListJsonServlet fixture = new PayloadListJsonServlet();
+
+    @BeforeEach
+    void setup(AemContext context) {
+        context.addModelsForClasses(PayloadListModel.class);
+        context.create().page("/content/skipton/us/en/payload", null, "Payload Page");
+        context.currentResource(context.create().resource("/content/skipton/us/en/approval/jcr:content/payloadlist",
+            "sling:resourceType", "skipton/components/workflow/payloadlist"));
+        context.request().setAttribute("workItem", workItem("/content/skipton/us/en/payload"));
+    }
+
+    @Test
+    void doGetWritesAllFields(AemContext context) throws ServletException, IOException {
+        MockSlingHttpServletResponse response = context.response();
+
+        fixture.doGet(context.request(), response);
+
+        assertEquals("application/json", response.getContentType().split(";")[0]);
+        JsonNode json = new ObjectMapper().readTree(response.getOutputAsString());
+        assertEquals("/content/skipton/us/en/payload", json.get("payloadPath").asText());
+        assertEquals(1, json.get("items").size());
+        JsonNode item = json.get("items").get(0);
+        assertEquals("/content/skipton/us/en/payload", item.get("path").asText());
+        assertEquals("Payload Page", item.get("title").asText());
+        assertEquals("Page", item.get("category").asText());
+        assertFalse(json.get("truncated").asBoolean());
+    }
+
+    @Test
+    void doGetWritesSelectedFieldsOnly(AemContext context) throws ServletException, IOException {
+        context.request().setParameterMap(Collections.singletonMap(PayloadListJsonServlet.PARAM_FIELDS, "path"));
+        MockSlingHttpServletResponse response = context.response();
+
+        fixture.doGet(context.request(), response);
+
+        JsonNode item = new ObjectMapper().readTree(response.getOutputAsString()).get("items").get(0);
+        assertTrue(item.has("path"));
+        assertFalse(item.has("title"));
+        assertFalse(item.has("category"));
+    }
+
+    private static WorkItem workItem(String payload) {
+        WorkItem item = mock(WorkItem.class);
+        Workflow workflow = mock(Workflow.class);
+        WorkflowModel workflowModel = mock(WorkflowModel.class);
+        WorkflowData workflowData = mock(WorkflowData.class);
+
+        when(item.getWorkflow()).thenReturn(workflow);
+        when(item.getWorkflowData()).thenReturn(workflowData);
+        when(workflow.getId()).thenReturn("/var/workflow/instances/server0/2024-01-01/approval_1");
+        when(workflow.getWorkflowModel()).thenReturn(workflowModel);
+        when(workflow.getWorkflowData()).thenReturn(workflowData);
+        when(workflowModel.getTitle()).thenReturn("Approval");
+        when(workflowData.getPayload()).thenReturn(payload);
+        return item;
+    }
+}
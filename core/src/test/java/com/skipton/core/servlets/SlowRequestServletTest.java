@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2015 Adobe Systems Incorporated
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.skipton.core.servlets;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.jcr.RepositoryException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import com.skipton.core.filters.SlowRequestStore;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class SlowRequestServletTest {
+
+    @Test
+    void doPostIsForbiddenForNonAdministrators(AemContext context) throws ServletException, IOException {
+        SlowRequestStore store = mock(SlowRequestStore.class);
+        context.registerService(SlowRequestStore.class, store);
+        SlowRequestServlet fixture = context.registerInjectActivateService(new SlowRequestServlet());
+
+        fixture.doPost(context.request(), context.response());
+
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, context.response().getStatus());
+        verify(store, never()).clear();
+    }
+
+    @Test
+    void administratorsAreTheAdminUserAndMembersOfTheAdministratorsGroup()
+            throws ServletException, RepositoryException {
+        assertTrue(SlowRequestServlet.isAdministrator(resolver(true)));
+        assertTrue(SlowRequestServlet.isAdministrator(resolver(false, "contributor", "administrators")));
+        assertFalse(SlowRequestServlet.isAdministrator(resolver(false, "contributor", "content-authors")));
+    }
+
+    private static ResourceResolver resolver(boolean admin, String... groupIds) throws RepositoryException {
+        User user = mock(User.class);
+        when(user.isAdmin()).thenReturn(admin);
+        Group[] groups = new Group[groupIds.length];
+        for (int i = 0; i < groupIds.length; i++) {
+            groups[i] = mock(Group.class);
+            when(groups[i].getID()).thenReturn(groupIds[i]);
+        }
+        when(user.memberOf()).thenReturn(groupIds.length > 0
+            ? Arrays.asList(groups).iterator() : Collections.<Group>emptyIterator());
+        UserManager userManager = mock(UserManager.class);
+        when(userManager.getAuthorizable("someone")).thenReturn(user);
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getUserID()).thenReturn("someone");
+        when(resolver.adaptTo(UserManager.class)).thenReturn(userManager);
+        return resolver;
+    }
+}
@@ -0,0 +1,115 @@
+package com.skipton.core.workflows;
+
+import java.util.Arrays;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.HistoryItem;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.Workflow;
+import com.adobe.granite.workflow.exec.WorkflowData;
+import com.adobe.granite.workflow.metadata.MetaDataMap;
+import com.skipton.core.audit.ApprovalAuditLog;
+import com.skipton.core.audit.AuditEvent;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class ApprovalDecisionProcessorTest {
+
+    private static final String INSTANCE = "/var/workflow/instances/server0/2024-01-01/approval_1";
+    private static final String PAYLOAD = "/content/skipton/us/en/page";
+
+    private final WorkflowSession workflowSession = mock(WorkflowSession.class);
+    private final ApprovalAuditLog auditLog = mock(ApprovalAuditLog.class);
+
+    private ApprovalDecisionProcessor fixture;
+    private WorkItem workItem;
+
+    @BeforeEach
+    void setup(AemContext context) throws WorkflowException {
+        context.registerService(ApprovalAuditLog.class, auditLog);
+        fixture = context.registerInjectActivateService(new ApprovalDecisionProcessor());
+
+        context.create().resource(INSTANCE + "/data/metaData", "decision", "approve");
+        workItem = workItem(context.resourceResolver());
+        when(workflowSession.adaptTo(ResourceResolver.class)).thenReturn(context.resourceResolver());
+        when(workflowSession.getHistory(any(Workflow.class))).thenReturn(Arrays.asList(
+            history("workflow-process-service"), history("jane.approver")));
+    }
+
+    @Test
+    void auditNamesApproverOfPreviousStep(AemContext context) {
+        fixture.execute(workItem, workflowSession, null);
+
+        AuditEvent event = recorded();
+        assertEquals("jane.approver", event.getUserId());
+        assertNotEquals(context.resourceResolver().getUserID(), event.getUserId());
+        assertEquals("APPROVED", event.getStatus());
+    }
+
+    @Test
+    void auditPrefersRecordedApproverAndConsumesIt(AemContext context) {
+        context.resourceResolver().getResource(INSTANCE + "/data/metaData").adaptTo(ModifiableValueMap.class)
+            .put(ApprovalDecisionProcessor.LAST_APPROVER, "john.batch");
+
+        fixture.execute(workItem, workflowSession, null);
+
+        assertEquals("john.batch", recorded().getUserId());
+        assertFalse(context.resourceResolver().getResource(INSTANCE + "/data/metaData").getValueMap()
+            .containsKey(ApprovalDecisionProcessor.LAST_APPROVER));
+    }
+
+    private AuditEvent recorded() {
+        ArgumentCaptor<AuditEvent> event = ArgumentCaptor.forClass(AuditEvent.class);
+        verify(auditLog).record(event.capture());
+        return event.getValue();
+    }
+
+    private static HistoryItem history(String userId) {
+        HistoryItem item = mock(HistoryItem.class);
+        when(item.getUserId()).thenReturn(userId);
+        return item;
+    }
+
+    private static WorkItem workItem(ResourceResolver resolver) {
+        WorkItem item = mock(WorkItem.class);
+        Workflow workflow = mock(Workflow.class);
+        WorkflowData workflowData = mock(WorkflowData.class);
+
+        when(item.getWorkflow()).thenReturn(workflow);
+        when(item.getWorkflowData()).thenReturn(workflowData);
+        when(workflow.getId()).thenReturn(INSTANCE);
+        when(workflow.getWorkflowData()).thenReturn(workflowData);
+        when(workflowData.getMetaDataMap()).thenReturn(metaDataMap(resolver, INSTANCE + "/data/metaData"));
+        when(workflowData.getPayload()).thenReturn(PAYLOAD);
+        return item;
+    }
+
+    private static MetaDataMap metaDataMap(ResourceResolver resolver, String path) {
+        MetaDataMap map = mock(MetaDataMap.class);
+        when(map.get(anyString(), eq(String.class))).thenAnswer(invocation ->
+            resolver.getResource(path).getValueMap().get(invocation.<String>getArgument(0), String.class));
+        when(map.put(anyString(), any())).thenAnswer(invocation ->
+            resolver.getResource(path).adaptTo(ModifiableValueMap.class).put(invocation.getArgument(0), invocation.getArgument(1)));
+        when(map.remove(any())).thenAnswer(invocation ->
+            resolver.getResource(path).adaptTo(ModifiableValueMap.class).remove(invocation.getArgument(0)));
+        return map;
+    }
+}
@@ -0,0 +1,110 @@
+package com.skipton.core.workflows;
+
+import java.util.Collections;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+@ExtendWith(AemContextExtension.class)
+class ApprovalStatusCountersTest {
+
+    private static final String INSTANCES = "/var/workflow/instances/server0/2024-01-01";
+
+    @Test
+    void transitionsMoveCountsBetweenStatuses(AemContext context) {
+        ApprovalStatusCounters fixture = context.registerInjectActivateService(counters());
+        fixture.run(); // no checkpoint yet, rebuilds from an empty instance tree
+
+        fixture.transition(null, "PENDING");
+        fixture.transition(null, "PENDING");
+        fixture.transition("PENDING", "APPROVED");
+        fixture.transition("APPROVED", "APPROVED");
+
+        assertEquals(Long.valueOf(1), fixture.getCounts().get("PENDING"));
+        assertEquals(Long.valueOf(1), fixture.getCounts().get("APPROVED"));
+    }
+
+    @Test
+    void checkpointIsLoadedOnActivation(AemContext context) {
+        ApprovalStatusCounters fixture = context.registerInjectActivateService(counters());
+        fixture.run();
+        fixture.transition(null, "DENIED");
+        fixture.run();
+
+        ValueMap counts = context.resourceResolver().getResource(ApprovalStatusCounters.CHECKPOINT_PATH + "/counts").getValueMap();
+        assertEquals(Long.valueOf(1), counts.get("DENIED", Long.class));
+        assertTrue(fixture.getCheckpointedAt() > 0);
+
+        ApprovalStatusCounters restarted = context.registerInjectActivateService(counters());
+        assertEquals(Long.valueOf(1), restarted.getCounts().get("DENIED"));
+    }
+
+    @Test
+    void rebuildCountsWorkflowInstances(AemContext context) throws PersistenceException {
+        createInstance(context, "approval_1", "APPROVED");
+        createInstance(context, "approval_2", "PENDING");
+        createInstance(context, "approval_3", "PENDING");
+        context.create().resource(INSTANCES + "/approval_4/data/metaData");
+        context.resourceResolver().commit();
+
+        ApprovalStatusCounters fixture = context.registerInjectActivateService(counters());
+        fixture.transition(null, "DENIED");
+        fixture.rebuild();
+        assertTrue(fixture.isRebuilding());
+        assertNull(fixture.getCounts().get("APPROVED")); // only requested, the scheduled run recounts
+
+        fixture.run();
+
+        assertFalse(fixture.isRebuilding());
+        assertEquals(Long.valueOf(1), fixture.getCounts().get("APPROVED"));
+        assertEquals(Long.valueOf(2), fixture.getCounts().get("PENDING"));
+        assertNull(fixture.getCounts().get("DENIED"));
+    }
+
+    @Test
+    void rebuildKeepsTransitionsRecordedDuringTheWalk(AemContext context) throws PersistenceException {
+        createInstance(context, "approval_1", "PENDING");
+        createInstance(context, "approval_2", "PENDING");
+        context.resourceResolver().commit();
+
+        ApprovalStatusCounters fixture = context.registerInjectActivateService(spy(counters()));
+        doAnswer(invocation -> {
+            Object counted = invocation.callRealMethod();
+            // A new workflow and a decision arrive while the walk is running
+            fixture.transition(null, "PENDING");
+            fixture.transition("PENDING", "APPROVED");
+            return counted;
+        }).when(fixture).walk(any(ResourceResolver.class));
+
+        fixture.recount();
+
+        assertEquals(Long.valueOf(2), fixture.getCounts().get("PENDING"));
+        assertEquals(Long.valueOf(1), fixture.getCounts().get("APPROVED"));
+    }
+
+    private static ApprovalStatusCounters counters() {
+        try {
+            return new ApprovalStatusCounters();
+        } catch (javax.management.NotCompliantMBeanException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void createInstance(AemContext context, String name, String status) {
+        context.create().resource(INSTANCES + "/" + name + "/data/metaData",
+            Collections.<String, Object>singletonMap("status", status));
+    }
+}
@@ -0,0 +1,183 @@
+package com.skipton.core.workflows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.Route;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.Workflow;
+import com.adobe.granite.workflow.exec.WorkflowData;
+import com.adobe.granite.workflow.metadata.MetaDataMap;
+import com.skipton.core.workflows.BatchApprovalProcessor.Decision;
+import com.skipton.core.workflows.BatchApprovalProcessor.Result;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class BatchApprovalProcessorTest {
+
+    private static final String INSTANCES = "/var/workflow/instances/server0/2024-01-01";
+    private static final String PAYLOAD = "/content/skipton/us/en/page";
+
+    private final WorkflowSession workflowSession = mock(WorkflowSession.class);
+    private final Route route = mock(Route.class);
+
+    private BatchApprovalProcessor fixture;
+
+    @BeforeEach
+    void setup(AemContext context) throws WorkflowException {
+        fixture = context.registerInjectActivateService(new BatchApprovalProcessor(), "max.batch.size", 3);
+
+        context.create().page(PAYLOAD, null, Collections.<String, Object>singletonMap("decision", "reject"));
+        for (int i = 1; i <= 2; i++) {
+            context.create().resource(INSTANCES + "/approval_" + i + "/data/metaData");
+            when(workflowSession.getWorkItem("item" + i))
+                .thenReturn(workItem(context.resourceResolver(), INSTANCES + "/approval_" + i));
+        }
+        when(workflowSession.getWorkItem("broken")).thenThrow(new WorkflowException("Repository unavailable"));
+        when(workflowSession.getRoutes(any(WorkItem.class), eq(false))).thenReturn(Collections.singletonList(route));
+    }
+
+    @Test
+    void processAppliesDecisionsWithPartialFailure(AemContext context) throws WorkflowException {
+        WorkItem item = workflowSession.getWorkItem("item1");
+
+        List<Result> results = fixture.process(workflowSession, context.resourceResolver(), Arrays.asList(
+            new Decision("item1", "approve", "Looks good", null),
+            new Decision("broken", "approve", null, null),
+            new Decision("unknown", "approve", null, null)));
+
+        assertTrue(results.get(0).isSuccess());
+        assertEquals("APPROVED", results.get(0).getStatus());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals("Repository unavailable", results.get(1).getError());
+        assertEquals("Work item not found", results.get(2).getError());
+
+        ValueMap metaData = context.resourceResolver().getResource(INSTANCES + "/approval_1/data/metaData").getValueMap();
+        assertEquals("APPROVED", metaData.get("status", String.class));
+        assertEquals("APPROVED", metaData.get("route", String.class));
+        assertEquals("approve", metaData.get("decision", String.class));
+        assertEquals("Looks good", metaData.get("comments", String.class));
+        assertEquals("Looks good", metaData.get("comment", String.class));
+        assertFalse(context.resourceResolver().hasChanges());
+        verify(workflowSession).complete(item, route);
+    }
+
+    @Test
+    void processAdvancesItemsToDecisionStep(AemContext context) throws WorkflowException {
+        ApprovalDecisionProcessor decisionProcessor = context.registerInjectActivateService(new ApprovalDecisionProcessor());
+        when(workflowSession.adaptTo(ResourceResolver.class)).thenReturn(context.resourceResolver());
+        doAnswer(invocation -> {
+            decisionProcessor.execute(invocation.getArgument(0), workflowSession, null);
+            return null;
+        }).when(workflowSession).complete(any(WorkItem.class), eq(route));
+
+        List<Result> results = fixture.process(workflowSession, context.resourceResolver(),
+            Collections.singletonList(new Decision("item1", "approve", "Ship it", null)));
+
+        assertTrue(results.get(0).isSuccess());
+        ValueMap metaData = context.resourceResolver().getResource(INSTANCES + "/approval_1/data/metaData").getValueMap();
+        assertEquals("APPROVED", metaData.get("status", String.class));
+        assertEquals("Ship it", metaData.get("comment", String.class));
+    }
+
+    @Test
+    void processKeepsSavedDecisionsWhenAdvancingOneItemFails(AemContext context) throws WorkflowException {
+        WorkItem first = workflowSession.getWorkItem("item1");
+        WorkItem second = workflowSession.getWorkItem("item2");
+        doThrow(new WorkflowException("Step failed")).when(workflowSession).complete(first, route);
+
+        List<Result> results = fixture.process(workflowSession, context.resourceResolver(), Arrays.asList(
+            new Decision("item1", "approve", null, null),
+            new Decision("item2", "approve", null, null)));
+
+        assertFalse(results.get(0).isSuccess());
+        assertEquals("Saved, but could not advance: Step failed", results.get(0).getError());
+        assertTrue(results.get(1).isSuccess());
+        verify(workflowSession).complete(second, route);
+        for (int i = 1; i <= 2; i++) {
+            assertEquals("APPROVED", context.resourceResolver().getResource(INSTANCES + "/approval_" + i + "/data/metaData")
+                .getValueMap().get("status", String.class));
+        }
+    }
+
+    @Test
+    void processReportsItemsWithoutDecisionWithoutAdvancing(AemContext context) throws WorkflowException {
+        context.resourceResolver().getResource(PAYLOAD + "/jcr:content").adaptTo(ModifiableValueMap.class).remove("decision");
+
+        List<Result> results = fixture.process(workflowSession, context.resourceResolver(),
+            Collections.singletonList(new Decision("item2", null, null, null)));
+
+        assertEquals("No approval decision found", results.get(0).getError());
+        assertFalse(context.resourceResolver().getResource(INSTANCES + "/approval_2/data/metaData").getValueMap()
+            .containsKey("status"));
+        verify(workflowSession, never()).complete(any(WorkItem.class), any(Route.class));
+    }
+
+    @Test
+    void processReadsDecisionFromPayload(AemContext context) {
+        List<Result> results = fixture.process(workflowSession, context.resourceResolver(),
+            Collections.singletonList(new Decision("item2", null, null, null)));
+
+        assertEquals("DENIED", results.get(0).getStatus());
+    }
+
+    @Test
+    void processRejectsOversizedBatch(AemContext context) {
+        List<Decision> decisions = Collections.nCopies(4, new Decision("item1", "approve", null, null));
+
+        assertThrows(IllegalArgumentException.class,
+            () -> fixture.process(workflowSession, context.resourceResolver(), decisions));
+    }
+
+    private static WorkItem workItem(ResourceResolver resolver, String workflowId) {
+        WorkItem item = mock(WorkItem.class);
+        Workflow workflow = mock(Workflow.class);
+        WorkflowData workflowData = mock(WorkflowData.class);
+
+        when(item.getWorkflow()).thenReturn(workflow);
+        when(item.getWorkflowData()).thenReturn(workflowData);
+        when(workflow.getId()).thenReturn(workflowId);
+        when(workflow.getWorkflowData()).thenReturn(workflowData);
+        when(workflowData.getMetaDataMap()).thenReturn(metaDataMap(resolver, workflowId + "/data/metaData"));
+        when(workflowData.getPayload()).thenReturn(PAYLOAD);
+        return item;
+    }
+
+    /**
+     * Workflow metadata backed by the instance resource, as the workflow engine persists it.
+     */
+    private static MetaDataMap metaDataMap(ResourceResolver resolver, String path) {
+        MetaDataMap map = mock(MetaDataMap.class);
+        when(map.get(anyString(), eq(String.class))).thenAnswer(invocation ->
+            resolver.getResource(path).getValueMap().get(invocation.<String>getArgument(0), String.class));
+        when(map.put(anyString(), any())).thenAnswer(invocation ->
+            resolver.getResource(path).adaptTo(ModifiableValueMap.class).put(invocation.getArgument(0), invocation.getArgument(1)));
+        when(map.remove(any())).thenAnswer(invocation ->
+            resolver.getResource(path).adaptTo(ModifiableValueMap.class).remove(invocation.getArgument(0)));
+        return map;
+    }
+}
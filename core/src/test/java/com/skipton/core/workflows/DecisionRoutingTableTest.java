@@ -0,0 +1,54 @@
+package com.skipton.core.workflows;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(AemContextExtension.class)
+class DecisionRoutingTableTest {
+
+    @Test
+    void defaultMappingsIgnoreCase(AemContext context) {
+        DecisionRoutingTable fixture = context.registerInjectActivateService(table());
+
+        assertEquals("APPROVED", fixture.route("Approve").getStatus());
+        assertEquals("DENIED", fixture.route("REJECT").getStatus());
+        assertEquals("REQUEST_CHANGES", fixture.route("Request Changes").getStatus());
+        assertNull(fixture.route("approved").getRoute());
+        assertEquals(0, fixture.getUnmappedCount());
+    }
+
+    @Test
+    void configuredRoutesAndUnmappedValues(AemContext context) {
+        DecisionRoutingTable fixture = context.registerInjectActivateService(table(),
+            "mappings", new String[] {"freigeben=APPROVED", "legal_review=PENDING|legal", "invalid"},
+            "default.status", "ESCALATED");
+
+        assertEquals("APPROVED", fixture.route("FREIGEBEN").getStatus());
+        assertEquals("legal", fixture.route("Legal_Review").getRoute());
+        assertEquals("ESCALATED", fixture.route("approve").getStatus());
+        assertEquals("ESCALATED", fixture.route("approve").getStatus());
+        assertEquals(2, fixture.getUnmappedCount());
+        assertEquals(Long.valueOf(2), fixture.getUnmappedValues().get("approve"));
+        assertEquals(2, fixture.getMappingCount());
+        assertEquals(2L, fixture.getUnmappedDecisions().get(new Object[] {"approve"}).get("count"));
+
+        fixture.resetUnmapped();
+
+        assertEquals(0, fixture.getUnmappedCount());
+        assertTrue(fixture.getUnmappedDecisions().isEmpty());
+    }
+
+    private static DecisionRoutingTable table() {
+        try {
+            return new DecisionRoutingTable();
+        } catch (javax.management.NotCompliantMBeanException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
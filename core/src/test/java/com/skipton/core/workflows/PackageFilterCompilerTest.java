@@ -0,0 +1,117 @@
+package com.skipton.core.workflows;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(AemContextExtension.class)
+class PackageFilterCompilerTest {
+
+    private static final String PACKAGE_PATH = "/var/workflow/packages/approval-package";
+    private static final String FILTER_PATH = PACKAGE_PATH + "/jcr:content/vlt:definition/filter";
+
+    private PackageFilterCompiler fixture;
+
+    @BeforeEach
+    void setup(AemContext context) {
+        fixture = context.registerInjectActivateService(new PackageFilterCompiler());
+
+        context.create().resource(PACKAGE_PATH + "/jcr:content", "jcr:lastModified", calendar(1000L));
+        context.create().resource(FILTER_PATH + "/f0", "root", "/content/skipton/us/en");
+        context.create().resource(FILTER_PATH + "/f0/rules/rule0", "type", "exclude", "pattern", "/content/skipton/us/en/private(/.*)?");
+        context.create().resource(FILTER_PATH + "/f1", "root", "/content/dam/skipton");
+        context.create().resource(FILTER_PATH + "/f1/rules/rule0", "type", "include", "pattern", ".*\\.pdf");
+        context.create().resource(FILTER_PATH + "/f2", "root", "/content/skipton/us/en/private/shared");
+
+        context.create().page("/content/skipton/us/en/public");
+        context.create().page("/content/skipton/us/en/private");
+        context.create().page("/content/skipton/us/en/private/shared");
+        context.create().page("/content/skipton/us/en/private/secret");
+    }
+
+    @Test
+    void compileKeepsRootOrder(AemContext context) {
+        PackageFilter filter = fixture.getFilter(context.resourceResolver(), PACKAGE_PATH);
+
+        assertEquals(Arrays.asList("/content/skipton/us/en", "/content/dam/skipton", "/content/skipton/us/en/private/shared"),
+            filter.getRoots());
+    }
+
+    @Test
+    void containsAppliesRules(AemContext context) {
+        PackageFilter filter = fixture.getFilter(context.resourceResolver(), PACKAGE_PATH);
+
+        assertTrue(filter.contains("/content/skipton/us/en"));
+        assertTrue(filter.contains("/content/skipton/us/en/public/jcr:content"));
+        assertFalse(filter.contains("/content/skipton/us/en/private/secret"));
+        // The broader root is defined first, so it decides for the nested root too
+        assertFalse(filter.contains("/content/skipton/us/en/private/shared/child"));
+        assertTrue(filter.contains("/content/dam/skipton/report.pdf"));
+        assertFalse(filter.contains("/content/dam/skipton/image.png"));
+        assertFalse(filter.contains("/content/skipton/de"));
+        assertFalse(filter.contains("/content"));
+    }
+
+    @Test
+    void listCoveredTraversesOutermostRootsOnce(AemContext context) {
+        context.create().resource("/content/dam/skipton/report.pdf", "jcr:primaryType", "dam:Asset");
+        context.create().resource("/content/dam/skipton/report.pdf/jcr:content/renditions/original.pdf");
+        context.create().resource("/content/dam/skipton/image.png", "jcr:primaryType", "dam:Asset");
+        PackageFilter filter = fixture.getFilter(context.resourceResolver(), PACKAGE_PATH);
+
+        // Content nodes are part of their item, the nested root is not traversed twice
+        assertEquals(Arrays.asList("/content/skipton/us/en", "/content/skipton/us/en/public", "/content/dam/skipton/report.pdf"),
+            filter.listCovered(context.resourceResolver(), Integer.MAX_VALUE));
+        assertEquals(Arrays.asList("/content/skipton/us/en", "/content/skipton/us/en/public"),
+            filter.listCovered(context.resourceResolver(), 2));
+    }
+
+    @Test
+    void firstCoveringFilterSetDecides() {
+        PackageFilter filter = new PackageFilter(Arrays.asList(
+            new PackageFilter.FilterSet("/content/skipton/us/en/private/shared", Collections.emptyList()),
+            new PackageFilter.FilterSet("/content/skipton/us/en", Collections.singletonList(
+                new PackageFilter.Rule(false, Pattern.compile("/content/skipton/us/en/private(/.*)?"))))));
+
+        assertTrue(filter.contains("/content/skipton/us/en/private/shared/child"));
+        assertFalse(filter.contains("/content/skipton/us/en/private/secret"));
+        assertTrue(filter.contains("/content/skipton/us/en/public"));
+    }
+
+    @Test
+    void filtersAreCachedPerRevision(AemContext context) {
+        PackageFilter filter = fixture.getFilter(context.resourceResolver(), PACKAGE_PATH);
+        assertSame(filter, fixture.getFilter(context.resourceResolver(), PACKAGE_PATH));
+
+        context.resourceResolver().getResource(PACKAGE_PATH + "/jcr:content")
+            .adaptTo(ModifiableValueMap.class).put("jcr:lastModified", calendar(2000L));
+
+        assertNotSame(filter, fixture.getFilter(context.resourceResolver(), PACKAGE_PATH));
+    }
+
+    @Test
+    void missingPackageHasNoFilter(AemContext context) {
+        assertNull(fixture.getFilter(context.resourceResolver(), "/var/workflow/packages/missing"));
+    }
+
+    private static Calendar calendar(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+}
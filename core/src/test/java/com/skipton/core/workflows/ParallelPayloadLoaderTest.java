@@ -0,0 +1,75 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class ParallelPayloadLoaderTest {
+
+    private final List<String> roots = new ArrayList<>();
+
+    @BeforeEach
+    void setup(AemContext context) throws Exception {
+        for (int i = 0; i < 20; i++) {
+            String path = "/content/skipton/us/en/page" + i;
+            context.create().page(path);
+            roots.add(path);
+        }
+        roots.add(5, "/content/skipton/us/en/missing");
+        context.resourceResolver().commit();
+    }
+
+    @Test
+    void loadKeepsRootOrder(AemContext context) {
+        ParallelPayloadLoader fixture = context.registerInjectActivateService(new ParallelPayloadLoader(),
+            "pool.size", 3, "parallel.threshold", 5);
+
+        List<PayloadItem> items = fixture.load(roots, context.resourceResolver());
+
+        assertEquals(20, items.size());
+        assertEquals(roots.stream().filter(root -> !root.endsWith("missing")).collect(Collectors.toList()),
+            items.stream().map(PayloadItem::getPath).collect(Collectors.toList()));
+    }
+
+    @Test
+    void loadBelowThresholdUsesCallerResolver(AemContext context) {
+        ParallelPayloadLoader fixture = context.registerInjectActivateService(new ParallelPayloadLoader(),
+            "parallel.threshold", 100);
+
+        List<PayloadItem> items = fixture.load(roots.subList(0, 3), context.resourceResolver());
+
+        assertEquals(3, items.size());
+        assertEquals("/content/skipton/us/en/page0", items.get(0).getPath());
+    }
+
+    @Test
+    void loadDropsItemsTheCallerCannotRead(AemContext context) {
+        ParallelPayloadLoader fixture = context.registerInjectActivateService(new ParallelPayloadLoader(),
+            "pool.size", 3, "parallel.threshold", 5, "queue.size", 1);
+        ResourceResolver caller = mock(ResourceResolver.class);
+        when(caller.getResource(anyString())).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            return path.endsWith("/page3") ? null : context.resourceResolver().getResource(path);
+        });
+
+        List<PayloadItem> items = fixture.load(roots, caller);
+
+        assertEquals(19, items.size());
+        assertFalse(items.stream().anyMatch(item -> item.getPath().endsWith("/page3")));
+    }
+}
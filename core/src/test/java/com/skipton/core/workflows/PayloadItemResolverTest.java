@@ -0,0 +1,103 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(AemContextExtension.class)
+class PayloadItemResolverTest {
+
+    private static final String ROOT = "/content/skipton/us/en";
+
+    private final List<PayloadItem> items = new ArrayList<>();
+
+    @BeforeEach
+    void setup(AemContext context) {
+        context.create().page(ROOT);
+        for (String child : new String[] {"a", "b", "c"}) {
+            context.create().page(ROOT + "/" + child);
+            context.create().page(ROOT + "/" + child + "/one");
+            context.create().page(ROOT + "/" + child + "/two");
+        }
+    }
+
+    @Test
+    void shallowResolvesPageOnly(AemContext context) {
+        new PayloadItemResolver(context.resourceResolver(), items::add).resolve(ROOT);
+
+        assertEquals(1, items.size());
+    }
+
+    @Test
+    void deepExpansionIsBreadthFirst(AemContext context) {
+        PayloadExpansion expansion = PayloadExpansion.deep(2, 100, 60000);
+
+        new PayloadItemResolver(context.resourceResolver(), items::add, expansion).resolve(ROOT);
+
+        assertEquals(10, items.size());
+        assertEquals(ROOT + "/a", items.get(1).getPath());
+        assertEquals(ROOT + "/c", items.get(3).getPath());
+        assertEquals(ROOT + "/a/one", items.get(4).getPath());
+        assertFalse(expansion.isTruncated());
+    }
+
+    @Test
+    void deepExpansionReportsDepthCutOff(AemContext context) {
+        PayloadExpansion expansion = PayloadExpansion.deep(1, 100, 60000);
+
+        new PayloadItemResolver(context.resourceResolver(), items::add, expansion).resolve(ROOT);
+
+        assertEquals(4, items.size());
+        assertTrue(expansion.isTruncated());
+    }
+
+    @Test
+    void deepExpansionWithinDepthIsNotTruncated(AemContext context) {
+        PayloadExpansion expansion = PayloadExpansion.deep(2, 100, 60000);
+
+        new PayloadItemResolver(context.resourceResolver(), items::add, expansion).resolve(ROOT + "/a");
+
+        assertEquals(3, items.size());
+        assertFalse(expansion.isTruncated());
+    }
+
+    @Test
+    void deepExpansionReportsTruncation(AemContext context) {
+        PayloadExpansion expansion = PayloadExpansion.deep(5, 4, 60000);
+
+        new PayloadItemResolver(context.resourceResolver(), items::add, expansion).resolve(ROOT);
+
+        assertEquals(5, items.size());
+        assertTrue(expansion.isTruncated());
+    }
+
+    @Test
+    void excludedRootIsExpandedForIncludedItems(AemContext context) {
+        String dam = "/content/dam/skipton";
+        context.create().resource(dam, "jcr:primaryType", "sling:OrderedFolder");
+        for (String name : new String[] {"report.pdf", "image.png"}) {
+            context.create().resource(dam + "/" + name, "jcr:primaryType", "dam:Asset");
+            context.create().resource(dam + "/" + name + "/jcr:content/metadata", "dc:format", "application/octet-stream");
+        }
+        PackageFilter filter = new PackageFilter(Collections.singletonList(new PackageFilter.FilterSet(dam,
+            Collections.singletonList(new PackageFilter.Rule(true, Pattern.compile(".*\\.pdf"))))));
+
+        new PayloadItemResolver(context.resourceResolver(), items::add, PayloadExpansion.shallow().within(filter::contains))
+            .resolveAll(Collections.singletonList(dam));
+
+        assertEquals(1, items.size());
+        assertEquals(dam + "/report.pdf", items.get(0).getPath());
+    }
+}
@@ -0,0 +1,90 @@
+package com.skipton.core.workflows;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PayloadListCacheTest {
+
+    private static final String PACKAGE_PATH = "/var/workflow/packages/approval-package";
+    private static final String USER = "reviewer";
+
+    private final PayloadListCache fixture = new PayloadListCache();
+
+    @BeforeEach
+    void setup() {
+        PayloadListCache.Config config = mock(PayloadListCache.Config.class);
+        when(config.enabled()).thenReturn(true);
+        when(config.max_entries()).thenReturn(2);
+        when(config.max_pages()).thenReturn(4);
+        fixture.activate(config);
+    }
+
+    @Test
+    void keyIncludesLastModified() {
+        fixture.put("wf1", USER, 1L, PACKAGE_PATH, Arrays.asList("/content/skipton/us/en"));
+
+        assertNotNull(fixture.get("wf1", USER, 1L));
+        assertNull(fixture.get("wf1", USER, 2L));
+    }
+
+    @Test
+    void keyIncludesUser() {
+        fixture.put("wf1", USER, 1L, PACKAGE_PATH, Arrays.asList("/content/skipton/us/en"));
+
+        assertNull(fixture.get("wf1", "other-reviewer", 1L));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        fixture.put("wf1", USER, 1L, PACKAGE_PATH, Arrays.asList("/content/a"));
+        fixture.put("wf2", USER, 1L, PACKAGE_PATH, Arrays.asList("/content/b"));
+        fixture.get("wf1", USER, 1L);
+        fixture.put("wf3", USER, 1L, PACKAGE_PATH, Arrays.asList("/content/c"));
+
+        assertNotNull(fixture.get("wf1", USER, 1L));
+        assertNull(fixture.get("wf2", USER, 1L));
+        assertNotNull(fixture.get("wf3", USER, 1L));
+    }
+
+    @Test
+    void changesBelowAndAboveRootInvalidate() {
+        fixture.put("wf1", USER, 1L, PACKAGE_PATH, Arrays.asList("/content/skipton/us/en"));
+        fixture.invalidate("/content/skipton/us/en/jcr:content/root/text");
+        assertNull(fixture.get("wf1", USER, 1L));
+
+        fixture.put("wf1", USER, 1L, PACKAGE_PATH, Arrays.asList("/content/skipton/us/en"));
+        fixture.invalidate("/content/skipton");
+        assertNull(fixture.get("wf1", USER, 1L));
+    }
+
+    @Test
+    void unrelatedChangeKeepsEntry() {
+        fixture.put("wf1", USER, 1L, PACKAGE_PATH, Arrays.asList("/content/skipton/us/en"));
+
+        fixture.invalidate("/content/skipton/us/de");
+        fixture.invalidate("/content/skipton/us/english");
+
+        assertEquals(1, fixture.size());
+    }
+
+    @Test
+    void invalidatedEntryDropsLatePages() {
+        PayloadListCache.Entry entry = fixture.put("wf1", USER, 1L, PACKAGE_PATH, Arrays.asList("/content/skipton/us/en"));
+        fixture.invalidate("/content/skipton/us/en");
+
+        entry.putPage("0:50", Collections.singletonList(
+            new PayloadItem("/content/skipton/us/en", "English", "cq:Page", "Page")));
+
+        assertNull(entry.getPage("0:50"));
+    }
+}
@@ -0,0 +1,76 @@
+package com.skipton.core.workflows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.skipton.core.workflows.PayloadListMetrics.Discovery;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.metrics.Timer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class PayloadListMetricsTest {
+
+    private final Map<String, Timer> timers = new HashMap<>();
+    private final Map<String, Counter> counters = new HashMap<>();
+
+    private PayloadListMetrics fixture;
+
+    @BeforeEach
+    void setup(AemContext context) {
+        MetricsService metricsService = mock(MetricsService.class);
+        when(metricsService.timer(anyString())).thenAnswer(invocation ->
+            timers.computeIfAbsent(invocation.getArgument(0), name -> mock(Timer.class)));
+        when(metricsService.counter(anyString())).thenAnswer(invocation ->
+            counters.computeIfAbsent(invocation.getArgument(0), name -> mock(Counter.class)));
+        context.registerService(MetricsService.class, metricsService);
+
+        fixture = context.registerInjectActivateService(new PayloadListMetrics());
+    }
+
+    @Test
+    void activateCreatesAllMetrics() {
+        assertEquals(Discovery.values().length + 1, timers.size());
+        assertEquals(Discovery.values().length * 2 + 2, counters.size());
+    }
+
+    @Test
+    void discoveryRecordsTimeAndHit() {
+        fixture.discovery(Discovery.PARAMETER, System.nanoTime(), true);
+
+        verify(timers.get("skipton.payloadlist.discovery.parameter.time")).update(anyLong(), eq(TimeUnit.NANOSECONDS));
+        verify(counters.get("skipton.payloadlist.discovery.parameter.hit")).increment();
+        verify(counters.get("skipton.payloadlist.discovery.parameter.miss"), never()).increment();
+    }
+
+    @Test
+    void discoveryRecordsMiss() {
+        fixture.discovery(Discovery.SUFFIX, System.nanoTime(), false);
+
+        verify(counters.get("skipton.payloadlist.discovery.suffix.miss")).increment();
+    }
+
+    @Test
+    void itemsAndFallbacksAreCounted() {
+        fixture.itemsLoaded(12);
+        fixture.fallback();
+
+        verify(counters.get("skipton.payloadlist.items.loaded")).increment(12);
+        verify(counters.get("skipton.payloadlist.fallback")).increment();
+    }
+}
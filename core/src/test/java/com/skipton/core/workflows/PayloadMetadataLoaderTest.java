@@ -0,0 +1,85 @@
+package com.skipton.core.workflows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.skipton.core.models.PayloadListModel.PayloadItem;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+@ExtendWith(AemContextExtension.class)
+class PayloadMetadataLoaderTest {
+
+    private static final String PAGE = "/content/skipton/us/en/page";
+    private static final String ASSET = "/content/dam/skipton/report.pdf";
+    private static final String UNPROCESSED_ASSET = "/content/dam/skipton/upload.pdf";
+
+    private final Calendar modified = Calendar.getInstance();
+
+    @BeforeEach
+    void setup(AemContext context) {
+        Map<String, Object> pageProperties = new HashMap<>();
+        pageProperties.put("jcr:title", "Page Title");
+        pageProperties.put("cq:lastModified", modified);
+        context.create().page(PAGE, null, pageProperties);
+
+        context.create().resource(ASSET, "jcr:primaryType", "dam:Asset");
+        context.create().resource(ASSET + "/jcr:content", "jcr:lastModified", modified);
+        context.create().resource(ASSET + "/jcr:content/metadata", "dc:title", "Annual Report", "dc:format", "application/pdf");
+
+        context.create().resource(UNPROCESSED_ASSET, "jcr:primaryType", "dam:Asset");
+        context.create().resource(UNPROCESSED_ASSET + "/jcr:content/metadata");
+    }
+
+    @Test
+    void loadReadsPagesAndAssets(AemContext context) {
+        Map<String, PayloadItem> items = new PayloadMetadataLoader(context.resourceResolver())
+            .load(Arrays.asList(PAGE, ASSET, "/content/skipton/us/en/missing"));
+
+        assertEquals(2, items.size());
+        assertEquals("Page Title", items.get(PAGE).getTitle());
+        assertEquals("Page", items.get(PAGE).getCategory());
+        assertEquals(modified.getTimeInMillis(), items.get(PAGE).getLastModified().getTimeInMillis());
+        assertEquals("Annual Report", items.get(ASSET).getTitle());
+        assertEquals("application/pdf", items.get(ASSET).getCategory());
+        assertNotNull(items.get(ASSET).getLastModified());
+    }
+
+    @Test
+    void loadLeavesOutIncompleteResources(AemContext context) {
+        Map<String, PayloadItem> items = new PayloadMetadataLoader(context.resourceResolver())
+            .load(Arrays.asList(ASSET, UNPROCESSED_ASSET));
+
+        assertFalse(items.containsKey(UNPROCESSED_ASSET));
+    }
+
+    @Test
+    void loadReadsSiblingsByName(AemContext context) {
+        Map<String, PayloadItem> items = new PayloadMetadataLoader(context.resourceResolver())
+            .load(Arrays.asList(ASSET, "/content/dam/skipton/missing.pdf", UNPROCESSED_ASSET));
+
+        assertEquals(1, items.size());
+        assertEquals("Annual Report", items.get(ASSET).getTitle());
+    }
+
+    @Test
+    void resolveAllKeepsOrder(AemContext context) {
+        List<PayloadItem> resolved = new ArrayList<>();
+
+        new PayloadItemResolver(context.resourceResolver(), resolved::add).resolveAll(Arrays.asList(ASSET, PAGE));
+
+        assertEquals(Arrays.asList(ASSET, PAGE), resolved.stream().map(PayloadItem::getPath).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,194 @@
+package com.skipton.core.workflows;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.Workflow;
+import com.adobe.granite.workflow.exec.WorkflowData;
+import com.adobe.granite.workflow.metadata.MetaDataMap;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.JobManager.QueryType;
+import org.apache.sling.event.jobs.consumer.JobConsumer.JobResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class PayloadValidationProcessTest {
+
+    private static final String PACKAGE = "/var/workflow/packages/validation";
+    private static final String PAGE = "/content/skipton/us/en/page";
+    private static final String ASSET = "/content/dam/skipton/report.pdf";
+
+    private final List<Map<String, Object>> jobs = new ArrayList<>();
+    private final List<Job> queuedJobs = new ArrayList<>();
+    private final JobManager jobManager = mock(JobManager.class);
+    private final WorkflowSession workflowSession = mock(WorkflowSession.class);
+    private final MetaDataMap wfData = mock(MetaDataMap.class);
+
+    private PayloadValidationProcess fixture;
+    private PayloadValidationJobConsumer consumer;
+
+    @BeforeEach
+    void setup(AemContext context) {
+        when(jobManager.addJob(eq(PayloadValidationJobConsumer.TOPIC), anyMap())).thenAnswer(invocation -> {
+            jobs.add(invocation.getArgument(1));
+            Job job = mock(Job.class);
+            queuedJobs.add(job);
+            return job;
+        });
+        when(jobManager.findJobs(eq(QueryType.ALL), eq(PayloadValidationJobConsumer.TOPIC), anyLong(), any()))
+            .thenAnswer(invocation -> new ArrayList<>(queuedJobs));
+        context.registerService(JobManager.class, jobManager);
+        fixture = context.registerInjectActivateService(new PayloadValidationProcess(), "chunk.size", 1);
+        consumer = context.registerInjectActivateService(new PayloadValidationJobConsumer(),
+            "required.renditions", new String[] { "original" }, "max.binary.size", 1000L);
+        when(workflowSession.adaptTo(ResourceResolver.class)).thenReturn(context.resourceResolver());
+
+        context.create().page(PAGE);
+        context.create().resource(PAGE + "/jcr:content/root/link", "linkURL", "/content/skipton/us/en/missing.html");
+        context.create().resource(ASSET, "jcr:primaryType", "dam:Asset");
+        context.create().resource(ASSET + "/jcr:content/renditions/original");
+        context.create().resource(ASSET + "/jcr:content/metadata", "dam:size", 500L);
+
+        context.create().resource(PACKAGE + "/jcr:content/vlt:definition/filter/f0", "root", PAGE);
+        context.create().resource(PACKAGE + "/jcr:content/vlt:definition/filter/f1", "root", ASSET);
+    }
+
+    @Test
+    void validationResultsAreWrittenToWorkflowMetaData(AemContext context) throws WorkflowException {
+        WorkItem item = workItem(PACKAGE);
+
+        Serializable batchId = fixture.execute(item, workflowSession, null);
+        assertEquals(2, jobs.size());
+        assertFalse(fixture.hasFinished(batchId, item, workflowSession, null));
+
+        for (Map<String, Object> job : jobs) {
+            assertEquals(JobResult.OK, consumer.process(job(job)));
+        }
+        queuedJobs.clear();
+        assertTrue(fixture.hasFinished(batchId, item, workflowSession, null));
+
+        fixture.handleResult(batchId, item, workflowSession, null);
+        verify(wfData).put(PayloadValidationProcess.VALIDATION_STATUS, PayloadValidationProcess.INVALID);
+        verify(wfData).put(PayloadValidationProcess.VALIDATION_CHECKED, 2L);
+        verify(wfData).put(PayloadValidationProcess.VALIDATION_ISSUES, new String[] {
+            PAGE + "/jcr:content/root/link/linkURL: broken reference to /content/skipton/us/en/missing.html" });
+        assertNull(context.resourceResolver().getResource(PayloadValidationProcess.BATCH_ROOT + "/" + batchId));
+    }
+
+    @Test
+    void packageItemsAreExpandedWithinFilter(AemContext context) throws WorkflowException {
+        String pkg = "/var/workflow/packages/tree";
+        context.create().page(PAGE + "/child");
+        context.create().page(PAGE + "/private");
+        context.create().resource(pkg + "/jcr:content/vlt:definition/filter/f0", "root", PAGE);
+        context.create().resource(pkg + "/jcr:content/vlt:definition/filter/f0/rules/rule0",
+            "type", "exclude", "pattern", PAGE + "/private(/.*)?");
+
+        fixture.execute(workItem(pkg), workflowSession, null);
+
+        List<String> paths = new ArrayList<>();
+        for (Map<String, Object> job : jobs) {
+            paths.addAll(Arrays.asList((String[]) job.get(PayloadValidationJobConsumer.PATHS)));
+        }
+        assertEquals(Arrays.asList(PAGE, PAGE + "/child"), paths);
+    }
+
+    @Test
+    void failedEnqueueFinishesStepIncomplete(AemContext context) throws WorkflowException {
+        when(jobManager.addJob(eq(PayloadValidationJobConsumer.TOPIC), anyMap())).thenReturn(null);
+        WorkItem item = workItem(PACKAGE);
+
+        Serializable batchId = fixture.execute(item, workflowSession, null);
+        assertTrue(fixture.hasFinished(batchId, item, workflowSession, null));
+
+        fixture.handleResult(batchId, item, workflowSession, null);
+        verify(wfData).put(PayloadValidationProcess.VALIDATION_STATUS, PayloadValidationProcess.INCOMPLETE);
+    }
+
+    @Test
+    void cancelledJobFinishesStepIncomplete(AemContext context) throws WorkflowException {
+        WorkItem item = workItem(PACKAGE);
+
+        Serializable batchId = fixture.execute(item, workflowSession, null);
+        assertEquals(JobResult.OK, consumer.process(job(jobs.get(0))));
+        queuedJobs.remove(0);
+        assertFalse(fixture.hasFinished(batchId, item, workflowSession, null));
+
+        // The second job is given up without storing a result
+        queuedJobs.clear();
+        assertTrue(fixture.hasFinished(batchId, item, workflowSession, null));
+
+        fixture.handleResult(batchId, item, workflowSession, null);
+        verify(wfData).put(PayloadValidationProcess.VALIDATION_STATUS, PayloadValidationProcess.INCOMPLETE);
+    }
+
+    @Test
+    void validatorReportsAssetIssues(AemContext context) {
+        PayloadValidator validator = new PayloadValidator(new String[] { "original", "thumbnail" }, 100L, 10);
+
+        List<String> issues = validator.validate(context.resourceResolver(), ASSET);
+
+        assertEquals(Arrays.asList(
+            ASSET + ": missing rendition thumbnail",
+            ASSET + ": binary of 500 bytes exceeds the limit of 100 bytes"), issues);
+        assertArrayEquals(new String[] { "/content/skipton/us/en/gone: does not exist" },
+            validator.validate(context.resourceResolver(), "/content/skipton/us/en/gone").toArray(new String[0]));
+    }
+
+    @Test
+    void partitionSplitsIntoChunks() {
+        List<List<String>> chunks = PayloadValidationProcess.partition(Arrays.asList("a", "b", "c"), 2);
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c")), chunks);
+    }
+
+    private WorkItem workItem(String payload) {
+        WorkItem item = mock(WorkItem.class);
+        Workflow workflow = mock(Workflow.class);
+        WorkflowData itemData = mock(WorkflowData.class);
+        WorkflowData workflowData = mock(WorkflowData.class);
+        when(item.getWorkflow()).thenReturn(workflow);
+        when(item.getWorkflowData()).thenReturn(itemData);
+        when(itemData.getPayload()).thenReturn(payload);
+        when(workflow.getId()).thenReturn("/var/workflow/instances/server0/2024-01-01/validation_1");
+        when(workflow.getWorkflowData()).thenReturn(workflowData);
+        when(workflowData.getMetaDataMap()).thenReturn(wfData);
+        return item;
+    }
+
+    private static Job job(Map<String, Object> properties) {
+        Job job = mock(Job.class);
+        when(job.getProperty(PayloadValidationJobConsumer.BATCH_ID, String.class))
+            .thenReturn((String) properties.get(PayloadValidationJobConsumer.BATCH_ID));
+        when(job.getProperty(PayloadValidationJobConsumer.CHUNK, Integer.class))
+            .thenReturn((Integer) properties.get(PayloadValidationJobConsumer.CHUNK));
+        when(job.getProperty(PayloadValidationJobConsumer.PATHS, String[].class))
+            .thenReturn((String[]) properties.get(PayloadValidationJobConsumer.PATHS));
+        return job;
+    }
+}
@@ -0,0 +1,118 @@
+package com.skipton.core.workflows;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Iterator;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.Constants;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(AemContextExtension.class)
+class StaleApprovalDetectorTest {
+
+    private static final String INSTANCES = "/var/workflow/instances/server0/2024-01-01";
+
+    private final EventAdmin eventAdmin = mock(EventAdmin.class);
+
+    private StaleApprovalDetector fixture;
+
+    @BeforeEach
+    void setup(AemContext context) {
+        context.registerService(EventAdmin.class, eventAdmin, Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+        fixture = context.registerInjectActivateService(new StaleApprovalDetector(), "max.escalations", 10);
+
+        metaData(context, "stale", "RUNNING", "PENDING", hoursAgo(72));
+        metaData(context, "recent", "RUNNING", "PENDING", hoursAgo(1));
+        metaData(context, "approved", "RUNNING", "APPROVED", hoursAgo(72));
+        metaData(context, "aborted", "ABORTED", "PENDING", hoursAgo(72));
+        context.create().resource(INSTANCES + "/stale/data/payload", "path", "/content/skipton/us/en/page");
+    }
+
+    @Test
+    void escalateOnlyStalePendingApprovals(AemContext context) throws PersistenceException {
+        Calendar cutoff = hoursAgo(48);
+
+        assertEquals(1, fixture.escalate(context.resourceResolver(), hits(context), cutoff));
+
+        ArgumentCaptor<Event> event = ArgumentCaptor.forClass(Event.class);
+        verify(eventAdmin).postEvent(event.capture());
+        assertEquals(StaleApprovalDetector.TOPIC, event.getValue().getTopic());
+        assertEquals(INSTANCES + "/stale", event.getValue().getProperty(StaleApprovalDetector.WORKFLOW_ID));
+        assertEquals("/content/skipton/us/en/page", event.getValue().getProperty(StaleApprovalDetector.PAYLOAD));
+        assertNotNull(properties(context, "stale").get(StaleApprovalDetector.ESCALATED));
+        assertNull(properties(context, "recent").get(StaleApprovalDetector.ESCALATED));
+        assertNull(properties(context, "aborted").get(StaleApprovalDetector.ESCALATED));
+
+        // Already escalated approvals are skipped even if the index still returns them
+        assertEquals(0, fixture.escalate(context.resourceResolver(), hits(context), cutoff));
+        verify(eventAdmin, times(1)).postEvent(event.capture());
+    }
+
+    @Test
+    void escalationEventsArePostedOnlyAfterTheCommit(AemContext context) throws PersistenceException {
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        doThrow(new PersistenceException("commit failed")).when(resolver).commit();
+
+        assertThrows(PersistenceException.class, () -> fixture.escalate(resolver, hits(context), hoursAgo(48)));
+
+        verify(eventAdmin, never()).postEvent(any());
+    }
+
+    @Test
+    void queryFiltersOnIndexedProperties() {
+        String query = StaleApprovalDetector.query(hoursAgo(48));
+
+        assertTrue(query.contains("m.[status] = 'PENDING'"));
+        assertTrue(query.contains("m.[statusChanged] < CAST("));
+        assertTrue(query.contains("m.[escalated] IS NULL"));
+        assertTrue(query.endsWith("ORDER BY m.[statusChanged]"));
+    }
+
+    private static Iterator<Resource> hits(AemContext context) {
+        return Arrays.asList(
+            context.resourceResolver().getResource(INSTANCES + "/stale/data/metaData"),
+            context.resourceResolver().getResource(INSTANCES + "/recent/data/metaData"),
+            context.resourceResolver().getResource(INSTANCES + "/approved/data/metaData"),
+            context.resourceResolver().getResource(INSTANCES + "/aborted/data/metaData")).iterator();
+    }
+
+    private static void metaData(AemContext context, String name, String instanceStatus, String status,
+                                 Calendar statusChanged) {
+        context.create().resource(INSTANCES + "/" + name, "status", instanceStatus);
+        context.create().resource(INSTANCES + "/" + name + "/data/metaData",
+            "status", status, StaleApprovalDetector.STATUS_CHANGED, statusChanged);
+    }
+
+    private static ValueMap properties(AemContext context, String name) {
+        return context.resourceResolver().getResource(INSTANCES + "/" + name + "/data/metaData").getValueMap();
+    }
+
+    private static Calendar hoursAgo(int hours) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.HOUR_OF_DAY, -hours);
+        return calendar;
+    }
+}
@@ -0,0 +1,107 @@
+package com.skipton.core.workflows;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.event.WorkflowEvent;
+import com.adobe.granite.workflow.exec.WorkItem;
+import com.adobe.granite.workflow.exec.Workflow;
+import com.adobe.granite.workflow.exec.WorkflowData;
+import com.adobe.granite.workflow.model.WorkflowModel;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.service.event.Event;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class WorkItemIndexTest {
+
+    private static final String WORKFLOW_ID = "/var/workflow/instances/server0/2024-01-01/approval_1";
+    private static final String ITEM_ID = WORKFLOW_ID + "/workItems/node1_var_workflow_instances";
+
+    private final WorkItemIndex fixture = new WorkItemIndex();
+
+    @Test
+    void seedIndexesRunningWorkflowsOnce(AemContext context) throws Exception {
+        WorkItem item = workItem(ITEM_ID, WORKFLOW_ID, "/content/skipton/us/en");
+        Workflow workflow = item.getWorkflow();
+        when(workflow.getWorkItems()).thenReturn(Collections.singletonList(item));
+        WorkflowSession workflowSession = mock(WorkflowSession.class);
+        when(workflowSession.getWorkflows(any(String[].class))).thenReturn(new Workflow[] { workflow });
+        context.registerAdapter(ResourceResolver.class, WorkflowSession.class, workflowSession);
+        WorkItemIndex seeded = context.registerInjectActivateService(new WorkItemIndex());
+        assertFalse(seeded.isWarm());
+
+        seeded.seed();
+        seeded.seed();
+
+        verify(workflowSession, times(1)).getWorkflows(any(String[].class));
+        assertTrue(seeded.isWarm());
+        assertEquals(WORKFLOW_ID, seeded.getByItemId(ITEM_ID).getWorkflowId());
+        assertEquals("/content/skipton/us/en", seeded.getByWorkflowId(WORKFLOW_ID).getPayloadPath());
+        assertEquals("Approval", seeded.getByWorkflowId(WORKFLOW_ID).getWorkflowTitle());
+    }
+
+    @Test
+    void completedWorkflowIsRemoved() {
+        fixture.index(workItem(ITEM_ID, WORKFLOW_ID, "/content/skipton/us/en"));
+
+        fixture.handleEvent(event(WorkflowEvent.WORKFLOW_COMPLETED_EVENT, null));
+
+        assertNull(fixture.getByItemId(ITEM_ID));
+        assertNull(fixture.getByWorkflowId(WORKFLOW_ID));
+        assertEquals(0, fixture.size());
+    }
+
+    @Test
+    void transitionReplacesWorkItems() {
+        String nextItemId = WORKFLOW_ID + "/workItems/node2_var_workflow_instances";
+        fixture.index(workItem(ITEM_ID, WORKFLOW_ID, "/content/skipton/us/en"));
+
+        fixture.handleEvent(event(WorkflowEvent.NODE_TRANSITION_EVENT,
+            workItem(nextItemId, WORKFLOW_ID, "/content/skipton/us/en")));
+
+        assertNull(fixture.getByItemId(ITEM_ID));
+        assertEquals(WORKFLOW_ID, fixture.getByItemId(nextItemId).getWorkflowId());
+    }
+
+    private static Event event(String eventType, WorkItem workItem) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(WorkflowEvent.EVENT_TYPE, eventType);
+        properties.put(WorkflowEvent.WORKFLOW_INSTANCE_ID, WORKFLOW_ID);
+        if (workItem != null) {
+            properties.put(WorkflowEvent.WORK_ITEM, workItem);
+        }
+        return new Event(WorkflowEvent.EVENT_TOPIC, properties);
+    }
+
+    private static WorkItem workItem(String itemId, String workflowId, String payload) {
+        WorkItem item = mock(WorkItem.class);
+        Workflow workflow = mock(Workflow.class);
+        WorkflowModel model = mock(WorkflowModel.class);
+        WorkflowData data = mock(WorkflowData.class);
+
+        when(item.getId()).thenReturn(itemId);
+        when(item.getWorkflow()).thenReturn(workflow);
+        when(workflow.getId()).thenReturn(workflowId);
+        when(workflow.getWorkflowModel()).thenReturn(model);
+        when(workflow.getWorkflowData()).thenReturn(data);
+        when(model.getTitle()).thenReturn("Approval");
+        when(data.getPayload()).thenReturn(payload);
+        return item;
+    }
+}
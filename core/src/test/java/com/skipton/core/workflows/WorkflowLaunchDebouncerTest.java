@@ -0,0 +1,177 @@
+package com.skipton.core.workflows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.adobe.granite.workflow.WorkflowException;
+import com.adobe.granite.workflow.WorkflowSession;
+import com.adobe.granite.workflow.exec.Workflow;
+import com.adobe.granite.workflow.exec.WorkflowData;
+import com.adobe.granite.workflow.model.WorkflowModel;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(AemContextExtension.class)
+class WorkflowLaunchDebouncerTest {
+
+    private static final String PAGE_A = "/content/skipton/us/en/a";
+    private static final String PAGE_B = "/content/skipton/us/en/b";
+
+    private final WorkflowSession workflowSession = mock(WorkflowSession.class);
+    private final WorkflowModel workflowModel = mock(WorkflowModel.class);
+
+    private WorkflowLaunchDebouncer fixture;
+
+    @BeforeEach
+    void setup(AemContext context) throws WorkflowException {
+        when(workflowSession.getModel(anyString())).thenReturn(workflowModel);
+        when(workflowSession.getWorkflows(any(String[].class))).thenReturn(new Workflow[0]);
+        context.registerAdapter(ResourceResolver.class, WorkflowSession.class, workflowSession);
+
+        fixture = context.registerInjectActivateService(new WorkflowLaunchDebouncer(),
+            "roots", new String[] { "/content/skipton" }, "group.depth", 2, "window", 60000L);
+    }
+
+    @Test
+    void prefixCoalescesBelowGroupingDepth() {
+        assertEquals("/content/skipton/us/en", fixture.prefix("/content/skipton/us/en/news/article"));
+        assertEquals("/content/skipton/us/en", fixture.prefix("/content/skipton/us/en"));
+        assertEquals("/content/skipton/us", fixture.prefix("/content/skipton/us"));
+        assertNull(fixture.prefix("/content/skiptonother/us/en"));
+        assertNull(fixture.prefix("/content/dam/skipton/report.pdf"));
+    }
+
+    @Test
+    void createPackageIsReadableAsPackageFilter(AemContext context) throws PersistenceException {
+        String packagePath = fixture.createPackage(context.resourceResolver(), "/content/skipton/us/en",
+            Arrays.asList("/content/skipton/us/en/b", "/content/skipton/us/en/a"));
+        context.resourceResolver().commit();
+
+        assertTrue(packagePath.startsWith(WorkflowLaunchDebouncer.PACKAGES_PATH + "/changes-"));
+        PackageFilter filter = PackageFilterCompiler.compile(context.resourceResolver().getResource(packagePath));
+        assertEquals(Arrays.asList("/content/skipton/us/en/a", "/content/skipton/us/en/b"), filter.getRoots());
+    }
+
+    @Test
+    void changesBelowPrefixStartOneWorkflow(AemContext context) throws WorkflowException {
+        AtomicReference<Thread> launching = new AtomicReference<>();
+        when(workflowSession.startWorkflow(eq(workflowModel), any(WorkflowData.class))).thenAnswer(invocation -> {
+            launching.set(Thread.currentThread());
+            return null;
+        });
+        fixture.accept(change(ChangeType.CHANGED, PAGE_A + "/jcr:content/root/text", null, "text"));
+        fixture.accept(change(ChangeType.ADDED, PAGE_B, null));
+        fixture.accept(change(ChangeType.CHANGED, PAGE_A + "/jcr:content", null, "jcr:title", "cq:lastModified"));
+
+        // Deactivation launches the open window right away, on the launcher thread
+        MockOsgi.deactivate(fixture, context.bundleContext());
+
+        assertEquals(Arrays.asList(PAGE_A, PAGE_B), launchedRoots(context));
+        assertNotEquals(Thread.currentThread(), launching.get());
+    }
+
+    @Test
+    void changesMadeByReplicationAndWorkflowsAreIgnored(AemContext context) throws WorkflowException {
+        ResourceChange activation = change(ChangeType.CHANGED, PAGE_A + "/jcr:content", null,
+            "cq:lastReplicated", "cq:lastReplicatedBy", "cq:lastReplicationAction", "cq:lastReplicated_publish");
+        ResourceChange rendition = change(ChangeType.ADDED, "/content/skipton/us/en/a.png/jcr:content/renditions/web",
+            "workflow-process-service");
+        ResourceChange external = change(ChangeType.CHANGED, PAGE_B + "/jcr:content", null, "jcr:title");
+        when(external.isExternal()).thenReturn(true);
+
+        assertTrue(fixture.isIgnored(activation));
+        assertTrue(fixture.isIgnored(rendition));
+        assertTrue(fixture.isIgnored(external));
+        assertFalse(fixture.isIgnored(change(ChangeType.CHANGED, PAGE_A + "/jcr:content", "author", "jcr:title")));
+
+        fixture.accept(activation);
+        fixture.accept(rendition);
+        fixture.accept(external);
+        MockOsgi.deactivate(fixture, context.bundleContext());
+
+        verify(workflowSession, never()).startWorkflow(any(WorkflowModel.class), any());
+    }
+
+    @Test
+    void itemsInRunningWorkflowsAreLeftOut(AemContext context) throws WorkflowException {
+        Workflow running = mock(Workflow.class);
+        WorkflowData data = mock(WorkflowData.class);
+        when(running.getWorkflowData()).thenReturn(data);
+        when(data.getPayload()).thenReturn(PAGE_A);
+        when(workflowSession.getWorkflows(any(String[].class))).thenReturn(new Workflow[] { running });
+
+        fixture.accept(change(ChangeType.CHANGED, PAGE_A + "/jcr:content", null, "jcr:title"));
+        fixture.accept(change(ChangeType.CHANGED, PAGE_B + "/jcr:content", null, "jcr:title"));
+        MockOsgi.deactivate(fixture, context.bundleContext());
+
+        assertEquals(Collections.singletonList(PAGE_B), launchedRoots(context));
+    }
+
+    @Test
+    void runningWorkflowsAreTakenFromTheWorkItemIndex(AemContext context) throws WorkflowException {
+        Map<String, String> payloads = new HashMap<>();
+        payloads.put("/var/workflow/instances/server0/running", PAGE_A);
+        payloads.put("/var/workflow/instances/server0/completed", PAGE_B);
+        WorkItemIndex index = mock(WorkItemIndex.class);
+        when(index.isWarm()).thenReturn(true);
+        when(index.getPayloadPaths()).thenReturn(payloads);
+        context.registerService(WorkItemIndex.class, index);
+        Workflow running = mock(Workflow.class);
+        when(running.getState()).thenReturn("RUNNING");
+        Workflow completed = mock(Workflow.class);
+        when(completed.getState()).thenReturn("COMPLETED");
+        when(workflowSession.getWorkflow("/var/workflow/instances/server0/running")).thenReturn(running);
+        when(workflowSession.getWorkflow("/var/workflow/instances/server0/completed")).thenReturn(completed);
+
+        assertEquals(Collections.singleton(PAGE_A),
+            fixture.inRunningWorkflows(workflowSession, context.resourceResolver(), Arrays.asList(PAGE_A, PAGE_B)));
+        verify(workflowSession, never()).getWorkflows(any(String[].class));
+    }
+
+    private List<String> launchedRoots(AemContext context) throws WorkflowException {
+        ArgumentCaptor<Object> payload = ArgumentCaptor.forClass(Object.class);
+        verify(workflowSession).newWorkflowData(eq("JCR_PATH"), payload.capture());
+        verify(workflowSession).startWorkflow(eq(workflowModel), any());
+        return PackageFilterCompiler.compile(context.resourceResolver().getResource(payload.getValue().toString()))
+            .getRoots();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static ResourceChange change(ChangeType type, String path, String userId, String... changedProperties) {
+        ResourceChange change = mock(ResourceChange.class);
+        when(change.getType()).thenReturn(type);
+        when(change.getPath()).thenReturn(path);
+        when(change.getUserId()).thenReturn(userId);
+        when(change.getAddedPropertyNames()).thenReturn(Collections.emptySet());
+        when(change.getChangedPropertyNames()).thenReturn(new HashSet<>(Arrays.asList(changedProperties)));
+        when(change.getRemovedPropertyNames()).thenReturn(Collections.emptySet());
+        return change;
+    }
+}